@@ -0,0 +1,79 @@
+package com.redhat.rhoar.customer.model;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Cost of converting a single Customer from and to JSON.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CustomerBenchmark {
+
+    private JsonObject json;
+    private Buffer encoded;
+    private Customer customer;
+
+    @Setup
+    public void setup() {
+        json = new JsonObject()
+                .put("customerId", "A123")
+                .put("vipStatus", "Gold")
+                .put("balance", 1200);
+        encoded = Buffer.buffer(json.encode());
+        customer = new Customer(json);
+    }
+
+    @Benchmark
+    public Customer fromJson() {
+        return new Customer(json);
+    }
+
+    // The request body path before fromJson: decode to a JsonObject, then copy into a Customer
+    @Benchmark
+    public Customer fromJsonObjectBuffer() {
+        return new Customer(new JsonObject(encoded.toString("UTF-8")));
+    }
+
+    @Benchmark
+    public Customer fromJsonBuffer() {
+        return Customer.fromJson(encoded);
+    }
+
+    @Benchmark
+    public JsonObject toJson() {
+        return customer.toJson();
+    }
+
+    @Benchmark
+    public String toJsonEncode() {
+        return customer.toJson().encode();
+    }
+
+    @Benchmark
+    public String toJsonEncodePrettily() {
+        return customer.toJson().encodePrettily();
+    }
+
+    @Benchmark
+    public Buffer writeJson() {
+        return customer.writeJson(Buffer.buffer(64));
+    }
+}
@@ -0,0 +1,66 @@
+package com.redhat.rhoar.customer.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.rhoar.customer.model.Customer;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Cost of encoding a page of customers the way RestVerticle does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CustomerListBenchmark {
+
+    @Param({"10", "500"})
+    public int size;
+
+    private List<Customer> customers;
+
+    @Setup
+    public void setup() {
+        customers = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            customers.add(new Customer(new JsonObject()
+                    .put("customerId", String.format("A%06d", i))
+                    .put("vipStatus", i % 2 == 0 ? "Gold" : "Silver")
+                    .put("balance", i * 10)));
+        }
+    }
+
+    // The list path before compact encoding: JsonArray of JsonObjects, pretty printed
+    @Benchmark
+    public String toJsonArrayPrettily() {
+        return RestVerticle.toJsonArray(customers).encodePrettily();
+    }
+
+    @Benchmark
+    public String toJsonArray() {
+        return RestVerticle.toJsonArray(customers).encode();
+    }
+
+    @Benchmark
+    public Buffer writeJsonArray() {
+        return RestVerticle.writeJsonArray(customers);
+    }
+}
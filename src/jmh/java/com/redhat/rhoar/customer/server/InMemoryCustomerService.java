@@ -0,0 +1,119 @@
+package com.redhat.rhoar.customer.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.model.CustomerStats;
+import com.redhat.rhoar.customer.model.CustomerUpdate;
+import com.redhat.rhoar.customer.model.CustomerWriteResult;
+import com.redhat.rhoar.customer.service.CustomerService;
+import com.redhat.rhoar.customer.service.CustomerVersionConflictException;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+
+/**
+ * CustomerService kept in memory, so benchmarks measure the HTTP path and not Mongo.
+ */
+public class InMemoryCustomerService implements CustomerService {
+
+    private final NavigableMap<String, Customer> customers = new ConcurrentSkipListMap<>();
+
+    @Override
+    public void initialize(Handler<AsyncResult<Void>> resultHandler) {
+        resultHandler.handle(Future.succeededFuture());
+    }
+
+    @Override
+    public void getCustomers(Handler<AsyncResult<List<Customer>>> resulthandler) {
+        resulthandler.handle(Future.succeededFuture(new ArrayList<>(customers.values())));
+    }
+
+    @Override
+    public void getCustomers(int limit, String afterCustomerId, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        NavigableMap<String, Customer> page = afterCustomerId == null ? customers : customers.tailMap(afterCustomerId, false);
+        resulthandler.handle(Future.succeededFuture(page.values().stream().limit(limit).collect(Collectors.toList())));
+    }
+
+    @Override
+    public void findCustomers(CustomerQuery query, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        Stream<Customer> matches = customers.values().stream()
+                .filter(query::matches)
+                .sorted(query.comparator());
+        if (query.getLimit() > 0) {
+            matches = matches.limit(query.getLimit());
+        }
+        resulthandler.handle(Future.succeededFuture(matches.collect(Collectors.toList())));
+    }
+
+    @Override
+    public void getCustomer(String customerId, Handler<AsyncResult<Customer>> resulthandler) {
+        resulthandler.handle(Future.succeededFuture(customers.get(customerId)));
+    }
+
+    @Override
+    public void getCustomers(Collection<String> customerIds, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        resulthandler.handle(Future.succeededFuture(new LinkedHashSet<>(customerIds).stream()
+                .map(customers::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList())));
+    }
+
+    @Override
+    public void addCustomer(Customer customer, Handler<AsyncResult<String>> resulthandler) {
+        customers.put(customer.getCustomerId(), customer);
+        resulthandler.handle(Future.succeededFuture(customer.getCustomerId()));
+    }
+
+    @Override
+    public void addCustomers(List<Customer> batch, Handler<AsyncResult<List<CustomerWriteResult>>> resulthandler) {
+        List<CustomerWriteResult> results = new ArrayList<>(batch.size());
+        for (Customer customer : batch) {
+            customers.put(customer.getCustomerId(), customer);
+            results.add(CustomerWriteResult.ok(customer.getCustomerId()));
+        }
+        resulthandler.handle(Future.succeededFuture(results));
+    }
+
+    // Idempotency keys are not tracked: benchmarks do not repeat writes
+    @Override
+    public synchronized void updateCustomer(CustomerUpdate update, Handler<AsyncResult<Customer>> resulthandler) {
+        Customer current = customers.get(update.getCustomerId());
+        if (current == null && !update.isUpsert()) {
+            resulthandler.handle(Future.succeededFuture(null));
+        } else if (current != null && update.getExpectedVersion() != null && current.getVersion() != update.getExpectedVersion()) {
+            resulthandler.handle(Future.failedFuture(new CustomerVersionConflictException("Version " + current.getVersion())));
+        } else {
+            Customer updated = update.applyTo(current);
+            customers.put(updated.getCustomerId(), updated);
+            resulthandler.handle(Future.succeededFuture(updated));
+        }
+    }
+
+    @Override
+    public void ping(Handler<AsyncResult<String>> resultHandler) {
+        resultHandler.handle(Future.succeededFuture("OK"));
+    }
+
+    @Override
+    public void flush(Handler<AsyncResult<Void>> resultHandler) {
+        resultHandler.handle(Future.succeededFuture());
+    }
+
+    @Override
+    public void getStats(Handler<AsyncResult<CustomerStats>> resultHandler) {
+        CustomerStats stats = new CustomerStats();
+        customers.values().forEach(stats::add);
+        resultHandler.handle(Future.succeededFuture(stats));
+    }
+}
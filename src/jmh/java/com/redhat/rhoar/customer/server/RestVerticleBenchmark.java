@@ -0,0 +1,132 @@
+package com.redhat.rhoar.customer.server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.rhoar.customer.model.Customer;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * End-to-end throughput of the REST routes, over HTTP, against an in-memory CustomerService.
+ * <p/>
+ * Run with several client threads, e.g. "-t 8", to load more than one connection.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RestVerticleBenchmark {
+
+    private static final int CUSTOMERS = 1000;
+
+    private Vertx vertx;
+    private HttpClient client;
+    private int port;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Setup
+    public void setup() throws Exception {
+        vertx = Vertx.vertx();
+        InMemoryCustomerService customerService = new InMemoryCustomerService();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            customerService.addCustomer(customer(i), ar -> {});
+        }
+
+        port = freePort();
+        CompletableFuture<String> deployed = new CompletableFuture<>();
+        DeploymentOptions options = new DeploymentOptions()
+                .setConfig(new JsonObject().put("customer.http.port", port));
+        vertx.deployVerticle(new RestVerticle(customerService), options, ar -> {
+            if (ar.succeeded()) {
+                deployed.complete(ar.result());
+            } else {
+                deployed.completeExceptionally(ar.cause());
+            }
+        });
+        deployed.get(10, TimeUnit.SECONDS);
+
+        client = vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultPort(port)
+                .setKeepAlive(true)
+                .setMaxPoolSize(64));
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        vertx.close();
+    }
+
+    @Benchmark
+    public Buffer getCustomer() throws Exception {
+        return get("/customer/" + customer(counter.incrementAndGet() % CUSTOMERS).getCustomerId());
+    }
+
+    @Benchmark
+    public Buffer getCustomersPage() throws Exception {
+        return get("/customers?limit=100");
+    }
+
+    @Benchmark
+    public Buffer getCustomersStream() throws Exception {
+        return get("/customers");
+    }
+
+    @Benchmark
+    public int addCustomer() throws Exception {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        Buffer body = customer(counter.incrementAndGet() % CUSTOMERS).writeJson(Buffer.buffer(64));
+        client.post("/customer", response -> {
+                response.bodyHandler(b -> result.complete(response.statusCode()));
+            })
+            .exceptionHandler(result::completeExceptionally)
+            .putHeader("Content-type", "application/json")
+            .putHeader("Content-length", Integer.toString(body.length()))
+            .end(body);
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    private Buffer get(String uri) throws Exception {
+        CompletableFuture<Buffer> result = new CompletableFuture<>();
+        client.get(uri, response -> response.bodyHandler(result::complete))
+            .exceptionHandler(result::completeExceptionally)
+            .end();
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    private static Customer customer(int i) {
+        return new Customer(new JsonObject()
+                .put("customerId", String.format("A%06d", i))
+                .put("vipStatus", i % 2 == 0 ? "Gold" : "Silver")
+                .put("balance", i * 10));
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.redhat.rhoar.customer.model;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * 64-bit FNV-1a hash of encoded content, as 16 hex digits.
+ * <p/>
+ * Used for entity tags: cheap to compute on every write, and collisions between versions of the
+ * same resource are unlikely enough for cache validation. Not suitable for anything security related.
+ */
+public final class ContentHash {
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private long hash = OFFSET_BASIS;
+
+    public static String of(Buffer content) {
+        return new ContentHash().update(content).toString();
+    }
+
+    public ContentHash update(Buffer content) {
+        for (int i = 0; i < content.length(); i++) {
+            update(content.getByte(i));
+        }
+        return this;
+    }
+
+    public ContentHash update(String content) {
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            update((byte) (c >>> 8));
+            update((byte) c);
+        }
+        return this;
+    }
+
+    private void update(byte b) {
+        hash ^= b & 0xff;
+        hash *= PRIME;
+    }
+
+    @Override
+    public String toString() {
+        String hex = Long.toHexString(hash);
+        return hex.length() == 16 ? hex : "0000000000000000".substring(hex.length()) + hex;
+    }
+}
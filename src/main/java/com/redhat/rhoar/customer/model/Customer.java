@@ -1,9 +1,28 @@
 package com.redhat.rhoar.customer.model;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonParser.NumberType;
+import com.fasterxml.jackson.core.JsonToken;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonObject;
 
+/**
+ * A customer: id, VIP status and balance.
+ * <p/>
+ * Kept compact because many of them sit in the cache: the balance is a primitive and the known VIP
+ * statuses are shared strings. Customers returned by the CustomerService may be shared between requests
+ * (cache, coalesced reads), so treat them as values and do not modify them; the setters are for
+ * building new instances.
+ */
 public class Customer implements Serializable {
 
     private static final long serialVersionUID = -6994655395272795260L;
@@ -11,12 +30,24 @@ public class Customer implements Serializable {
 
 	private String customerId;
     private String vipStatus;
-    private Integer balance;
+    private int balance;
+
+    // Content hash as stored with the document, see getEtag()
+    private String etag;
+
+    // Write count of the stored document, see getVersion()
+    private long version;
 
     // This is required if you want to use Customer as a Data Object on the EventBus
     public Customer() {
         
     }
+
+    public Customer(String customerId, String vipStatus, int balance) {
+        this.customerId = customerId;
+        this.vipStatus = canonicalVipStatus(vipStatus);
+        this.balance = balance;
+    }
     
     //-----
     // Add a constructor which takes a JSON object as parameter. 
@@ -28,11 +59,102 @@ public class Customer implements Serializable {
     //    "balance"		: 1200
     //  }
     //
+    // As in fromJson(Buffer), a missing or null balance is 0 and a balance that is not a whole
+    // number or does not fit in an int is rejected with an IllegalArgumentException. Documents
+    // read from Mongo may hold it as a Long or a Double.
     //-----
     public Customer(JsonObject jsonObject) {
     	customerId = jsonObject.getString("customerId");
-    	vipStatus = jsonObject.getString("vipStatus");
-    	balance = jsonObject.getInteger("balance");
+    	vipStatus = canonicalVipStatus(jsonObject.getString("vipStatus"));
+    	Number balance = (Number) jsonObject.getValue("balance");
+    	this.balance = balance == null ? 0 : intBalance(balance);
+    }
+
+    private static int intBalance(Number balance) {
+        boolean fits;
+        if (balance instanceof Double || balance instanceof Float) {
+            fits = balance.doubleValue() == (int) balance.doubleValue();
+        } else {
+            fits = balance.longValue() == (int) balance.longValue();
+        }
+        if (!fits) {
+            throw new IllegalArgumentException("balance must be an integer: " + balance);
+        }
+        return balance.intValue();
+    }
+
+    //-----
+    // Reads a Customer straight from its JSON bytes, e.g. a request body, without building a
+    // JsonObject first. Unknown fields are skipped. A missing or null balance is 0; a balance that
+    // is not an integer or does not fit in an int is rejected with an IllegalArgumentException
+    // rather than truncated.
+    //-----
+    public static Customer fromJson(Buffer buffer) {
+        try (JsonParser parser = Json.mapper.getFactory().createParser(buffer.getBytes())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new DecodeException("Customer must be a JSON object");
+            }
+            Customer customer = new Customer();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                case "customerId":
+                    customer.customerId = stringValue(parser, value, field);
+                    break;
+                case "vipStatus":
+                    customer.vipStatus = canonicalVipStatus(stringValue(parser, value, field));
+                    break;
+                case "balance":
+                    if (value == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() == NumberType.INT) {
+                        customer.balance = parser.getIntValue();
+                    } else if (value == JsonToken.VALUE_NUMBER_INT || value == JsonToken.VALUE_NUMBER_FLOAT) {
+                        throw new IllegalArgumentException("balance must be an integer: " + parser.getText());
+                    } else if (value != JsonToken.VALUE_NULL) {
+                        throw new DecodeException("balance must be a number");
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+                }
+            }
+            if (parser.getCurrentToken() != JsonToken.END_OBJECT || parser.nextToken() != null) {
+                throw new DecodeException("Customer must be a single JSON object");
+            }
+            return customer;
+        } catch (IOException e) {
+            throw new DecodeException("Failed to decode customer: " + e.getMessage());
+        }
+    }
+
+    private static String stringValue(JsonParser parser, JsonToken value, String field) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        } else if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        throw new DecodeException(field + " must be a string");
+    }
+
+    //-----
+    // There are only a handful of VIP statuses, but every decoded customer carries its own copy of
+    // the string. Customers with a known status share one instance of it instead, which keeps
+    // cached customers small. Other values are kept as given: callers cannot add to the table.
+    //-----
+    private static final Map<String, String> VIP_STATUSES = new HashMap<>();
+
+    static {
+        for (String vipStatus : new String[] {"Diamond", "Gold", "Silver", "Bronze"}) {
+            VIP_STATUSES.put(vipStatus, vipStatus);
+        }
+    }
+
+    static String canonicalVipStatus(String vipStatus) {
+        if (vipStatus == null) {
+            return null;
+        }
+        String canonical = VIP_STATUSES.get(vipStatus);
+        return canonical != null ? canonical : vipStatus;
     }
     
 
@@ -56,12 +178,154 @@ public class Customer implements Serializable {
         return json;
     }
     
+    //-----
+    // Writes the same JSON as toJson().encode() straight into the buffer,
+    // without building an intermediate JsonObject or String for the whole record.
+    //-----
+    public Buffer writeJson(Buffer buffer) {
+        buffer.appendBytes(CUSTOMER_ID_FIELD);
+        appendJsonString(buffer, customerId);
+        buffer.appendBytes(VIP_STATUS_FIELD);
+        appendJsonString(buffer, vipStatus);
+        buffer.appendBytes(BALANCE_FIELD);
+        appendInt(buffer, balance);
+        buffer.appendByte((byte) '}');
+        return buffer;
+    }
+
+    //-----
+    // Strong entity tag of this customer: a hash of its compact JSON form.
+    // The Mongo service stores the hash with the document on write and sets it on the Customers it
+    // reads back, so serving the tag does not require encoding the customer. Customers without a
+    // stored hash, or changed since they were read, compute it on demand.
+    //-----
+    public String getEtag() {
+        if (etag == null) {
+            etag = contentHash();
+        }
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public String contentHash() {
+        return ContentHash.of(writeJson(Buffer.buffer(64)));
+    }
+
+    //-----
+    // Number of times the stored document has been written, for optimistic concurrency: a
+    // conditional write names the version it expects and fails if another write came first.
+    // 0 for customers not read from the store, or stored before documents were versioned.
+    // Not part of the JSON form nor of the content hash.
+    //-----
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    private static final byte[] CUSTOMER_ID_FIELD = "{\"customerId\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VIP_STATUS_FIELD = ",\"vipStatus\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BALANCE_FIELD = ",\"balance\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+    private static void appendJsonString(Buffer buffer, String value) {
+        if (value == null) {
+            buffer.appendBytes(NULL);
+            return;
+        }
+        buffer.appendByte((byte) '"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                // Rare for customer data: let the buffer UTF-8 encode the rest of the string
+                appendEscapedUtf8(buffer, value.substring(i));
+                break;
+            } else if (c == '"' || c == '\\' || c < 0x20) {
+                appendEscaped(buffer, c);
+            } else {
+                buffer.appendByte((byte) c);
+            }
+        }
+        buffer.appendByte((byte) '"');
+    }
+
+    private static void appendEscapedUtf8(Buffer buffer, String value) {
+        int length = value.length();
+        int runStart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                if (i > runStart) {
+                    buffer.appendString(value.substring(runStart, i));
+                }
+                appendEscaped(buffer, c);
+                runStart = i + 1;
+            }
+        }
+        if (runStart < length) {
+            buffer.appendString(runStart == 0 ? value : value.substring(runStart));
+        }
+    }
+
+    private static void appendInt(Buffer buffer, int value) {
+        if (value == Integer.MIN_VALUE) {
+            buffer.appendString(Integer.toString(value));
+            return;
+        }
+        if (value < 0) {
+            buffer.appendByte((byte) '-');
+            value = -value;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.appendByte((byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    private static void appendEscaped(Buffer buffer, char c) {
+        switch (c) {
+        case '"':
+            buffer.appendString("\\\"");
+            break;
+        case '\\':
+            buffer.appendString("\\\\");
+            break;
+        case '\n':
+            buffer.appendString("\\n");
+            break;
+        case '\r':
+            buffer.appendString("\\r");
+            break;
+        case '\t':
+            buffer.appendString("\\t");
+            break;
+        case '\b':
+            buffer.appendString("\\b");
+            break;
+        case '\f':
+            buffer.appendString("\\f");
+            break;
+        default:
+            buffer.appendString(String.format("\\u%04X", (int) c));
+        }
+    }
+
     public String getCustomerId() {
 		return customerId;
 	}
 
 	public void setCustomerId(String customerId) {
 		this.customerId = customerId;
+		this.etag = null;
 	}
 
 	public String getVipStatus() {
@@ -69,15 +333,17 @@ public class Customer implements Serializable {
 	}
 
 	public void setVipStatus(String vipStatus) {
-		this.vipStatus = vipStatus;
+		this.vipStatus = canonicalVipStatus(vipStatus);
+		this.etag = null;
 	}
 
-	public Integer getBalance() {
+	public int getBalance() {
 		return balance;
 	}
 
-	public void setBalance(Integer balance) {
+	public void setBalance(int balance) {
 		this.balance = balance;
+		this.etag = null;
 	}
 
 
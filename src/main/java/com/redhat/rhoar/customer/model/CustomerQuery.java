@@ -0,0 +1,266 @@
+package com.redhat.rhoar.customer.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A page of customers matching filters, sorted and optionally projected on some fields.
+ * <p/>
+ * Filters: any of a list of VIP statuses, and an inclusive balance range. Pages are sorted on
+ * customerId, or on balance with customerId as tie-breaker, ascending or descending. The next
+ * page starts after the position of the last customer of the previous one, see {@link #after}.
+ * <p/>
+ * The JSON form carries the query over the event bus.
+ */
+public class CustomerQuery implements Serializable {
+
+    private static final long serialVersionUID = 1904721446153280411L;
+
+    public static final String CUSTOMER_ID = "customerId";
+    public static final String VIP_STATUS = "vipStatus";
+    public static final String BALANCE = "balance";
+
+    /** Fields of a customer that can be projected. */
+    public static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList(CUSTOMER_ID, VIP_STATUS, BALANCE));
+
+    /** Fields a query can be sorted on. */
+    public static final List<String> SORT_FIELDS = Collections.unmodifiableList(Arrays.asList(CUSTOMER_ID, BALANCE));
+
+    private List<String> vipStatus;
+    private Integer minBalance;
+    private Integer maxBalance;
+    private List<String> fields;
+    private String sort = CUSTOMER_ID;
+    private boolean descending;
+    private int limit;
+    private String afterCustomerId;
+    private Integer afterBalance;
+
+    public CustomerQuery() {
+
+    }
+
+    public CustomerQuery(JsonObject json) {
+        vipStatus = strings(json.getJsonArray("vipStatus"));
+        minBalance = json.getInteger("minBalance");
+        maxBalance = json.getInteger("maxBalance");
+        fields = strings(json.getJsonArray("fields"));
+        sort = json.getString("sort", CUSTOMER_ID);
+        descending = json.getBoolean("descending", false);
+        limit = json.getInteger("limit", 0);
+        afterCustomerId = json.getString("afterCustomerId");
+        afterBalance = json.getInteger("afterBalance");
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        if (vipStatus != null) {
+            json.put("vipStatus", new JsonArray(new ArrayList<>(vipStatus)));
+        }
+        if (minBalance != null) {
+            json.put("minBalance", minBalance);
+        }
+        if (maxBalance != null) {
+            json.put("maxBalance", maxBalance);
+        }
+        if (fields != null) {
+            json.put("fields", new JsonArray(new ArrayList<>(fields)));
+        }
+        json.put("sort", sort);
+        json.put("descending", descending);
+        json.put("limit", limit);
+        if (afterCustomerId != null) {
+            json.put("afterCustomerId", afterCustomerId);
+        }
+        if (afterBalance != null) {
+            json.put("afterBalance", afterBalance);
+        }
+        return json;
+    }
+
+    /**
+     * The same query, for the page that follows {@code last}.
+     */
+    public CustomerQuery after(Customer last) {
+        CustomerQuery next = new CustomerQuery(toJson());
+        next.afterCustomerId = last.getCustomerId();
+        next.afterBalance = BALANCE.equals(sort) ? last.getBalance() : null;
+        return next;
+    }
+
+    /**
+     * True for a page of all customers in customerId order with all their fields, which the
+     * paged {@code CustomerService.getCustomers} serves as well.
+     */
+    public boolean isPlain() {
+        return vipStatus == null && minBalance == null && maxBalance == null && fields == null
+                && CUSTOMER_ID.equals(sort) && !descending;
+    }
+
+    /**
+     * True when the customer passes the filters and comes after the position of the query.
+     */
+    public boolean matches(Customer customer) {
+        if (vipStatus != null && !vipStatus.contains(customer.getVipStatus())) {
+            return false;
+        }
+        if (minBalance != null && customer.getBalance() < minBalance) {
+            return false;
+        }
+        if (maxBalance != null && customer.getBalance() > maxBalance) {
+            return false;
+        }
+        if (afterCustomerId == null) {
+            return true;
+        }
+        Customer position = new Customer(afterCustomerId, null, afterBalance == null ? 0 : afterBalance);
+        return comparator().compare(customer, position) > 0;
+    }
+
+    /**
+     * The order of the results.
+     */
+    public Comparator<Customer> comparator() {
+        Comparator<Customer> byId = Comparator.comparing(Customer::getCustomerId, Comparator.nullsFirst(Comparator.naturalOrder()));
+        Comparator<Customer> comparator = BALANCE.equals(sort)
+                ? Comparator.comparingInt(Customer::getBalance).thenComparing(byId)
+                : byId;
+        return descending ? comparator.reversed() : comparator;
+    }
+
+    public List<String> getVipStatus() {
+        return vipStatus;
+    }
+
+    /**
+     * Customers with any of these VIP statuses, or null for all.
+     */
+    public void setVipStatus(List<String> vipStatus) {
+        this.vipStatus = vipStatus;
+    }
+
+    public Integer getMinBalance() {
+        return minBalance;
+    }
+
+    public void setMinBalance(Integer minBalance) {
+        this.minBalance = minBalance;
+    }
+
+    public Integer getMaxBalance() {
+        return maxBalance;
+    }
+
+    public void setMaxBalance(Integer maxBalance) {
+        this.maxBalance = maxBalance;
+    }
+
+    public List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * Only these fields of the customers, or null for all of them.
+     *
+     * @throws IllegalArgumentException for a field not in {@link #FIELDS}
+     */
+    public void setFields(List<String> fields) {
+        if (fields != null) {
+            for (String field : fields) {
+                if (!FIELDS.contains(field)) {
+                    throw new IllegalArgumentException("Unknown field: " + field);
+                }
+            }
+        }
+        this.fields = fields;
+    }
+
+    public String getSort() {
+        return sort;
+    }
+
+    /**
+     * @throws IllegalArgumentException for a field not in {@link #SORT_FIELDS}
+     */
+    public void setSort(String sort) {
+        if (!SORT_FIELDS.contains(sort)) {
+            throw new IllegalArgumentException("Cannot sort on: " + sort);
+        }
+        this.sort = sort;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public void setDescending(boolean descending) {
+        this.descending = descending;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public String getAfterCustomerId() {
+        return afterCustomerId;
+    }
+
+    public void setAfterCustomerId(String afterCustomerId) {
+        this.afterCustomerId = afterCustomerId;
+    }
+
+    public Integer getAfterBalance() {
+        return afterBalance;
+    }
+
+    /**
+     * Balance of the last customer of the previous page, when sorting on balance.
+     */
+    public void setAfterBalance(Integer afterBalance) {
+        this.afterBalance = afterBalance;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CustomerQuery)) {
+            return false;
+        }
+        return toJson().equals(((CustomerQuery) o).toJson());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(vipStatus, minBalance, maxBalance, fields, sort, descending, limit, afterCustomerId, afterBalance);
+    }
+
+    @Override
+    public String toString() {
+        return toJson().encode();
+    }
+
+    private static List<String> strings(JsonArray array) {
+        if (array == null) {
+            return null;
+        }
+        List<String> strings = new ArrayList<>(array.size());
+        for (int i = 0; i < array.size(); i++) {
+            strings.add(array.getString(i));
+        }
+        return strings;
+    }
+}
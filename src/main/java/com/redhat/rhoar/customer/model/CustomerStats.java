@@ -0,0 +1,124 @@
+package com.redhat.rhoar.customer.model;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Number of customers and sum of their balances, overall and per VIP status.
+ * <p/>
+ * Kept up to date as customers are written, so reading it costs nothing like a scan of the
+ * collection. Customers without a VIP status are counted under {@link #NO_VIP_STATUS}.
+ */
+public class CustomerStats implements Serializable {
+
+    private static final long serialVersionUID = -2718409162532845113L;
+
+    public static final String NO_VIP_STATUS = "none";
+
+    // VIP status -> { count, total balance }
+    private final Map<String, long[]> groups = new TreeMap<>();
+
+    public CustomerStats() {
+
+    }
+
+    public CustomerStats(JsonObject json) {
+        JsonObject vipStatus = json.getJsonObject("vipStatus", new JsonObject());
+        for (String status : vipStatus.fieldNames()) {
+            JsonObject group = vipStatus.getJsonObject(status);
+            add(status, group.getLong("count", 0L), group.getLong("totalBalance", 0L));
+        }
+    }
+
+    /**
+     * Adds {@code count} customers of the VIP status with a total balance of {@code totalBalance}.
+     * Negative amounts take customers away.
+     */
+    public synchronized void add(String vipStatus, long count, long totalBalance) {
+        String status = vipStatus == null ? NO_VIP_STATUS : vipStatus;
+        long[] group = groups.computeIfAbsent(status, s -> new long[2]);
+        group[0] += count;
+        group[1] += totalBalance;
+        if (group[0] <= 0) {
+            groups.remove(status);
+        }
+    }
+
+    public void add(Customer customer) {
+        add(customer.getVipStatus(), 1, customer.getBalance());
+    }
+
+    public void remove(String vipStatus, long balance) {
+        add(vipStatus, -1, -balance);
+    }
+
+    /**
+     * Replaces the content with that of {@code stats}.
+     */
+    public synchronized void reset(CustomerStats stats) {
+        CustomerStats copy = stats.copy();
+        groups.clear();
+        groups.putAll(copy.groups);
+    }
+
+    public synchronized CustomerStats copy() {
+        CustomerStats copy = new CustomerStats();
+        groups.forEach((status, group) -> copy.groups.put(status, group.clone()));
+        return copy;
+    }
+
+    public synchronized long getCount() {
+        return groups.values().stream().mapToLong(g -> g[0]).sum();
+    }
+
+    public synchronized long getTotalBalance() {
+        return groups.values().stream().mapToLong(g -> g[1]).sum();
+    }
+
+    public synchronized Set<String> getVipStatuses() {
+        return new TreeSet<>(groups.keySet());
+    }
+
+    public synchronized long getCount(String vipStatus) {
+        long[] group = groups.get(vipStatus);
+        return group == null ? 0 : group[0];
+    }
+
+    public synchronized long getTotalBalance(String vipStatus) {
+        long[] group = groups.get(vipStatus);
+        return group == null ? 0 : group[1];
+    }
+
+    public synchronized JsonObject toJson() {
+        JsonObject vipStatus = new JsonObject();
+        groups.forEach((status, group) -> vipStatus.put(status, toJson(group[0], group[1])));
+        return toJson(getCount(), getTotalBalance()).put("vipStatus", vipStatus);
+    }
+
+    private static JsonObject toJson(long count, long totalBalance) {
+        return new JsonObject()
+                .put("count", count)
+                .put("totalBalance", totalBalance)
+                .put("averageBalance", count == 0 ? 0.0 : (double) totalBalance / count);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof CustomerStats && toJson().equals(((CustomerStats) obj).toJson());
+    }
+
+    @Override
+    public int hashCode() {
+        return toJson().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return toJson().encode();
+    }
+}
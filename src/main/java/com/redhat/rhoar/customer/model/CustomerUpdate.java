@@ -0,0 +1,207 @@
+package com.redhat.rhoar.customer.model;
+
+import java.io.Serializable;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A write of one customer that the backing store applies in a single conditional operation.
+ * <p/>
+ * Either a replacement of the whole customer, see {@link #replace(Customer)}, or a partial update
+ * that sets some fields and adds to the balance, see {@link #patch(String, JsonObject)}. Only a
+ * replacement without a precondition creates a missing customer.
+ * <p/>
+ * Conditions:
+ * <ul>
+ * <li>expected version: the write only applies to that version of the customer, see
+ *     {@link Customer#getVersion()}</li>
+ * <li>must exist: the write only applies to an existing customer</li>
+ * <li>idempotency key: the write applies at most once per key. Repeating it returns the customer
+ *     as it is, without writing again.</li>
+ * </ul>
+ */
+public class CustomerUpdate implements Serializable {
+
+    private static final long serialVersionUID = 3349170218804531057L;
+
+    private final String customerId;
+    private final boolean replace;
+    // Fields to set, vipStatus and/or balance
+    private final JsonObject set;
+    private final int balanceIncrement;
+
+    private Long expectedVersion;
+    private boolean mustExist;
+    private String idempotencyKey;
+
+    private CustomerUpdate(String customerId, boolean replace, JsonObject set, int balanceIncrement) {
+        this.customerId = customerId;
+        this.replace = replace;
+        this.set = set;
+        this.balanceIncrement = balanceIncrement;
+    }
+
+    public CustomerUpdate(JsonObject json) {
+        this(json.getString("customerId"), json.getBoolean("replace", false),
+                json.getJsonObject("set", new JsonObject()), json.getInteger("balanceIncrement", 0));
+        expectedVersion = json.getLong("expectedVersion");
+        mustExist = json.getBoolean("mustExist", false);
+        idempotencyKey = json.getString("idempotencyKey");
+    }
+
+    /**
+     * Writes the whole customer, creating it if it does not exist.
+     */
+    public static CustomerUpdate replace(Customer customer) {
+        JsonObject set = new JsonObject()
+                .put("vipStatus", customer.getVipStatus())
+                .put("balance", customer.getBalance());
+        return new CustomerUpdate(customer.getCustomerId(), true, set, 0);
+    }
+
+    /**
+     * A partial update of an existing customer from a request body such as
+     * <pre>
+     *  { "vipStatus" : "Gold", "balanceIncrement" : -25 }
+     * </pre>
+     * Fields left out keep their value. "balance" sets the balance, "balanceIncrement" adds to it;
+     * they cannot be combined. "customerId" may be given but must be {@code customerId}.
+     *
+     * @throws IllegalArgumentException when the body is not a valid update
+     */
+    public static CustomerUpdate patch(String customerId, JsonObject body) {
+        JsonObject set = new JsonObject();
+        int balanceIncrement = 0;
+        for (String field : body.fieldNames()) {
+            Object value = body.getValue(field);
+            switch (field) {
+            case "customerId":
+                if (!customerId.equals(value)) {
+                    throw new IllegalArgumentException("customerId cannot be changed");
+                }
+                break;
+            case "vipStatus":
+                if (value != null && !(value instanceof String)) {
+                    throw new IllegalArgumentException("vipStatus must be a string");
+                }
+                set.put("vipStatus", Customer.canonicalVipStatus((String) value));
+                break;
+            case "balance":
+                set.put("balance", intValue(field, value));
+                break;
+            case "balanceIncrement":
+                balanceIncrement = intValue(field, value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown field: " + field);
+            }
+        }
+        if (set.containsKey("balance") && body.containsKey("balanceIncrement")) {
+            throw new IllegalArgumentException("balance and balanceIncrement cannot be combined");
+        }
+        return new CustomerUpdate(customerId, false, set, balanceIncrement);
+    }
+
+    private static int intValue(String field, Object value) {
+        if (!(value instanceof Integer)) {
+            throw new IllegalArgumentException(field + " must be an integer");
+        }
+        return (Integer) value;
+    }
+
+    public String getCustomerId() {
+        return customerId;
+    }
+
+    public boolean isReplace() {
+        return replace;
+    }
+
+    /**
+     * The fields to set and their values, not to be modified.
+     */
+    public JsonObject getSet() {
+        return set;
+    }
+
+    public int getBalanceIncrement() {
+        return balanceIncrement;
+    }
+
+    public Long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    /**
+     * @param expectedVersion the version the customer must have, 0 for a customer stored without
+     *                        a version, or null for any version
+     */
+    public CustomerUpdate setExpectedVersion(Long expectedVersion) {
+        this.expectedVersion = expectedVersion;
+        return this;
+    }
+
+    public boolean isMustExist() {
+        return mustExist;
+    }
+
+    public CustomerUpdate setMustExist(boolean mustExist) {
+        this.mustExist = mustExist;
+        return this;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public CustomerUpdate setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+        return this;
+    }
+
+    /**
+     * Whether a missing customer is created rather than left alone.
+     */
+    public boolean isUpsert() {
+        return replace && expectedVersion == null && !mustExist;
+    }
+
+    /**
+     * The customer this update makes of {@code current}, or of nothing when {@code current} is
+     * null, with the version the write gives it.
+     */
+    public Customer applyTo(Customer current) {
+        Customer updated = current == null ? new Customer(customerId, null, 0)
+                : new Customer(customerId, current.getVipStatus(), current.getBalance());
+        if (set.containsKey("vipStatus")) {
+            updated.setVipStatus(set.getString("vipStatus"));
+        }
+        if (set.containsKey("balance")) {
+            updated.setBalance(set.getInteger("balance"));
+        }
+        updated.setBalance(updated.getBalance() + balanceIncrement);
+        updated.setVersion(current == null ? 1 : current.getVersion() + 1);
+        return updated;
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject()
+                .put("customerId", customerId)
+                .put("replace", replace)
+                .put("set", set)
+                .put("balanceIncrement", balanceIncrement)
+                .put("mustExist", mustExist);
+        if (expectedVersion != null) {
+            json.put("expectedVersion", expectedVersion);
+        }
+        if (idempotencyKey != null) {
+            json.put("idempotencyKey", idempotencyKey);
+        }
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return toJson().encode();
+    }
+}
@@ -0,0 +1,66 @@
+package com.redhat.rhoar.customer.model;
+
+import java.io.Serializable;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Outcome of writing one customer as part of a batch.
+ */
+public class CustomerWriteResult implements Serializable {
+
+    private static final long serialVersionUID = 4129506467113482841L;
+
+    private String customerId;
+    private String error;
+
+    public CustomerWriteResult() {
+
+    }
+
+    public CustomerWriteResult(String customerId, String error) {
+        this.customerId = customerId;
+        this.error = error;
+    }
+
+    public static CustomerWriteResult ok(String customerId) {
+        return new CustomerWriteResult(customerId, null);
+    }
+
+    public static CustomerWriteResult failed(String customerId, String error) {
+        return new CustomerWriteResult(customerId, error);
+    }
+
+    public JsonObject toJson() {
+        final JsonObject json = new JsonObject();
+        json.put("customerId", customerId);
+        if (error == null) {
+            json.put("status", "ok");
+        } else {
+            json.put("status", "failed");
+            json.put("error", error);
+        }
+        return json;
+    }
+
+    public boolean succeeded() {
+        return error == null;
+    }
+
+    public String getCustomerId() {
+        return customerId;
+    }
+
+    public void setCustomerId(String customerId) {
+        this.customerId = customerId;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.redhat.rhoar.customer.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Decides whether a request on a customer route is served, before it reaches the CustomerService.
+ * <p/>
+ * In order, a request is refused:
+ * <ul>
+ * <li>with 503 when the service is overloaded: too many CustomerService calls in flight
+ *     ("customer.service.inflight") or the event loop lagging too far behind,</li>
+ * <li>with 503 when its route already has the maximum number of requests in progress,</li>
+ * <li>with 429 when its client is over its token-bucket rate. The client is identified by its
+ *     remote address, or by the value of the configured header. Only configure a header that
+ *     is authenticated upstream, e.g. set by an API gateway: a client choosing its own values
+ *     gets a new budget with each.</li>
+ * </ul>
+ * At most maxClients clients have their own bucket. A new client takes the bucket of the least
+ * recently seen one if that one has refilled, as it holds nothing worth keeping; otherwise it
+ * shares a single overflow bucket with the other clients that did not get one.
+ * Refused requests carry a Retry-After header and are counted in "http.server.rejected", tagged by
+ * route and reason. The state is shared by all RestVerticle instances of a Vert.x instance with the
+ * same configuration, see {@link #shared(Vertx, JsonObject, MeterRegistry)}.
+ * <p/>
+ * Settings, the "customer.admission." keys without their prefix; 0 disables a limit:
+ * maxConcurrentRequests (per route), clientRate (requests per second), clientBurst, clientKeyHeader
+ * (none by default), maxClients, maxServiceInFlight, maxEventLoopLagMs, retryAfterSeconds.
+ */
+class AdmissionControl implements Shareable {
+
+    private final MeterRegistry registry;
+    private final int maxConcurrentRequests;
+    private final double clientRate;
+    private final double clientBurst;
+    private final String clientKeyHeader;
+    private final int maxClients;
+    private final int maxServiceInFlight;
+    private final long maxEventLoopLagMs;
+    private final String retryAfter;
+
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    // In access order, guarded by itself
+    private final LinkedHashMap<String, TokenBucket> clients = new LinkedHashMap<>(16, 0.75f, true);
+    private final TokenBucket overflow;
+
+    // Registered by MeteredCustomerService, null when the service is not metered
+    private final Gauge serviceInFlight;
+
+    AdmissionControl(JsonObject config, MeterRegistry registry) {
+        this.registry = registry;
+        this.maxConcurrentRequests = config.getInteger("maxConcurrentRequests", 1000);
+        this.clientRate = config.getDouble("clientRate", 0.0);
+        this.clientBurst = config.getDouble("clientBurst", Math.max(1.0, clientRate));
+        this.clientKeyHeader = config.getString("clientKeyHeader");
+        this.maxClients = config.getInteger("maxClients", 10000);
+        this.maxServiceInFlight = config.getInteger("maxServiceInFlight", 1000);
+        this.maxEventLoopLagMs = config.getLong("maxEventLoopLagMs", 1000L);
+        this.retryAfter = Integer.toString(config.getInteger("retryAfterSeconds", 1));
+        this.serviceInFlight = registry.find("customer.service.inflight").gauge();
+        if (maxConcurrentRequests < 0 || clientRate < 0 || clientBurst < 1 || maxClients < 1 || maxServiceInFlight < 0 || maxEventLoopLagMs < 0) {
+            throw new IllegalArgumentException("Invalid customer.admission settings: " + config.encode());
+        }
+        this.overflow = new TokenBucket();
+    }
+
+    /**
+     * The AdmissionControl of this Vert.x instance for the given settings, created on first use.
+     */
+    static AdmissionControl shared(Vertx vertx, JsonObject config, MeterRegistry registry) {
+        LocalMap<String, AdmissionControl> controls = vertx.sharedData().getLocalMap("customer.admission");
+        AdmissionControl control = new AdmissionControl(config, registry);
+        AdmissionControl existing = controls.putIfAbsent(config.encode(), control);
+        return existing == null ? control : existing;
+    }
+
+    /**
+     * Wraps the handler of a route. Admitted requests count against the route until their
+     * response ends or their connection closes.
+     */
+    Handler<RoutingContext> limit(String route, EventLoopLagProbe lagProbe, Handler<RoutingContext> handler) {
+        AtomicInteger routeInFlight = inFlight.computeIfAbsent(route, r -> {
+            AtomicInteger count = new AtomicInteger();
+            Gauge.builder("http.server.inflight", count, AtomicInteger::get).tag("route", r).register(registry);
+            return count;
+        });
+        return rc -> {
+            if (overloaded(lagProbe)) {
+                reject(rc, route, 503, "overload");
+                return;
+            }
+            if (routeInFlight.incrementAndGet() > maxConcurrentRequests && maxConcurrentRequests > 0) {
+                routeInFlight.decrementAndGet();
+                reject(rc, route, 503, "concurrency");
+                return;
+            }
+            rc.response().endHandler(v -> routeInFlight.decrementAndGet());
+            if (clientRate > 0 && !bucket(clientKey(rc)).tryAcquire()) {
+                reject(rc, route, 429, "rate");
+                return;
+            }
+            handler.handle(rc);
+        };
+    }
+
+    /**
+     * Seconds a refused client should wait, for the Retry-After header of every 503 of the
+     * customer routes.
+     */
+    String retryAfter() {
+        return retryAfter;
+    }
+
+    private boolean overloaded(EventLoopLagProbe lagProbe) {
+        if (maxEventLoopLagMs > 0 && lagProbe.lastLagMillis() > maxEventLoopLagMs) {
+            return true;
+        }
+        return maxServiceInFlight > 0 && serviceInFlight != null && serviceInFlight.value() > maxServiceInFlight;
+    }
+
+    private void reject(RoutingContext rc, String route, int status, String reason) {
+        registry.counter("http.server.rejected", "route", route, "reason", reason).increment();
+        rc.response()
+            .setStatusCode(status)
+            .putHeader("Retry-After", retryAfter)
+            .end();
+    }
+
+    private String clientKey(RoutingContext rc) {
+        String key = clientKeyHeader == null ? null : rc.request().getHeader(clientKeyHeader);
+        return key != null ? "key:" + key : "ip:" + rc.request().remoteAddress().host();
+    }
+
+    private TokenBucket bucket(String client) {
+        synchronized (clients) {
+            TokenBucket bucket = clients.get(client);
+            if (bucket != null) {
+                return bucket;
+            }
+            if (clients.size() >= maxClients) {
+                Iterator<TokenBucket> eldest = clients.values().iterator();
+                if (!eldest.next().isFull()) {
+                    return overflow;
+                }
+                eldest.remove();
+            }
+            bucket = new TokenBucket();
+            clients.put(client, bucket);
+            return bucket;
+        }
+    }
+
+    private class TokenBucket {
+
+        private double tokens = clientBurst;
+        private long refilled = System.nanoTime();
+
+        synchronized boolean tryAcquire() {
+            refill();
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        synchronized boolean isFull() {
+            refill();
+            return tokens >= clientBurst;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(clientBurst, tokens + (now - refilled) * clientRate / TimeUnit.SECONDS.toNanos(1));
+            refilled = now;
+        }
+    }
+}
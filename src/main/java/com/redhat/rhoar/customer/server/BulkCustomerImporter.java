@@ -0,0 +1,172 @@
+package com.redhat.rhoar.customer.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerWriteResult;
+import com.redhat.rhoar.customer.service.CustomerService;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Imports customers from a JSON array or NDJSON request body.
+ * <p/>
+ * The body is parsed as it arrives and customers are handed to CustomerService.addCustomers in
+ * batches of {@code batchSize}. The request is paused while a batch is being written, so the
+ * client cannot push data faster than Mongo absorbs it.
+ * <p/>
+ * The response is a chunked JSON array with one result per input record, in input order,
+ * written as each batch completes.
+ */
+class BulkCustomerImporter {
+
+    private final CustomerService customerService;
+    private final RoutingContext rc;
+    private final HttpServerRequest request;
+    private final HttpServerResponse response;
+    private final int batchSize;
+    private final JsonObjectSplitter splitter;
+
+    // Records of the batch being collected: a Customer, or a CustomerWriteResult when the record was invalid
+    private List<Object> records = new ArrayList<>();
+    private int customerCount;
+    private boolean writing;
+    private boolean ended;
+    private boolean failed;
+    private boolean first = true;
+
+    BulkCustomerImporter(CustomerService customerService, RoutingContext rc, int batchSize, int maxRecordSize) {
+        this.customerService = customerService;
+        this.rc = rc;
+        this.request = rc.request();
+        this.response = rc.response();
+        this.batchSize = batchSize;
+        this.splitter = new JsonObjectSplitter(maxRecordSize, this::handleRecord, this::handleParseError);
+    }
+
+    void start() {
+        request.handler(splitter);
+        request.endHandler(v -> {
+            splitter.end();
+            ended = true;
+            if (!writing && !failed) {
+                if (records.isEmpty()) {
+                    finish();
+                } else {
+                    writeBatch();
+                }
+            }
+        });
+        request.exceptionHandler(t -> fail(t));
+    }
+
+    private void handleRecord(Buffer record) {
+        Object parsed;
+        try {
+            Customer customer = Customer.fromJson(record);
+            if (customer.getCustomerId() == null) {
+                parsed = CustomerWriteResult.failed(null, "customerId is required");
+            } else {
+                parsed = customer;
+                customerCount++;
+            }
+        } catch (DecodeException | IllegalArgumentException e) {
+            parsed = CustomerWriteResult.failed(null, "Invalid customer: " + e.getMessage());
+        }
+        records.add(parsed);
+        if (customerCount >= batchSize && !writing) {
+            writeBatch();
+        }
+    }
+
+    private void writeBatch() {
+        List<Object> batch = records;
+        records = new ArrayList<>();
+        customerCount = 0;
+        List<Customer> customers = batch.stream()
+                .filter(r -> r instanceof Customer)
+                .map(r -> (Customer) r)
+                .collect(Collectors.toList());
+
+        writing = true;
+        request.pause();
+        customerService.addCustomers(customers, ar -> batchWritten(batch, ar));
+    }
+
+    private void batchWritten(List<Object> batch, AsyncResult<List<CustomerWriteResult>> ar) {
+        writing = false;
+        if (failed) {
+            return;
+        }
+        if (ar.failed()) {
+            fail(ar.cause());
+            return;
+        }
+        writeHead();
+        Buffer chunk = Buffer.buffer();
+        int next = 0;
+        for (Object record : batch) {
+            CustomerWriteResult result = record instanceof Customer
+                    ? ar.result().get(next++)
+                    : (CustomerWriteResult) record;
+            if (!first) {
+                chunk.appendString(",");
+            }
+            chunk.appendString(result.toJson().encode());
+            first = false;
+        }
+        response.write(chunk);
+
+        if (customerCount >= batchSize || (ended && !records.isEmpty())) {
+            writeBatch();
+        } else if (ended) {
+            finish();
+        } else {
+            request.resume();
+        }
+    }
+
+    private void writeHead() {
+        if (!response.headWritten()) {
+            response.setChunked(true)
+                .putHeader("Content-type", "application/json")
+                .write("[");
+        }
+    }
+
+    private void finish() {
+        writeHead();
+        response.end("]");
+    }
+
+    private void handleParseError(String message) {
+        if (failed) {
+            return;
+        }
+        failed = true;
+        if (response.headWritten()) {
+            response.close();
+        } else {
+            response.setStatusCode(400).end(message);
+        }
+    }
+
+    private void fail(Throwable cause) {
+        if (failed) {
+            return;
+        }
+        failed = true;
+        if (response.headWritten()) {
+            response.close();
+        } else {
+            rc.fail(cause);
+        }
+    }
+}
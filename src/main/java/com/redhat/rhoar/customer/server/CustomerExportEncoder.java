@@ -0,0 +1,153 @@
+package com.redhat.rhoar.customer.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Encodes customers for an export, as NDJSON (one JSON object per line) or CSV with a header
+ * line, optionally gzip-compressed.
+ * <p/>
+ * The output is produced piece by piece: {@link #begin()}, then {@link #encode(List)} for every
+ * batch, then {@link #end()}. With gzip every piece is flushed, so each one can be written out
+ * as soon as it is encoded and the concatenation is a single gzip stream.
+ */
+class CustomerExportEncoder {
+
+    enum Format {
+        NDJSON("application/x-ndjson", ".ndjson"),
+        CSV("text/csv", ".csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        /**
+         * @throws IllegalArgumentException for an unknown format
+         */
+        static Format of(String name) {
+            return name == null ? NDJSON : valueOf(name.toUpperCase());
+        }
+    }
+
+    private final Format format;
+    private final List<String> fields;
+    private final ByteArrayOutputStream compressed;
+    private final GZIPOutputStream gzip;
+
+    /**
+     * @param fields the fields of every customer, or null for all of them
+     */
+    CustomerExportEncoder(Format format, List<String> fields, boolean gzip) {
+        this.format = format;
+        this.fields = fields;
+        if (gzip) {
+            compressed = new ByteArrayOutputStream(64 * 1024);
+            try {
+                this.gzip = new GZIPOutputStream(compressed, 8192, true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            compressed = null;
+            this.gzip = null;
+        }
+    }
+
+    String contentType() {
+        return gzip == null ? format.contentType : "application/gzip";
+    }
+
+    String fileName(String name) {
+        return name + format.extension + (gzip == null ? "" : ".gz");
+    }
+
+    Buffer begin() {
+        Buffer header = Buffer.buffer();
+        if (format == Format.CSV) {
+            header.appendString(String.join(",", columns())).appendByte((byte) '\n');
+        }
+        return output(header, false);
+    }
+
+    Buffer encode(List<Customer> customers) {
+        Buffer buffer = Buffer.buffer(customers.size() * 64);
+        for (Customer customer : customers) {
+            if (format == Format.CSV) {
+                writeCsv(customer, buffer);
+            } else if (fields != null) {
+                buffer.appendString(RestVerticle.project(customer, fields).encode());
+            } else {
+                customer.writeJson(buffer);
+            }
+            buffer.appendByte((byte) '\n');
+        }
+        return output(buffer, false);
+    }
+
+    Buffer end() {
+        return output(Buffer.buffer(), true);
+    }
+
+    private List<String> columns() {
+        return fields == null ? CustomerQuery.FIELDS : fields;
+    }
+
+    private void writeCsv(Customer customer, Buffer buffer) {
+        JsonObject json = customer.toJson();
+        boolean first = true;
+        for (String column : columns()) {
+            if (!first) {
+                buffer.appendByte((byte) ',');
+            }
+            Object value = json.getValue(column);
+            if (value != null) {
+                buffer.appendString(csvValue(value.toString()));
+            }
+            first = false;
+        }
+    }
+
+    // RFC 4180: values holding a separator, a quote or a line break are quoted, quotes doubled
+    static String csvValue(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return '"' + value.replace("\"", "\"\"") + '"';
+            }
+        }
+        return value;
+    }
+
+    private Buffer output(Buffer plain, boolean last) {
+        if (gzip == null) {
+            return plain;
+        }
+        try {
+            gzip.write(plain.getBytes());
+            if (last) {
+                gzip.finish();
+            } else {
+                gzip.flush();
+            }
+        } catch (IOException e) {
+            // Writes to memory only
+            throw new UncheckedIOException(e);
+        }
+        Buffer out = Buffer.buffer(compressed.toByteArray());
+        compressed.reset();
+        return out;
+    }
+}
@@ -0,0 +1,110 @@
+package com.redhat.rhoar.customer.server;
+
+import java.util.List;
+
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.service.CustomerService;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * Writes the customers matching a query to a stream, encoded by a {@link CustomerExportEncoder}.
+ * <p/>
+ * Customers are read from the CustomerService one batch (the query's limit) at a time, like
+ * {@link CustomerStreamWriter} does. The next batch is only read once the stream has room again,
+ * so a slow client or disk holds back the reads. The stream may be an HTTP response or a file;
+ * it is not ended, that is up to the caller once the export is done.
+ */
+class CustomerExporter {
+
+    private final CustomerService customerService;
+    private final CustomerExportEncoder encoder;
+    private final WriteStream<Buffer> out;
+    private final int batchSize;
+
+    private CustomerQuery query;
+    private Handler<AsyncResult<Void>> doneHandler;
+    private volatile boolean cancelled;
+
+    // Read by progress reports from other event loops
+    private volatile long exported;
+    private volatile long bytes;
+
+    CustomerExporter(CustomerService customerService, CustomerQuery query, CustomerExportEncoder encoder, WriteStream<Buffer> out) {
+        this.customerService = customerService;
+        this.query = query;
+        this.batchSize = query.getLimit();
+        this.encoder = encoder;
+        this.out = out;
+    }
+
+    /**
+     * Starts the export. {@code doneHandler} is called once everything has been written to the
+     * stream, or with the failure that stopped the export.
+     */
+    void start(Handler<AsyncResult<Void>> doneHandler) {
+        this.doneHandler = doneHandler;
+        write(encoder.begin());
+        fetchNext();
+    }
+
+    /**
+     * Stops the export after the batch being read, e.g. when the client went away.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    long getExported() {
+        return exported;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    private void fetchNext() {
+        RestVerticle.find(customerService, query, this::handleBatch);
+    }
+
+    private void handleBatch(AsyncResult<List<Customer>> ar) {
+        if (cancelled) {
+            doneHandler.handle(Future.failedFuture("Export cancelled"));
+            return;
+        }
+        if (ar.failed()) {
+            doneHandler.handle(Future.failedFuture(ar.cause()));
+            return;
+        }
+        List<Customer> customers = ar.result();
+        write(encoder.encode(customers));
+        exported += customers.size();
+        if (customers.size() < batchSize) {
+            write(encoder.end());
+            doneHandler.handle(Future.succeededFuture());
+            return;
+        }
+        query = query.after(customers.get(customers.size() - 1));
+        if (out.writeQueueFull()) {
+            out.drainHandler(v -> {
+                out.drainHandler(null);
+                fetchNext();
+            });
+        } else {
+            fetchNext();
+        }
+    }
+
+    // An empty chunk would end a chunked HTTP response
+    private void write(Buffer buffer) {
+        if (buffer.length() > 0) {
+            out.write(buffer);
+            bytes += buffer.length();
+        }
+    }
+}
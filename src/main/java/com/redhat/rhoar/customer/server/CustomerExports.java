@@ -0,0 +1,294 @@
+package com.redhat.rhoar.customer.server;
+
+import java.io.File;
+import java.util.UUID;
+
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.model.CustomerStats;
+import com.redhat.rhoar.customer.service.CustomerService;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Exports of the customers as NDJSON or CSV, see {@link CustomerExportEncoder}.
+ * <p/>
+ * An export is either streamed straight into the response, or written to a file in
+ * "customer.export.dir" that is downloaded once it is complete. The file is sent with sendFile,
+ * so the server does not copy it through the heap. Both kinds are tracked as jobs, whose progress
+ * can be followed while they run. A job and its file are dropped "customer.export.retention.ms"
+ * after it finished.
+ * <p/>
+ * The jobs are shared by all RestVerticles of the Vert.x instance, but not between instances:
+ * the progress and the file of an export are only found on the instance that runs it.
+ */
+class CustomerExports {
+
+    private final Vertx vertx;
+    private final CustomerService customerService;
+    private final int batchSize;
+    private final String directory;
+    private final long retentionMillis;
+    private final LocalMap<String, Job> jobs;
+
+    CustomerExports(Vertx vertx, CustomerService customerService, JsonObject config) {
+        this.vertx = vertx;
+        this.customerService = customerService;
+        this.batchSize = config.getInteger("customer.export.batch.size", 1000);
+        this.directory = config.getString("customer.export.dir", new File(System.getProperty("java.io.tmpdir"), "customer-exports").getPath());
+        this.retentionMillis = config.getLong("customer.export.retention.ms", 3600000L);
+        this.jobs = vertx.sharedData().getLocalMap("customer.exports");
+    }
+
+    //----
+    // GET /customers/export streams the export into the response. The query parameters are those
+    // of GET /customers (filters, fields, sort) plus "format" (ndjson, the default, or csv) and
+    // "gzip=true". The "X-Export-Id" header names the job to follow the progress.
+    //----
+    void stream(RoutingContext rc) {
+        Job job = newJob(rc, null);
+        if (job == null) {
+            return;
+        }
+        HttpServerResponse response = rc.response();
+        response.setChunked(true)
+            .putHeader("Content-type", job.encoder.contentType())
+            .putHeader("Content-Disposition", "attachment; filename=\"" + job.encoder.fileName("customers") + "\"")
+            .putHeader("X-Export-Id", job.id);
+        if (job.gzip) {
+            // Already compressed, keep the server from compressing it again
+            response.putHeader(HttpHeaders.CONTENT_ENCODING, HttpHeaders.IDENTITY);
+        }
+        CustomerExporter exporter = new CustomerExporter(customerService, job.query, job.encoder, response);
+        response.closeHandler(v -> exporter.cancel());
+        start(job, exporter, ar -> {
+            if (ar.succeeded()) {
+                response.end();
+            } else if (response.headWritten()) {
+                // Too late to report an error status, cut the connection so the client sees a truncated body
+                response.close();
+            } else {
+                rc.fail(ar.cause());
+            }
+            finish(job, ar);
+        });
+    }
+
+    //----
+    // POST /customers/exports starts an export to a file, with the parameters of GET
+    // /customers/export. Answers 202 with the job and its Location.
+    //----
+    void create(RoutingContext rc) {
+        Job job = newJob(rc, new File(directory, UUID.randomUUID().toString()).getPath());
+        if (job == null) {
+            return;
+        }
+        vertx.fileSystem().mkdirs(directory, mkdirs -> {
+            vertx.fileSystem().open(job.file, new OpenOptions().setWrite(true).setCreateNew(true), ar -> {
+                if (ar.failed()) {
+                    jobs.remove(job.id);
+                    rc.fail(ar.cause());
+                    return;
+                }
+                AsyncFile file = ar.result();
+                // Closing writes out what is still queued, the file is complete afterwards
+                start(job, new CustomerExporter(customerService, job.query, job.encoder, file), done ->
+                    file.close(closed -> {
+                        finish(job, done.failed() ? done : closed);
+                        if (job.state == State.FAILED) {
+                            vertx.fileSystem().delete(job.file, deleted -> { });
+                        }
+                    }));
+                rc.response()
+                    .setStatusCode(202)
+                    .putHeader("Location", "/customers/exports/" + job.id)
+                    .putHeader("Content-type", "application/json")
+                    .end(job.toJson().encode());
+            });
+        });
+    }
+
+    //----
+    // GET /customers/exports/:exportId reports the progress of an export, e.g.
+    //   {"id":"...","state":"running","format":"csv","gzip":false,"exported":120000,
+    //    "total":500000,"percent":24,"bytes":3801234,"elapsedMs":5210}
+    // "total" is the number of customers expected, from the customer stats, when it is known.
+    //----
+    void status(RoutingContext rc) {
+        Job job = jobs.get(rc.request().getParam("exportId"));
+        if (job == null) {
+            rc.fail(404);
+            return;
+        }
+        rc.response()
+            .putHeader("Content-type", "application/json")
+            .end(RestVerticle.isPretty(rc) ? job.toJson().encodePrettily() : job.toJson().encode());
+    }
+
+    //----
+    // GET /customers/exports/:exportId/file downloads the file of a finished export. 409 while
+    // the export is running or when it failed.
+    //----
+    void download(RoutingContext rc) {
+        Job job = jobs.get(rc.request().getParam("exportId"));
+        if (job == null || job.file == null) {
+            rc.fail(404);
+            return;
+        }
+        HttpServerResponse response = rc.response();
+        if (job.state != State.DONE) {
+            response.setStatusCode(409).putHeader("Content-type", "application/json").end(job.toJson().encode());
+            return;
+        }
+        response
+            .putHeader("Content-type", job.encoder.contentType())
+            .putHeader("Content-Disposition", "attachment; filename=\"" + job.encoder.fileName("customers") + "\"");
+        if (job.gzip) {
+            response.putHeader(HttpHeaders.CONTENT_ENCODING, HttpHeaders.IDENTITY);
+        }
+        response.sendFile(job.file, ar -> {
+            if (ar.failed() && !response.headWritten()) {
+                rc.fail(ar.cause());
+            }
+        });
+    }
+
+    // Null when the request is invalid, which has been answered with 400
+    private Job newJob(RoutingContext rc, String file) {
+        CustomerQuery query;
+        CustomerExportEncoder.Format format;
+        try {
+            query = RestVerticle.customerQuery(rc.request());
+            format = CustomerExportEncoder.Format.of(rc.request().getParam("format"));
+        } catch (IllegalArgumentException e) {
+            rc.fail(400);
+            return null;
+        }
+        query.setLimit(batchSize);
+        boolean gzip = Boolean.parseBoolean(rc.request().getParam("gzip"));
+        Job job = new Job(UUID.randomUUID().toString(), query, format, gzip, file);
+        jobs.put(job.id, job);
+        return job;
+    }
+
+    private void start(Job job, CustomerExporter exporter, Handler<AsyncResult<Void>> doneHandler) {
+        job.exporter = exporter;
+        total(job.query, ar -> job.total = ar.succeeded() ? ar.result() : -1);
+        System.out.println("Export " + job.id + " started: " + job.format + (job.gzip ? ", gzip" : "")
+                + (job.file == null ? "" : " to " + job.file));
+        exporter.start(doneHandler);
+    }
+
+    private void finish(Job job, AsyncResult<Void> ar) {
+        if (ar.succeeded()) {
+            job.done();
+        } else {
+            job.fail(ar.cause());
+        }
+        System.out.println("Export " + job.id + " " + job.toJson().getString("state") + ": "
+                + job.exporter.getExported() + " customers, " + job.exporter.getBytes() + " bytes in "
+                + job.elapsedMillis() + " ms" + (ar.failed() ? " (" + ar.cause() + ")" : ""));
+        vertx.setTimer(retentionMillis, id -> {
+            jobs.remove(job.id);
+            if (job.file != null) {
+                vertx.fileSystem().delete(job.file, deleted -> { });
+            }
+        });
+    }
+
+    // The number of customers the query matches, when the stats can tell without a balance filter
+    private void total(CustomerQuery query, Handler<AsyncResult<Long>> handler) {
+        if (query.getMinBalance() != null || query.getMaxBalance() != null) {
+            handler.handle(Future.succeededFuture(-1L));
+            return;
+        }
+        customerService.getStats(ar -> {
+            if (ar.failed()) {
+                handler.handle(Future.failedFuture(ar.cause()));
+                return;
+            }
+            CustomerStats stats = ar.result();
+            long total = query.getVipStatus() == null ? stats.getCount()
+                    : query.getVipStatus().stream().distinct().mapToLong(stats::getCount).sum();
+            handler.handle(Future.succeededFuture(total));
+        });
+    }
+
+    enum State {
+        RUNNING, DONE, FAILED
+    }
+
+    static class Job implements Shareable {
+
+        private final String id;
+        private final CustomerQuery query;
+        private final CustomerExportEncoder.Format format;
+        private final CustomerExportEncoder encoder;
+        private final boolean gzip;
+        private final String file;
+        private final long startedAt = System.currentTimeMillis();
+
+        private volatile CustomerExporter exporter;
+        private volatile State state = State.RUNNING;
+        private volatile long total = -1;
+        private volatile long finishedAt;
+        private volatile String error;
+
+        Job(String id, CustomerQuery query, CustomerExportEncoder.Format format, boolean gzip, String file) {
+            this.id = id;
+            this.query = query;
+            this.format = format;
+            this.encoder = new CustomerExportEncoder(format, query.getFields(), gzip);
+            this.gzip = gzip;
+            this.file = file;
+        }
+
+        void done() {
+            finishedAt = System.currentTimeMillis();
+            state = State.DONE;
+        }
+
+        void fail(Throwable cause) {
+            error = String.valueOf(cause.getMessage());
+            finishedAt = System.currentTimeMillis();
+            state = State.FAILED;
+        }
+
+        long elapsedMillis() {
+            return (finishedAt == 0 ? System.currentTimeMillis() : finishedAt) - startedAt;
+        }
+
+        JsonObject toJson() {
+            long exported = exporter == null ? 0 : exporter.getExported();
+            JsonObject json = new JsonObject()
+                    .put("id", id)
+                    .put("state", state.name().toLowerCase())
+                    .put("format", format.name().toLowerCase())
+                    .put("gzip", gzip)
+                    .put("exported", exported)
+                    .put("bytes", exporter == null ? 0 : exporter.getBytes())
+                    .put("elapsedMs", elapsedMillis());
+            if (total >= 0) {
+                json.put("total", total);
+                json.put("percent", state == State.DONE ? 100 : total == 0 ? 0 : Math.min(99, exported * 100 / total));
+            }
+            if (error != null) {
+                json.put("error", error);
+            }
+            if (file != null && state == State.DONE) {
+                json.put("file", "/customers/exports/" + id + "/file");
+            }
+            return json;
+        }
+    }
+}
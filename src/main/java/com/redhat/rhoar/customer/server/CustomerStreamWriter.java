@@ -0,0 +1,104 @@
+package com.redhat.rhoar.customer.server;
+
+import java.util.List;
+
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.service.CustomerService;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Streams the customers matching a query as a chunked JSON array.
+ * <p/>
+ * Customers are read from the CustomerService one batch (the query's limit) at a time and written to the response
+ * as they arrive. The next batch is only requested once the response write queue has room again,
+ * so a slow client holds back the reads instead of filling the heap.
+ */
+class CustomerStreamWriter {
+
+    private final CustomerService customerService;
+    private final RoutingContext rc;
+    private final HttpServerResponse response;
+    private final int batchSize;
+    private final boolean pretty;
+
+    private CustomerQuery query;
+    private boolean first = true;
+    private boolean closed;
+
+    CustomerStreamWriter(CustomerService customerService, RoutingContext rc, CustomerQuery query, boolean pretty) {
+        this.customerService = customerService;
+        this.rc = rc;
+        this.response = rc.response();
+        this.query = query;
+        this.batchSize = query.getLimit();
+        this.pretty = pretty;
+    }
+
+    void start() {
+        response.closeHandler(v -> closed = true);
+        fetchNext();
+    }
+
+    private void fetchNext() {
+        RestVerticle.find(customerService, query, this::handleBatch);
+    }
+
+    private void handleBatch(AsyncResult<List<Customer>> ar) {
+        if (closed) {
+            return;
+        }
+        if (ar.failed()) {
+            if (response.headWritten()) {
+                // Too late to report an error status, cut the connection so the client sees a truncated body
+                response.close();
+            } else {
+                rc.fail(ar.cause());
+            }
+            return;
+        }
+        if (!response.headWritten()) {
+            response.setChunked(true)
+                .putHeader("Content-type", "application/json")
+                .write("[");
+        }
+        List<Customer> customers = ar.result();
+        // One chunk per batch, each customer encoded straight into it
+        Buffer chunk = Buffer.buffer(customers.size() * 64);
+        for (Customer customer : customers) {
+            if (!first) {
+                chunk.appendByte((byte) ',');
+            }
+            if (query.getFields() != null) {
+                JsonObject json = RestVerticle.project(customer, query.getFields());
+                chunk.appendString(pretty ? json.encodePrettily() : json.encode());
+            } else if (pretty) {
+                chunk.appendString(customer.toJson().encodePrettily());
+            } else {
+                customer.writeJson(chunk);
+            }
+            first = false;
+        }
+        if (chunk.length() > 0) {
+            response.write(chunk);
+        }
+        if (customers.size() < batchSize) {
+            response.end("]");
+            return;
+        }
+        query = query.after(customers.get(customers.size() - 1));
+        if (response.writeQueueFull()) {
+            response.drainHandler(v -> {
+                response.drainHandler(null);
+                fetchNext();
+            });
+        } else {
+            fetchNext();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.redhat.rhoar.customer.server;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.redhat.rhoar.customer.model.ContentHash;
+import com.redhat.rhoar.customer.model.Customer;
+
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Entity tags for customer responses, If-None-Match and If-Match handling.
+ * <p/>
+ * Tags are built from the content hashes of the customers, so a conditional request can be
+ * answered without encoding the body. Pretty and compact bodies are different representations
+ * and get different tags. The tag of a single customer also carries its version, e.g.
+ * "0123456789abcdef-v3", which is what an If-Match on a write is checked against.
+ */
+class Etags {
+
+    private Etags() {
+    }
+
+    // "<hash>-v<version>(-pretty)", the version left out for unversioned customers
+    private static final Pattern CUSTOMER_TAG = Pattern.compile("\"[0-9a-f]+(?:-v(\\d+))?(?:-pretty)?\"");
+
+    static String of(Customer customer, boolean pretty) {
+        long version = customer.getVersion();
+        return quote(version > 0 ? customer.getEtag() + "-v" + version : customer.getEtag(), pretty);
+    }
+
+    static String of(List<Customer> customers, boolean pretty) {
+        return of(customers, null, pretty);
+    }
+
+    // A projection on some fields is a representation of its own
+    static String of(List<Customer> customers, List<String> fields, boolean pretty) {
+        ContentHash hash = new ContentHash();
+        if (fields != null) {
+            hash.update(String.join(",", fields)).update(";");
+        }
+        for (Customer customer : customers) {
+            hash.update(customer.getEtag()).update(",");
+        }
+        return quote(hash.toString(), pretty);
+    }
+
+    /**
+     * Sets the ETag header, and ends the response with 304 Not Modified when the request's
+     * If-None-Match matches it.
+     *
+     * @return true when the response was ended
+     */
+    static boolean notModified(RoutingContext rc, String etag) {
+        rc.response().putHeader("ETag", etag);
+        String ifNoneMatch = rc.request().getHeader("If-None-Match");
+        if (ifNoneMatch != null && matches(ifNoneMatch, etag)) {
+            rc.response().setStatusCode(304).end();
+            return true;
+        }
+        return false;
+    }
+
+    // If-None-Match uses the weak comparison: a W/ prefix on the client's tags is ignored
+    static boolean matches(String ifNoneMatch, String etag) {
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The version of the customer an If-Match header asks for: the version in its tag, or null
+     * for "*", which only asks for the customer to exist.
+     *
+     * @throws IllegalArgumentException when the header cannot match a customer's tag: If-Match
+     *         uses the strong comparison, so a weak tag never matches, and neither does a list of
+     *         tags or a malformed one
+     */
+    static Long expectedVersion(String ifMatch) {
+        String tag = ifMatch.trim();
+        if (tag.equals("*")) {
+            return null;
+        }
+        Matcher matcher = CUSTOMER_TAG.matcher(tag);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Not a customer entity tag: " + tag);
+        }
+        return matcher.group(1) == null ? 0L : Long.parseLong(matcher.group(1));
+    }
+
+    private static String quote(String hash, boolean pretty) {
+        return pretty ? "\"" + hash + "-pretty\"" : "\"" + hash + "\"";
+    }
+}
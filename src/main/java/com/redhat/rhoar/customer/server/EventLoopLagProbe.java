@@ -0,0 +1,60 @@
+package com.redhat.rhoar.customer.server;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Vertx;
+
+/**
+ * Measures how late a periodic timer fires on the calling verticle's event loop.
+ * A busy or blocked event loop delays the timer, so the delay is the time requests
+ * wait before they are even looked at.
+ * <p/>
+ * The "vertx.eventloop.lag" timer is tagged with the event loop thread, so each verticle instance
+ * reports the loop it runs on. Instances sharing a loop record into the same timer.
+ */
+class EventLoopLagProbe {
+
+    private final Vertx vertx;
+    private final long intervalMillis;
+    private final long intervalNanos;
+    private final Timer lag;
+
+    private long expected;
+    private volatile long lastLagNanos;
+
+    /**
+     * To be created on the event loop to probe, e.g. in the start method of a verticle.
+     */
+    EventLoopLagProbe(Vertx vertx, MeterRegistry registry, long intervalMillis) {
+        this.vertx = vertx;
+        this.intervalMillis = intervalMillis;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.lag = Timer.builder("vertx.eventloop.lag")
+                .tag("eventloop", Thread.currentThread().getName())
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Starts probing. The timer belongs to the calling verticle and stops when it is undeployed.
+     */
+    void start() {
+        expected = System.nanoTime() + intervalNanos;
+        vertx.setPeriodic(intervalMillis, id -> {
+            long now = System.nanoTime();
+            lastLagNanos = Math.max(0, now - expected);
+            lag.record(lastLagNanos, TimeUnit.NANOSECONDS);
+            // Periodic timers run at a fixed rate, so the next run is due one interval after this one was
+            expected += intervalNanos;
+        });
+    }
+
+    /**
+     * The lag measured by the latest probe, or 0 before the first one.
+     */
+    long lastLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastLagNanos);
+    }
+}
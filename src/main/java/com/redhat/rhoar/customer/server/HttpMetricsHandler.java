@@ -0,0 +1,40 @@
+package com.redhat.rhoar.customer.server;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Handler;
+import io.vertx.ext.web.Route;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Records the "http.server.requests" timer for every request, tagged by method, route pattern
+ * and status code. The route pattern (e.g. /customer/:customerId) keeps the tag cardinality
+ * bounded, whatever ids clients ask for.
+ */
+class HttpMetricsHandler implements Handler<RoutingContext> {
+
+    private final MeterRegistry registry;
+
+    HttpMetricsHandler(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void handle(RoutingContext rc) {
+        long start = System.nanoTime();
+        rc.addBodyEndHandler(v -> {
+            Route route = rc.currentRoute();
+            String path = route == null || route.getPath() == null ? "other" : route.getPath();
+            Timer.builder("http.server.requests")
+                .tag("method", rc.request().method().name())
+                .tag("route", path)
+                .tag("status", Integer.toString(rc.response().getStatusCode()))
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        });
+        rc.next();
+    }
+}
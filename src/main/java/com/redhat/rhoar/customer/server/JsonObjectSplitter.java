@@ -0,0 +1,102 @@
+package com.redhat.rhoar.customer.server;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Splits a stream of buffers into top-level JSON objects without buffering the whole body.
+ * <p/>
+ * Accepts both a JSON array of objects and newline delimited JSON (NDJSON): outside of an object
+ * only whitespace, commas and the enclosing brackets are allowed. Each complete object is handed
+ * to the record handler as its own buffer, which is at most {@code maxRecordSize} bytes long.
+ */
+class JsonObjectSplitter implements Handler<Buffer> {
+
+    private final int maxRecordSize;
+    private final Handler<Buffer> recordHandler;
+    private final Handler<String> errorHandler;
+
+    private Buffer pending = Buffer.buffer();
+    // Position in pending up to which bytes have been scanned
+    private int scanned;
+    // Start of the current object in pending, or -1 when between objects
+    private int start = -1;
+    private int depth;
+    private boolean inString;
+    private boolean escaped;
+    private boolean failed;
+
+    JsonObjectSplitter(int maxRecordSize, Handler<Buffer> recordHandler, Handler<String> errorHandler) {
+        this.maxRecordSize = maxRecordSize;
+        this.recordHandler = recordHandler;
+        this.errorHandler = errorHandler;
+    }
+
+    @Override
+    public void handle(Buffer buffer) {
+        if (failed) {
+            return;
+        }
+        pending.appendBuffer(buffer);
+        int length = pending.length();
+        for (; scanned < length; scanned++) {
+            byte b = pending.getByte(scanned);
+            if (start < 0) {
+                if (b == '{') {
+                    start = scanned;
+                    depth = 1;
+                } else if (!isSeparator(b)) {
+                    fail("Unexpected character '" + (char) b + "' between objects");
+                    return;
+                }
+            } else if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if ((b == '}' || b == ']') && --depth == 0) {
+                recordHandler.handle(pending.getBuffer(start, scanned + 1));
+                start = -1;
+            }
+            if (start >= 0 && scanned + 1 - start > maxRecordSize) {
+                fail("Record exceeds " + maxRecordSize + " bytes");
+                return;
+            }
+        }
+        // Drop what has been consumed so pending only ever holds the current partial object
+        int keep = start < 0 ? length : start;
+        if (keep > 0) {
+            pending = pending.getBuffer(keep, length);
+            scanned -= keep;
+            if (start >= 0) {
+                start = 0;
+            }
+        }
+    }
+
+    /**
+     * Signals the end of the input. Fails if it ends inside an object.
+     */
+    void end() {
+        if (!failed && start >= 0) {
+            fail("Unexpected end of input inside an object");
+        }
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == ',' || b == '[' || b == ']';
+    }
+
+    private void fail(String message) {
+        failed = true;
+        pending = Buffer.buffer();
+        errorHandler.handle(message);
+    }
+}
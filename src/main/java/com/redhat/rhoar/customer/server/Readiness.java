@@ -0,0 +1,47 @@
+package com.redhat.rhoar.customer.server;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * What a Vert.x instance still waits for before it should take traffic.
+ * <p/>
+ * /health/readiness answers 503 while any condition is pending, e.g. the Mongo pools warming up
+ * during startup. Without pending conditions the instance is ready. The state is shared by all
+ * verticles of the Vert.x instance, see {@link #shared(Vertx)}.
+ */
+public class Readiness implements Shareable {
+
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The Readiness of this Vert.x instance, created on first use.
+     */
+    public static Readiness shared(Vertx vertx) {
+        LocalMap<String, Readiness> readiness = vertx.sharedData().getLocalMap("customer.readiness");
+        Readiness created = new Readiness();
+        Readiness existing = readiness.putIfAbsent("readiness", created);
+        return existing == null ? created : existing;
+    }
+
+    public void pending(String condition) {
+        pending.add(condition);
+    }
+
+    public void done(String condition) {
+        pending.remove(condition);
+    }
+
+    public boolean isReady() {
+        return pending.isEmpty();
+    }
+
+    public Set<String> getPending() {
+        return new TreeSet<>(pending);
+    }
+}
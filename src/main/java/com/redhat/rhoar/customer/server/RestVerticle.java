@@ -1,13 +1,33 @@
 package com.redhat.rhoar.customer.server;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.Map;
 
 import com.google.inject.Inject;
 import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.model.CustomerUpdate;
 import com.redhat.rhoar.customer.service.CustomerService;
+import com.redhat.rhoar.customer.service.CustomerServiceUnavailableException;
+import com.redhat.rhoar.customer.service.CustomerVersionConflictException;
+import com.redhat.rhoar.customer.startup.AppConfig;
 
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.healthchecks.HealthCheckHandler;
@@ -18,18 +38,39 @@ import io.vertx.ext.web.handler.BodyHandler;
 
 public class RestVerticle extends AbstractVerticle {
 
+    static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
 
     private CustomerService customerService;
+    private PrometheusMeterRegistry registry;
+    private AdmissionControl admission;
 
-	@Inject
     public RestVerticle(CustomerService customerService) {
+        this(customerService, new PrometheusMeterRegistry(PrometheusConfig.DEFAULT));
+    }
+
+	@Inject
+    public RestVerticle(CustomerService customerService, PrometheusMeterRegistry registry) {
         this.customerService = customerService;
+        this.registry = registry;
     }
 
     @Override
     public void start(Future<Void> startFuture) throws Exception {
 
+        // Invalid server options fail the deployment before anything is started
+        HttpServerOptions serverOptions;
+        try {
+            serverOptions = httpServerOptions(config());
+        } catch (RuntimeException e) {
+            startFuture.fail(e);
+            return;
+        }
         Router router = Router.router(vertx);
+        router.route().handler(new HttpMetricsHandler(registry));
+        EventLoopLagProbe lagProbe = new EventLoopLagProbe(vertx, registry, config().getLong("customer.metrics.eventloop.interval.ms", 1000L));
+        lagProbe.start();
+        // Customer routes are rate limited and shed load, see AdmissionControl
+        admission = AdmissionControl.shared(vertx, AppConfig.section(config(), "customer.admission"), registry);
         //----
         // Add routes to the Router
         // * A route for HTTP GET requests that matches the "/customers" path. 
@@ -39,18 +80,59 @@ public class RestVerticle extends AbstractVerticle {
         // * A route for the path "/customer" to which a BodyHandler is attached.
         // * A route for HTTP POST requests that matches the "/customer" path. 
         //   The handler for this route is implemented by the addCustomer() method.
+        // * A route for HTTP POST requests that matches the "/customers/lookup" path.
+        //   The handler for this route is implemented by the lookupCustomers() method.
+        // * A route for HTTP GET requests that matches the "/customers/stats" path.
+        //   The handler for this route is implemented by the getStats() method.
+        // * Routes for the exports, handled by CustomerExports.
+        // * A route for HTTP PATCH requests that matches the "/customer/:customerId" path.
+        //   The handler for this route is implemented by the updateCustomer() method.
         //----
-        router.get("/customers").handler(this::getCustomers);
-        router.get("/customer/:customerId").handler(this::getCustomer);
+        router.get("/customers").handler(admission.limit("/customers", lagProbe, this::getCustomers))
+                .failureHandler(this::serviceUnavailable);
+        router.get("/customer/:customerId").handler(admission.limit("/customer/:customerId", lagProbe, this::getCustomer))
+                .failureHandler(this::serviceUnavailable);
         router.route("/customer").handler(BodyHandler.create());
-        router.post("/customer").handler(this::addCustomer);
+        router.post("/customer").handler(admission.limit("/customer", lagProbe, this::addCustomer))
+                .failureHandler(this::serviceUnavailable);
+        router.patch("/customer/:customerId").handler(BodyHandler.create());
+        router.patch("/customer/:customerId").handler(admission.limit("/customer/:customerId", lagProbe, this::updateCustomer))
+                .failureHandler(this::serviceUnavailable);
+        router.route("/customers/lookup").handler(BodyHandler.create().setBodyLimit(config().getLong("customer.lookup.max.body.size", 1024L * 1024L)));
+        router.post("/customers/lookup").handler(admission.limit("/customers/lookup", lagProbe, this::lookupCustomers))
+                .failureHandler(this::serviceUnavailable);
+        router.get("/customers/stats").handler(admission.limit("/customers/stats", lagProbe, this::getStats))
+                .failureHandler(this::serviceUnavailable);
+        CustomerExports exports = new CustomerExports(vertx, customerService, config());
+        router.get("/customers/export").handler(admission.limit("/customers/export", lagProbe, exports::stream))
+                .failureHandler(this::serviceUnavailable);
+        router.post("/customers/exports").handler(admission.limit("/customers/exports", lagProbe, exports::create))
+                .failureHandler(this::serviceUnavailable);
+        router.get("/customers/exports/:exportId").handler(exports::status);
+        router.get("/customers/exports/:exportId/file").handler(exports::download);
+        // No BodyHandler on the bulk route: the body is parsed as it streams in
+        router.post("/customers/bulk").handler(admission.limit("/customers/bulk", lagProbe, this::addCustomers))
+                .failureHandler(this::serviceUnavailable);
 
         //Health Checks
-        router.get("/health/readiness").handler(rc -> rc.response().end("OK"));
+        // Not ready while startup is still warming up, see Readiness
+        Readiness readiness = Readiness.shared(vertx);
+        router.get("/health/readiness").handler(rc -> {
+            if (readiness.isReady()) {
+                rc.response().end("OK");
+            } else {
+                rc.response().setStatusCode(503).end("Waiting for " + String.join(", ", readiness.getPending()));
+            }
+        });
         HealthCheckHandler healthCheckHandler = HealthCheckHandler.create(vertx)
                 .register("health", f -> health(f));
         router.get("/health/liveness").handler(healthCheckHandler);
 
+        //Metrics, in Prometheus text format
+        router.get("/metrics").handler(rc -> rc.response()
+                .putHeader("Content-type", TextFormat.CONTENT_TYPE_004)
+                .end(registry.scrape()));
+
         //----
         // Create a HTTP server.
         // * Use the Router as request handler
@@ -58,44 +140,252 @@ public class RestVerticle extends AbstractVerticle {
         //   Get the configuration from the config() method of AbstractVerticle.
         //   Look for the key "customer.http.port", which returns an Integer. 
         //   The default value (if the key is not set in the configuration) is 8080.
+        // * The server options (compression, TLS/ALPN for HTTP/2, timeouts, TCP settings)
+        //   come from the "customer.http.server." keys, see httpServerOptions().
         // * If the HTTP server is correctly instantiated, complete the Future. If there is a failure, fail the Future. 
         //----
-        vertx.createHttpServer()
-        .requestHandler(router::accept)
-        .listen(config().getInteger("customer.http.port", 8080), result -> {
-            if (result.succeeded()) {
-                startFuture.complete();
-            } else {
-                startFuture.fail(result.cause());
+        // Only accept requests once the service is ready, e.g. its indexes exist
+        customerService.initialize(ar -> {
+            if (ar.failed()) {
+                startFuture.fail(ar.cause());
+                return;
             }
+            vertx.createHttpServer(serverOptions)
+            .requestHandler(router::accept)
+            .listen(config().getInteger("customer.http.port", 8080), result -> {
+                if (result.succeeded()) {
+                    startFuture.complete();
+                } else {
+                    startFuture.fail(result.cause());
+                }
+            });
         });
     }
 
+    @Override
+    public void stop(Future<Void> stopFuture) throws Exception {
+        // Writes the service still buffers are stored before the verticle is gone
+        customerService.flush(stopFuture.completer());
+    }
+
     private void getCustomers(RoutingContext rc) {
         //----
-        // In the implementation:
-        // * Call the getCustomers() method of the CustomerService.
-        // * In the handler, transform the List<Customer> response to a JsonArray object.
-        // * Put a "Content-type: application/json" header on the HttpServerResponse object. 
-        // * Write the JsonArray to the HttpServerResponse, and end the response.
-        // * If the getCustomers() method returns a failure, fail the RoutingContext.
+        // Without paging parameters the whole collection is streamed as a chunked JSON array,
+        // reading it from the CustomerService in batches of "customer.stream.batch.size".
+        //
+        // With "limit" and/or "cursor" a single page is returned. When the page is full the
+        // response carries a "X-Next-Cursor" header to pass as "cursor" for the next page.
+        // Pages carry an ETag and honour If-None-Match; the stream does not, as its tag is only
+        // known once the last batch has been sent.
+        //
+        // Both can be narrowed down with query parameters, see customerQuery(). A cursor is only
+        // valid for the sort order it was issued for.
         //----
-        customerService.getCustomers(ar -> {
+        CustomerQuery query;
+        try {
+            query = customerQuery(rc.request());
+        } catch (IllegalArgumentException e) {
+            rc.fail(400);
+            return;
+        }
+        String limitParam = rc.request().getParam("limit");
+        String cursor = rc.request().getParam("cursor");
+        if (limitParam == null && cursor == null) {
+            query.setLimit(config().getInteger("customer.stream.batch.size", 500));
+            new CustomerStreamWriter(customerService, rc, query, isPretty(rc)).start();
+            return;
+        }
+
+        int maxLimit = config().getInteger("customer.page.max.limit", 1000);
+        int limit;
+        try {
+            limit = limitParam == null ? maxLimit : Integer.parseInt(limitParam);
+            if (cursor != null) {
+                applyCursor(query, cursor);
+            }
+        } catch (IllegalArgumentException e) {
+            rc.fail(400);
+            return;
+        }
+        if (limit < 1 || limit > maxLimit) {
+            rc.fail(400);
+            return;
+        }
+        query.setLimit(limit);
+
+        find(customerService, query, ar -> {
             if (ar.succeeded()) {
                 List<Customer> customers = ar.result();
-                JsonArray json = new JsonArray();
-                customers.stream()
-                    .map(p -> p.toJson())
-                    .forEach(p -> json.add(p));
-                rc.response()
+                HttpServerResponse response = rc.response();
+                if (customers.size() == limit) {
+                    response.putHeader("X-Next-Cursor", encodeCursor(query, customers.get(limit - 1)));
+                }
+                boolean pretty = isPretty(rc);
+                if (Etags.notModified(rc, Etags.of(customers, query.getFields(), pretty))) {
+                    return;
+                }
+                response
                     .putHeader("Content-type", "application/json")
-                    .end(json.encodePrettily());
+                    .end(writeJsonArray(customers, query.getFields(), pretty));
             } else {
                 rc.fail(ar.cause());
             }
         });
     }
 
+    //----
+    // Query parameters of /customers, all optional:
+    // * vipStatus=Gold,Silver   customers with any of these VIP statuses
+    // * minBalance=0            customers with at least this balance
+    // * maxBalance=1000         customers with at most this balance
+    // * fields=customerId,vipStatus
+    //                           only these fields of every customer
+    // * sort=balance            sort on balance then customerId, or on customerId (the default).
+    //                           A leading '-' sorts descending, e.g. sort=-balance.
+    // List parameters take comma separated values, or can be repeated.
+    //----
+    static CustomerQuery customerQuery(HttpServerRequest request) {
+        CustomerQuery query = new CustomerQuery();
+        query.setVipStatus(listParam(request, "vipStatus"));
+        String minBalance = request.getParam("minBalance");
+        if (minBalance != null) {
+            query.setMinBalance(Integer.valueOf(minBalance));
+        }
+        String maxBalance = request.getParam("maxBalance");
+        if (maxBalance != null) {
+            query.setMaxBalance(Integer.valueOf(maxBalance));
+        }
+        query.setFields(listParam(request, "fields"));
+        String sort = request.getParam("sort");
+        if (sort != null) {
+            if (sort.startsWith("-")) {
+                query.setDescending(true);
+                sort = sort.substring(1);
+            }
+            query.setSort(sort);
+        }
+        return query;
+    }
+
+    private static List<String> listParam(HttpServerRequest request, String name) {
+        List<String> values = new ArrayList<>();
+        for (String param : request.params().getAll(name)) {
+            for (String value : param.split(",")) {
+                if (!value.isEmpty()) {
+                    values.add(value);
+                }
+            }
+        }
+        return values.isEmpty() ? null : values;
+    }
+
+    // Plain pages go through the paged getCustomers, which predates findCustomers
+    static void find(CustomerService customerService, CustomerQuery query, Handler<AsyncResult<List<Customer>>> handler) {
+        if (query.isPlain()) {
+            customerService.getCustomers(query.getLimit(), query.getAfterCustomerId(), handler);
+        } else {
+            customerService.findCustomers(query, handler);
+        }
+    }
+
+    //----
+    // The "customer.http.server." keys are HttpServerOptions in their Vert.x JSON form, e.g.
+    //
+    //  customer.http.server.compressionLevel: 6
+    //  customer.http.server.idleTimeout: 60
+    //  customer.http.server.ssl: true
+    //  customer.http.server.pemKeyCertOptions: { certPath: /etc/tls/tls.crt, keyPath: /etc/tls/tls.key }
+    //
+    // Compression is on by default since the customer lists compress well. With TLS, ALPN is
+    // enabled unless configured otherwise so clients can negotiate HTTP/2. Cleartext HTTP/2
+    // (h2c) is accepted by the Vert.x 3.4 server unless the "vertx.disableH2c" system property is set.
+    //----
+    static HttpServerOptions httpServerOptions(JsonObject config) {
+        JsonObject json = new JsonObject()
+                .put("compressionSupported", true)
+                .put("tcpNoDelay", true)
+                .mergeIn(AppConfig.section(config, "customer.http.server"));
+        HttpServerOptions options = new HttpServerOptions(json);
+        if (options.isSsl() && !json.containsKey("useAlpn")) {
+            options.setUseAlpn(true);
+        }
+        if (options.getCompressionLevel() < 1 || options.getCompressionLevel() > 9) {
+            throw new IllegalArgumentException("customer.http.server.compressionLevel must be between 1 and 9: "
+                    + options.getCompressionLevel());
+        }
+        return options;
+    }
+
+    //----
+    // Responses are compact JSON. "?pretty=true" switches to indented JSON for humans.
+    //----
+    static boolean isPretty(RoutingContext rc) {
+        return Boolean.parseBoolean(rc.request().getParam("pretty"));
+    }
+
+    static JsonArray toJsonArray(List<Customer> customers) {
+        JsonArray json = new JsonArray();
+        customers.stream()
+            .map(p -> p.toJson())
+            .forEach(p -> json.add(p));
+        return json;
+    }
+
+    static Buffer writeJsonArray(List<Customer> customers, List<String> fields, boolean pretty) {
+        if (fields == null) {
+            return pretty ? Buffer.buffer(toJsonArray(customers).encodePrettily()) : writeJsonArray(customers);
+        }
+        JsonArray json = new JsonArray();
+        customers.forEach(c -> json.add(project(c, fields)));
+        return Buffer.buffer(pretty ? json.encodePrettily() : json.encode());
+    }
+
+    static JsonObject project(Customer customer, List<String> fields) {
+        JsonObject json = customer.toJson();
+        json.fieldNames().retainAll(fields);
+        return json;
+    }
+
+    static Buffer writeJsonArray(List<Customer> customers) {
+        Buffer buffer = Buffer.buffer(customers.size() * 64 + 2).appendByte((byte) '[');
+        for (int i = 0; i < customers.size(); i++) {
+            if (i > 0) {
+                buffer.appendByte((byte) ',');
+            }
+            customers.get(i).writeJson(buffer);
+        }
+        return buffer.appendByte((byte) ']');
+    }
+
+    static String encodeCursor(String customerId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(customerId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String decodeCursor(String cursor) {
+        return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+
+    // Sorted on balance, the cursor holds the last balance as well: "<balance>:<customerId>"
+    static String encodeCursor(CustomerQuery query, Customer last) {
+        if (CustomerQuery.BALANCE.equals(query.getSort())) {
+            return encodeCursor(last.getBalance() + ":" + last.getCustomerId());
+        }
+        return encodeCursor(last.getCustomerId());
+    }
+
+    static void applyCursor(CustomerQuery query, String cursor) {
+        String position = decodeCursor(cursor);
+        if (CustomerQuery.BALANCE.equals(query.getSort())) {
+            int separator = position.indexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Not a balance cursor: " + cursor);
+            }
+            query.setAfterBalance(Integer.valueOf(position.substring(0, separator)));
+            position = position.substring(separator + 1);
+        }
+        query.setAfterCustomerId(position);
+    }
+
     private void getCustomer(RoutingContext rc) {
         //----
         // In the implementation:
@@ -105,17 +395,21 @@ public class RestVerticle extends AbstractVerticle {
         // * Write the JsonObject to the HttpServerResponse, and end the response.
         // * If the getCustomer() method of the CustomerService returns null,  fail the RoutingContext with a 404 HTTP status code 
         // * If the getCustomer() method returns a failure, fail the RoutingContext.
+        // * The response carries the customer's ETag. A request with a matching If-None-Match
+        //   gets a 304 without a body.
         //----
         String customerId = rc.request().getParam("customerId");
         customerService.getCustomer(customerId, ar -> {
             if (ar.succeeded()) {
                 Customer customer = ar.result();
-                JsonObject json;
                 if (customer != null) {
-                    json = customer.toJson();
+                    boolean pretty = isPretty(rc);
+                    if (Etags.notModified(rc, Etags.of(customer, pretty))) {
+                        return;
+                    }
                     rc.response()
                         .putHeader("Content-type", "application/json")
-                        .end(json.encodePrettily());
+                        .end(pretty ? Buffer.buffer(customer.toJson().encodePrettily()) : customer.writeJson(Buffer.buffer(64)));
                 } else {
                     rc.fail(404);
                 }
@@ -133,9 +427,22 @@ public class RestVerticle extends AbstractVerticle {
         // * Call the addCustomer() method of the CustomerService. 
         // * If the call succeeds, set a HTTP status code 201 on the HttpServerResponse, and end the response. 
         // * If the call fails, fail the RoutingContext.
+        // * With an "Idempotency-Key" or "If-Match" header the write is conditional, see
+        //   conditionalUpdate(): a retried request is not applied twice, and a write against a
+        //   version that is no longer current gets 412. The 201 then carries the new ETag.
         //----
-        JsonObject json = rc.getBodyAsJson();
-        customerService.addCustomer(new Customer(json), ar -> {
+        Customer customer;
+        try {
+            customer = Customer.fromJson(rc.getBody());
+        } catch (DecodeException | IllegalArgumentException e) {
+            rc.fail(400);
+            return;
+        }
+        if (rc.request().getHeader("Idempotency-Key") != null || rc.request().getHeader("If-Match") != null) {
+            conditionalUpdate(rc, CustomerUpdate.replace(customer), customer.getCustomerId(), 201);
+            return;
+        }
+        customerService.addCustomer(customer, ar -> {
             if (ar.succeeded()) {
                 rc.response().setStatusCode(201).end();
             } else {
@@ -144,7 +451,165 @@ public class RestVerticle extends AbstractVerticle {
         });
 
     }
+
+    private void updateCustomer(RoutingContext rc) {
+        //----
+        // PATCH /customer/:customerId changes some fields of an existing customer in one write, e.g.
+        //   {"balanceIncrement": -25}
+        // adds to the balance atomically, so concurrent increments are all applied. See
+        // CustomerUpdate.patch() for the body. Answers the customer as written, with its ETag.
+        //----
+        String customerId = rc.request().getParam("customerId");
+        CustomerUpdate update;
+        try {
+            update = CustomerUpdate.patch(customerId, rc.getBodyAsJson());
+        } catch (DecodeException | IllegalArgumentException e) {
+            rc.fail(400);
+            return;
+        }
+        conditionalUpdate(rc, update, customerId, 200);
+    }
+
+    //----
+    // Applies the update with the conditions of the request:
+    // * "If-Match": the ETag of the customer as last read, whose version must still be current.
+    //   "*" only asks for the customer to exist. 412 when the condition does not hold.
+    // * "Idempotency-Key": a client-chosen key, at most MAX_IDEMPOTENCY_KEY_LENGTH characters.
+    //   A request repeated with the same key is answered with the customer as it is, without
+    //   writing again.
+    // A missing customer is 404 for a PATCH, and 412 for a POST that asked for a version of it.
+    //----
+    private void conditionalUpdate(RoutingContext rc, CustomerUpdate update, String customerId, int statusCode) {
+        String ifMatch = rc.request().getHeader("If-Match");
+        String idempotencyKey = rc.request().getHeader("Idempotency-Key");
+        if (customerId == null || idempotencyKey != null && (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+            rc.fail(400);
+            return;
+        }
+        if (ifMatch != null) {
+            try {
+                update.setExpectedVersion(Etags.expectedVersion(ifMatch)).setMustExist(true);
+            } catch (IllegalArgumentException e) {
+                rc.fail(412);
+                return;
+            }
+        }
+        update.setIdempotencyKey(idempotencyKey);
+        customerService.updateCustomer(update, ar -> {
+            if (ar.failed()) {
+                if (ar.cause() instanceof CustomerVersionConflictException) {
+                    rc.fail(412);
+                } else {
+                    rc.fail(ar.cause());
+                }
+                return;
+            }
+            Customer customer = ar.result();
+            if (customer == null) {
+                rc.fail(update.isReplace() ? 412 : 404);
+                return;
+            }
+            boolean pretty = isPretty(rc);
+            HttpServerResponse response = rc.response()
+                .setStatusCode(statusCode)
+                .putHeader("ETag", Etags.of(customer, pretty));
+            if (update.isReplace()) {
+                response.end();
+            } else {
+                response
+                    .putHeader("Content-type", "application/json")
+                    .end(pretty ? Buffer.buffer(customer.toJson().encodePrettily()) : customer.writeJson(Buffer.buffer(64)));
+            }
+        });
+    }
     
+    private void lookupCustomers(RoutingContext rc) {
+        //----
+        // Fetches many customers in one round trip. The body is a JSON array of customerIds, or
+        // an object with a "customerIds" array. At most "customer.lookup.max.ids" ids are accepted.
+        // The response is a JSON array of the customers found, in the order of their ids in the
+        // request; unknown and repeated ids are left out.
+        //----
+        List<String> customerIds;
+        try {
+            customerIds = lookupIds(rc.getBody());
+        } catch (DecodeException e) {
+            rc.fail(400);
+            return;
+        }
+        if (customerIds.size() > config().getInteger("customer.lookup.max.ids", 1000)) {
+            rc.fail(400);
+            return;
+        }
+        customerService.getCustomers(customerIds, ar -> {
+            if (ar.succeeded()) {
+                List<Customer> customers = ar.result();
+                rc.response()
+                    .putHeader("Content-type", "application/json")
+                    .end(isPretty(rc) ? Buffer.buffer(toJsonArray(customers).encodePrettily()) : writeJsonArray(customers));
+            } else {
+                rc.fail(ar.cause());
+            }
+        });
+    }
+
+    private void getStats(RoutingContext rc) {
+        //----
+        // Counts and balance totals per VIP status, e.g.
+        //   {"count":3,"totalBalance":300,"averageBalance":100.0,
+        //    "vipStatus":{"Gold":{"count":1,"totalBalance":200,"averageBalance":200.0},...}}
+        // The service keeps them up to date as customers are written, nothing is scanned here.
+        //----
+        customerService.getStats(ar -> {
+            if (ar.succeeded()) {
+                JsonObject stats = ar.result().toJson();
+                rc.response()
+                    .putHeader("Content-type", "application/json")
+                    .end(isPretty(rc) ? stats.encodePrettily() : stats.encode());
+            } else {
+                rc.fail(ar.cause());
+            }
+        });
+    }
+
+    static List<String> lookupIds(Buffer body) {
+        Object json = Json.decodeValue(body.toString(StandardCharsets.UTF_8), Object.class);
+        if (json instanceof Map) {
+            json = ((Map<?, ?>) json).get("customerIds");
+        }
+        if (!(json instanceof List)) {
+            throw new DecodeException("Expected an array of customerIds");
+        }
+        List<String> customerIds = new ArrayList<>();
+        for (Object customerId : (List<?>) json) {
+            if (!(customerId instanceof String)) {
+                throw new DecodeException("customerIds must be strings");
+            }
+            customerIds.add((String) customerId);
+        }
+        return customerIds;
+    }
+
+    private void addCustomers(RoutingContext rc) {
+        //----
+        // Accepts a JSON array of customers or one customer per line (NDJSON).
+        // Customers are written in batches of "customer.bulk.batch.size", and the response lists
+        // the outcome of every record in input order.
+        //----
+        new BulkCustomerImporter(customerService, rc,
+                config().getInteger("customer.bulk.batch.size", 500),
+                config().getInteger("customer.bulk.max.record.size", 64 * 1024)).start();
+    }
+
+    // A CustomerService that timed out or whose circuit is open is a temporary condition
+    private void serviceUnavailable(RoutingContext rc) {
+        if (rc.failure() instanceof CustomerServiceUnavailableException && !rc.response().headWritten()) {
+            rc.response().setStatusCode(503).putHeader("Retry-After", admission.retryAfter()).end();
+        } else {
+            rc.next();
+        }
+    }
+
     private void health(Future<Status> future) {
         customerService.ping(ar -> {
             if (ar.succeeded()) {
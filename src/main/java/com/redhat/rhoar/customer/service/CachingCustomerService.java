@@ -0,0 +1,324 @@
+package com.redhat.rhoar.customer.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.model.CustomerStats;
+import com.redhat.rhoar.customer.model.CustomerUpdate;
+import com.redhat.rhoar.customer.model.CustomerWriteResult;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+
+/**
+ * Read-through cache in front of another CustomerService.
+ * <p/>
+ * Only single customers are cached, for getCustomer and the lookup by ids. Entries are evicted
+ * least-recently-used once the cache holds {@code maxSize} customers, and expire {@code ttlMillis}
+ * after they were loaded.
+ * Every write invalidates the written customer, so reads on this node see their own writes.
+ * Writes through other nodes are dropped with {@link #invalidate(String)} once
+ * {@link CustomerChangeVerticle} publishes them.
+ * <p/>
+ * Misses load through the delegate and may read from a secondary that lags behind the primary
+ * the changes are polled from. A miss between an invalidation and the secondary catching up
+ * caches the old customer again. CustomerChangeVerticle therefore publishes every change a
+ * second time, one "customer.cache.invalidation.overlap.ms" later, which drops such an entry as
+ * long as the replication lag stays below the overlap.
+ * <p/>
+ * With a {@code staleIfErrorMillis} grace period, an expired entry is kept that much longer and
+ * served when loading a fresh copy fails, e.g. while the circuit to Mongo is open.
+ */
+public class CachingCustomerService implements CustomerService {
+
+    private final CustomerService delegate;
+    private final int maxSize;
+    private final long ttlMillis;
+    private final long staleIfErrorMillis;
+
+    private final Map<String, Entry> cache;
+
+    // Loads in flight per customerId, guarded by cache. A write bumps the generation of the loads
+    // of its customer: a load that overlaps a write of the same customer does not populate the
+    // cache, otherwise it could put back the value the write just replaced. Writes of other
+    // customers do not affect it. Only customers being loaded have an entry.
+    private final Map<String, Load> loads = new HashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong staleHitCount = new AtomicLong();
+
+    public CachingCustomerService(CustomerService delegate, int maxSize, long ttlMillis) {
+        this(delegate, maxSize, ttlMillis, 0);
+    }
+
+    public CachingCustomerService(CustomerService delegate, int maxSize, long ttlMillis, long staleIfErrorMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.delegate = delegate;
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.staleIfErrorMillis = staleIfErrorMillis;
+        this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > CachingCustomerService.this.maxSize) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public void initialize(Handler<AsyncResult<Void>> resultHandler) {
+        delegate.initialize(resultHandler);
+    }
+
+    @Override
+    public void getCustomers(Handler<AsyncResult<List<Customer>>> resulthandler) {
+        delegate.getCustomers(resulthandler);
+    }
+
+    @Override
+    public void getCustomers(int limit, String afterCustomerId, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        delegate.getCustomers(limit, afterCustomerId, resulthandler);
+    }
+
+    @Override
+    public void findCustomers(CustomerQuery query, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        delegate.findCustomers(query, resulthandler);
+    }
+
+    @Override
+    public void getCustomer(String customerId, Handler<AsyncResult<Customer>> resulthandler) {
+        Customer cached = lookup(customerId);
+        if (cached != null) {
+            hitCount.incrementAndGet();
+            resulthandler.handle(Future.succeededFuture(cached));
+            return;
+        }
+        missCount.incrementAndGet();
+        long generation = startLoad(customerId);
+        delegate.getCustomer(customerId, ar -> {
+            finishLoad(customerId, generation, ar.succeeded() ? ar.result() : null);
+            if (ar.failed()) {
+                Customer stale = lookupStale(customerId);
+                if (stale != null) {
+                    staleHitCount.incrementAndGet();
+                    resulthandler.handle(Future.succeededFuture(stale));
+                    return;
+                }
+            }
+            resulthandler.handle(ar);
+        });
+    }
+
+    @Override
+    public void getCustomers(Collection<String> customerIds, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        // Cached customers are served as they are, the others are looked up with one call
+        Set<String> ids = new LinkedHashSet<>(customerIds);
+        Map<String, Customer> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String customerId : ids) {
+            Customer cached = lookup(customerId);
+            if (cached != null) {
+                found.put(customerId, cached);
+            } else {
+                missing.add(customerId);
+            }
+        }
+        hitCount.addAndGet(found.size());
+        missCount.addAndGet(missing.size());
+        if (missing.isEmpty()) {
+            resulthandler.handle(Future.succeededFuture(inOrder(ids, found)));
+            return;
+        }
+        Map<String, Long> generations = new HashMap<>();
+        missing.forEach(customerId -> generations.put(customerId, startLoad(customerId)));
+        delegate.getCustomers(missing, ar -> {
+            if (ar.succeeded()) {
+                ar.result().forEach(customer -> found.put(customer.getCustomerId(), customer));
+            }
+            generations.forEach((customerId, generation) -> finishLoad(customerId, generation, found.get(customerId)));
+            if (ar.failed()) {
+                resulthandler.handle(Future.failedFuture(ar.cause()));
+                return;
+            }
+            resulthandler.handle(Future.succeededFuture(inOrder(ids, found)));
+        });
+    }
+
+    private static List<Customer> inOrder(Set<String> ids, Map<String, Customer> found) {
+        List<Customer> customers = new ArrayList<>(found.size());
+        for (String customerId : ids) {
+            Customer customer = found.get(customerId);
+            if (customer != null) {
+                customers.add(customer);
+            }
+        }
+        return customers;
+    }
+
+    @Override
+    public void addCustomer(Customer customer, Handler<AsyncResult<String>> resulthandler) {
+        invalidate(customer.getCustomerId());
+        delegate.addCustomer(customer, ar -> {
+            invalidate(customer.getCustomerId());
+            resulthandler.handle(ar);
+        });
+    }
+
+    @Override
+    public void addCustomers(List<Customer> customers, Handler<AsyncResult<List<CustomerWriteResult>>> resulthandler) {
+        customers.forEach(c -> invalidate(c.getCustomerId()));
+        delegate.addCustomers(customers, ar -> {
+            customers.forEach(c -> invalidate(c.getCustomerId()));
+            resulthandler.handle(ar);
+        });
+    }
+
+    @Override
+    public void updateCustomer(CustomerUpdate update, Handler<AsyncResult<Customer>> resulthandler) {
+        invalidate(update.getCustomerId());
+        delegate.updateCustomer(update, ar -> {
+            invalidate(update.getCustomerId());
+            resulthandler.handle(ar);
+        });
+    }
+
+    @Override
+    public void ping(Handler<AsyncResult<String>> resultHandler) {
+        delegate.ping(resultHandler);
+    }
+
+    @Override
+    public void flush(Handler<AsyncResult<Void>> resultHandler) {
+        delegate.flush(resultHandler);
+    }
+
+    @Override
+    public void getStats(Handler<AsyncResult<CustomerStats>> resultHandler) {
+        delegate.getStats(resultHandler);
+    }
+
+    public void invalidate(String customerId) {
+        synchronized (cache) {
+            cache.remove(customerId);
+            Load load = loads.get(customerId);
+            if (load != null) {
+                load.generation++;
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (cache) {
+            cache.clear();
+            loads.values().forEach(load -> load.generation++);
+        }
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getStaleHitCount() {
+        return staleHitCount.get();
+    }
+
+    private Customer lookup(String customerId) {
+        synchronized (cache) {
+            Entry entry = cache.get(customerId);
+            if (entry == null) {
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            if (entry.expiresAt <= now) {
+                if (entry.expiresAt + staleIfErrorMillis <= now) {
+                    cache.remove(customerId);
+                }
+                return null;
+            }
+            return entry.customer;
+        }
+    }
+
+    private Customer lookupStale(String customerId) {
+        synchronized (cache) {
+            Entry entry = cache.get(customerId);
+            if (entry == null || entry.expiresAt + staleIfErrorMillis <= System.currentTimeMillis()) {
+                return null;
+            }
+            return entry.customer;
+        }
+    }
+
+    // Returns the generation the load has to find unchanged to store its result
+    private long startLoad(String customerId) {
+        synchronized (cache) {
+            Load load = loads.computeIfAbsent(customerId, id -> new Load());
+            load.inFlight++;
+            return load.generation;
+        }
+    }
+
+    // Stores the loaded customer, if any and if no write of it overlapped the load
+    private void finishLoad(String customerId, long generation, Customer customer) {
+        synchronized (cache) {
+            Load load = loads.get(customerId);
+            if (customer != null && load.generation == generation) {
+                cache.put(customerId, new Entry(customer, System.currentTimeMillis() + ttlMillis));
+            }
+            if (--load.inFlight == 0) {
+                loads.remove(customerId);
+            }
+        }
+    }
+
+    private static class Load {
+
+        private int inFlight;
+        private long generation;
+    }
+
+    private static class Entry {
+
+        private final Customer customer;
+        private final long expiresAt;
+
+        Entry(Customer customer, long expiresAt) {
+            this.customer = customer;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
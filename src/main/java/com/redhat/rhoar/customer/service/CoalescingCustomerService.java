@@ -0,0 +1,184 @@
+package com.redhat.rhoar.customer.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.model.CustomerStats;
+import com.redhat.rhoar.customer.model.CustomerUpdate;
+import com.redhat.rhoar.customer.model.CustomerWriteResult;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+
+/**
+ * Collapses concurrent getCustomer calls for the same customerId into a single call on the
+ * delegate. Every caller waiting on that customerId is completed from the one result, on the
+ * Vert.x context it called from.
+ * <p/>
+ * A write of a customer detaches the call in flight for it once the write completes, so a later
+ * getCustomer starts a fresh call instead of joining one that may return the customer as it was
+ * before the write.
+ */
+public class CoalescingCustomerService implements CustomerService {
+
+    private final CustomerService delegate;
+
+    private final Map<String, List<Waiter>> inFlight = new HashMap<>();
+
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    public CoalescingCustomerService(CustomerService delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void initialize(Handler<AsyncResult<Void>> resultHandler) {
+        delegate.initialize(resultHandler);
+    }
+
+    @Override
+    public void getCustomers(Handler<AsyncResult<List<Customer>>> resulthandler) {
+        delegate.getCustomers(resulthandler);
+    }
+
+    @Override
+    public void getCustomers(int limit, String afterCustomerId, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        delegate.getCustomers(limit, afterCustomerId, resulthandler);
+    }
+
+    @Override
+    public void findCustomers(CustomerQuery query, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        delegate.findCustomers(query, resulthandler);
+    }
+
+    @Override
+    public void getCustomer(String customerId, Handler<AsyncResult<Customer>> resulthandler) {
+        Waiter waiter = new Waiter(Vertx.currentContext(), resulthandler);
+        List<Waiter> waiters;
+        synchronized (inFlight) {
+            List<Waiter> joined = inFlight.get(customerId);
+            if (joined != null) {
+                joined.add(waiter);
+                coalescedCount.incrementAndGet();
+                return;
+            }
+            waiters = new ArrayList<>();
+            waiters.add(waiter);
+            inFlight.put(customerId, waiters);
+        }
+        loadCount.incrementAndGet();
+        try {
+            delegate.getCustomer(customerId, ar -> complete(customerId, waiters, ar));
+        } catch (RuntimeException e) {
+            // Otherwise the entry stays and later calls wait on it forever
+            complete(customerId, waiters, Future.failedFuture(e));
+        }
+    }
+
+    private void complete(String customerId, List<Waiter> waiters, AsyncResult<Customer> ar) {
+        synchronized (inFlight) {
+            // Unless a write detached it already and a newer call took its place
+            if (inFlight.get(customerId) == waiters) {
+                inFlight.remove(customerId);
+            }
+        }
+        // No caller joins once detached
+        for (Waiter w : waiters) {
+            w.complete(ar);
+        }
+    }
+
+    // Later calls for the customer start a fresh call; the detached one still completes its waiters
+    private void written(String customerId) {
+        synchronized (inFlight) {
+            inFlight.remove(customerId);
+        }
+    }
+
+    @Override
+    public void getCustomers(Collection<String> customerIds, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        delegate.getCustomers(customerIds, resulthandler);
+    }
+
+    @Override
+    public void addCustomer(Customer customer, Handler<AsyncResult<String>> resulthandler) {
+        delegate.addCustomer(customer, ar -> {
+            written(customer.getCustomerId());
+            resulthandler.handle(ar);
+        });
+    }
+
+    @Override
+    public void addCustomers(List<Customer> customers, Handler<AsyncResult<List<CustomerWriteResult>>> resulthandler) {
+        delegate.addCustomers(customers, ar -> {
+            customers.forEach(c -> written(c.getCustomerId()));
+            resulthandler.handle(ar);
+        });
+    }
+
+    @Override
+    public void updateCustomer(CustomerUpdate update, Handler<AsyncResult<Customer>> resulthandler) {
+        delegate.updateCustomer(update, ar -> {
+            written(update.getCustomerId());
+            resulthandler.handle(ar);
+        });
+    }
+
+    @Override
+    public void ping(Handler<AsyncResult<String>> resultHandler) {
+        delegate.ping(resultHandler);
+    }
+
+    @Override
+    public void flush(Handler<AsyncResult<Void>> resultHandler) {
+        delegate.flush(resultHandler);
+    }
+
+    @Override
+    public void getStats(Handler<AsyncResult<CustomerStats>> resultHandler) {
+        delegate.getStats(resultHandler);
+    }
+
+    /**
+     * Number of getCustomer calls that were passed on to the delegate.
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * Number of getCustomer calls that were served by joining a call already in flight.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    private static class Waiter {
+
+        private final Context context;
+        private final Handler<AsyncResult<Customer>> handler;
+
+        Waiter(Context context, Handler<AsyncResult<Customer>> handler) {
+            this.context = context;
+            this.handler = handler;
+        }
+
+        void complete(AsyncResult<Customer> ar) {
+            if (context == null || context == Vertx.currentContext()) {
+                handler.handle(ar);
+            } else {
+                context.runOnContext(v -> handler.handle(ar));
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.redhat.rhoar.customer.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.inject.Inject;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.MongoClient;
+
+/**
+ * Publishes the id of every changed customer on the event bus, so each instance can drop it from
+ * its cache.
+ * <p/>
+ * The Mongo driver in use has no change streams, so the collection is polled instead: every
+ * "customer.cache.invalidation.poll.ms" the verticle asks the primary for the customers whose
+ * updatedAt is at most "customer.cache.invalidation.overlap.ms" older than the newest change seen,
+ * in pages of "customer.cache.invalidation.batch.size". The overlap covers writes that were stamped
+ * before they were committed and clocks of the writing instances that are slightly behind; the
+ * changes seen within it are remembered so each one is found once.
+ * <p/>
+ * Each change is published when found and again one overlap later. The caches refill from the
+ * read pool, which may read from a secondary: a read between the first invalidation and the
+ * secondary catching up puts the old customer back, and the second invalidation drops it.
+ * <p/>
+ * The ids are published to "customer.cache.invalidation.address". One instance per Vert.x
+ * instance is enough, every consumer of the address receives every id.
+ */
+public class CustomerChangeVerticle extends AbstractVerticle {
+
+    public static final String DEFAULT_ADDRESS = "customer.invalidations";
+
+    private static final JsonObject FIELDS = new JsonObject().put("_id", 0).put("customerId", 1).put("updatedAt", 1);
+    private static final JsonObject SORT = new JsonObject().put("updatedAt", 1).put("customerId", 1);
+
+    private final MongoClient client;
+    private final PrometheusMeterRegistry registry;
+
+    private String address;
+    private long pollMillis;
+    private long overlapMillis;
+    private int batchSize;
+
+    // Newest updatedAt seen, and the changes published within the overlap before it
+    private long since;
+    private final Map<String, Long> published = new HashMap<>();
+    // Published since the last poll, to publish again one overlap later
+    private List<String> repeats = new ArrayList<>();
+
+    private long timerId = -1;
+    private boolean stopped;
+    private final AtomicLong publishedCount = new AtomicLong();
+
+    @Inject
+    public CustomerChangeVerticle(MongoClient client, PrometheusMeterRegistry registry) {
+        this.client = client;
+        this.registry = registry;
+    }
+
+    @Override
+    public void start() throws Exception {
+        address = config().getString("customer.cache.invalidation.address", DEFAULT_ADDRESS);
+        pollMillis = config().getLong("customer.cache.invalidation.poll.ms", 1000L);
+        overlapMillis = config().getLong("customer.cache.invalidation.overlap.ms", 5000L);
+        batchSize = config().getInteger("customer.cache.invalidation.batch.size", 1000);
+        if (pollMillis < 1 || overlapMillis < 0 || batchSize < 1) {
+            throw new IllegalArgumentException("Invalid cache invalidation settings: poll every " + pollMillis
+                    + " ms, overlap " + overlapMillis + " ms, batches of " + batchSize);
+        }
+        // Caches are filled from now on, older changes do not matter
+        since = System.currentTimeMillis();
+        FunctionCounter.builder("customer.cache.invalidations.published", this, CustomerChangeVerticle::getPublishedCount)
+                .register(registry);
+        schedule();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        stopped = true;
+        if (timerId >= 0) {
+            vertx.cancelTimer(timerId);
+        }
+    }
+
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+
+    private void schedule() {
+        if (!stopped) {
+            timerId = vertx.setTimer(pollMillis, id -> {
+                timerId = -1;
+                poll(new JsonObject().put("updatedAt", new JsonObject().put("$gte", since - overlapMillis)));
+            });
+        }
+    }
+
+    private void poll(JsonObject query) {
+        FindOptions options = new FindOptions().setFields(FIELDS).setSort(SORT).setLimit(batchSize);
+        client.findWithOptions(CustomerServiceMongoImpl.COLLECTION, query, options, ar -> {
+            if (ar.failed()) {
+                System.out.println("Polling for customer changes failed: " + ar.cause());
+                schedule();
+                return;
+            }
+            List<JsonObject> changes = ar.result();
+            changes.forEach(this::publish);
+            if (changes.size() == batchSize && !stopped) {
+                // A full page, read on right after its last change
+                poll(after(changes.get(changes.size() - 1)));
+                return;
+            }
+            long horizon = since - overlapMillis;
+            published.values().removeIf(updatedAt -> updatedAt < horizon);
+            scheduleRepeats();
+            schedule();
+        });
+    }
+
+    private void publish(JsonObject change) {
+        String customerId = change.getString("customerId");
+        Long updatedAt = change.getLong("updatedAt");
+        if (customerId == null || updatedAt == null) {
+            return;
+        }
+        if (!updatedAt.equals(published.put(customerId, updatedAt))) {
+            vertx.eventBus().publish(address, customerId);
+            publishedCount.incrementAndGet();
+            if (overlapMillis > 0) {
+                repeats.add(customerId);
+            }
+        }
+        since = Math.max(since, updatedAt);
+    }
+
+    private void scheduleRepeats() {
+        if (repeats.isEmpty()) {
+            return;
+        }
+        List<String> customerIds = repeats;
+        repeats = new ArrayList<>();
+        vertx.setTimer(overlapMillis, id -> {
+            if (!stopped) {
+                customerIds.forEach(customerId -> vertx.eventBus().publish(address, customerId));
+                publishedCount.addAndGet(customerIds.size());
+            }
+        });
+    }
+
+    // Changes sorted after the given one, by updatedAt and then customerId
+    private static JsonObject after(JsonObject change) {
+        Long updatedAt = change.getLong("updatedAt");
+        return new JsonObject().put("$or", new JsonArray()
+                .add(new JsonObject().put("updatedAt", new JsonObject().put("$gt", updatedAt)))
+                .add(new JsonObject().put("updatedAt", updatedAt)
+                        .put("customerId", new JsonObject().put("$gt", change.getString("customerId")))));
+    }
+}
@@ -0,0 +1,217 @@
+package com.redhat.rhoar.customer.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerWriteResult;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.MessageCodec;
+
+/**
+ * Event bus codecs for the CustomerService payloads.
+ * <p/>
+ * Local deliveries pass the objects by reference: customers returned by the service are already
+ * treated as values, and a list is owned by whoever receives it. Clustered deliveries use a compact
+ * binary form (length-prefixed UTF-8 strings, int balance, long version) instead of JSON.
+ */
+public final class CustomerMessageCodecs {
+
+    public static final String CUSTOMER = "customer";
+    public static final String CUSTOMER_LIST = "customer-list";
+    public static final String WRITE_RESULT_LIST = "customer-write-result-list";
+
+    private CustomerMessageCodecs() {
+    }
+
+    /**
+     * Registers the codecs on the event bus, unless they already are.
+     */
+    public static synchronized void register(EventBus eventBus) {
+        register(eventBus, new CustomerCodec());
+        register(eventBus, new CustomerListCodec());
+        register(eventBus, new WriteResultListCodec());
+    }
+
+    private static void register(EventBus eventBus, MessageCodec<?, ?> codec) {
+        try {
+            eventBus.registerCodec(codec);
+        } catch (IllegalStateException e) {
+            // Registered by another verticle on the same Vert.x instance
+        }
+    }
+
+    public static class CustomerCodec extends Codec<Customer> {
+
+        public CustomerCodec() {
+            super(CUSTOMER);
+        }
+
+        @Override
+        void write(Buffer buffer, Customer customer) {
+            writeCustomer(buffer, customer);
+        }
+
+        @Override
+        Customer read(Reader reader) {
+            return readCustomer(reader);
+        }
+    }
+
+    public static class CustomerListCodec extends Codec<List<Customer>> {
+
+        public CustomerListCodec() {
+            super(CUSTOMER_LIST);
+        }
+
+        @Override
+        void write(Buffer buffer, List<Customer> customers) {
+            buffer.appendInt(customers.size());
+            for (Customer customer : customers) {
+                writeCustomer(buffer, customer);
+            }
+        }
+
+        @Override
+        List<Customer> read(Reader reader) {
+            int size = reader.readInt();
+            List<Customer> customers = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                customers.add(readCustomer(reader));
+            }
+            return customers;
+        }
+    }
+
+    public static class WriteResultListCodec extends Codec<List<CustomerWriteResult>> {
+
+        public WriteResultListCodec() {
+            super(WRITE_RESULT_LIST);
+        }
+
+        @Override
+        void write(Buffer buffer, List<CustomerWriteResult> results) {
+            buffer.appendInt(results.size());
+            for (CustomerWriteResult result : results) {
+                writeString(buffer, result.getCustomerId());
+                writeString(buffer, result.getError());
+            }
+        }
+
+        @Override
+        List<CustomerWriteResult> read(Reader reader) {
+            int size = reader.readInt();
+            List<CustomerWriteResult> results = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                results.add(new CustomerWriteResult(reader.readString(), reader.readString()));
+            }
+            return results;
+        }
+    }
+
+    private static void writeCustomer(Buffer buffer, Customer customer) {
+        writeString(buffer, customer.getCustomerId());
+        writeString(buffer, customer.getVipStatus());
+        buffer.appendInt(customer.getBalance());
+        writeString(buffer, customer.getEtag());
+        buffer.appendLong(customer.getVersion());
+    }
+
+    private static Customer readCustomer(Reader reader) {
+        Customer customer = new Customer(reader.readString(), reader.readString(), reader.readInt());
+        customer.setEtag(reader.readString());
+        customer.setVersion(reader.readLong());
+        return customer;
+    }
+
+    // A null string is written as length -1
+    private static void writeString(Buffer buffer, String value) {
+        if (value == null) {
+            buffer.appendInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            buffer.appendInt(bytes.length).appendBytes(bytes);
+        }
+    }
+
+    /**
+     * Every message is written as the length of its body followed by the body, as the event bus
+     * expects.
+     */
+    abstract static class Codec<T> implements MessageCodec<T, T> {
+
+        private final String name;
+
+        Codec(String name) {
+            this.name = name;
+        }
+
+        abstract void write(Buffer buffer, T value);
+
+        abstract T read(Reader reader);
+
+        @Override
+        public void encodeToWire(Buffer buffer, T value) {
+            int start = buffer.length();
+            buffer.appendInt(0);
+            write(buffer, value);
+            buffer.setInt(start, buffer.length() - start - 4);
+        }
+
+        @Override
+        public T decodeFromWire(int pos, Buffer buffer) {
+            return read(new Reader(buffer, pos + 4));
+        }
+
+        @Override
+        public T transform(T value) {
+            return value;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public byte systemCodecID() {
+            return -1;
+        }
+    }
+
+    static class Reader {
+
+        private final Buffer buffer;
+        private int pos;
+
+        Reader(Buffer buffer, int pos) {
+            this.buffer = buffer;
+            this.pos = pos;
+        }
+
+        int readInt() {
+            int value = buffer.getInt(pos);
+            pos += 4;
+            return value;
+        }
+
+        long readLong() {
+            long value = buffer.getLong(pos);
+            pos += 8;
+            return value;
+        }
+
+        String readString() {
+            int length = readInt();
+            if (length < 0) {
+                return null;
+            }
+            String value = buffer.getString(pos, pos + length, "UTF-8");
+            pos += length;
+            return value;
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package com.redhat.rhoar.customer.service;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.model.CustomerStats;
+import com.redhat.rhoar.customer.model.CustomerUpdate;
+import com.redhat.rhoar.customer.model.CustomerWriteResult;
 
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
@@ -10,12 +15,64 @@ import io.vertx.core.Handler;
 
 public interface CustomerService {
 
+    /**
+     * Prepares the backing store, e.g. creates the indexes the queries rely on.
+     * Called by every verticle before it starts serving requests.
+     */
+    void initialize(Handler<AsyncResult<Void>> resultHandler);
+
     void getCustomers(Handler<AsyncResult<List<Customer>>> resulthandler);
 
+    /**
+     * Returns at most {@code limit} customers ordered by customerId, starting after
+     * {@code afterCustomerId} (or from the beginning when it is null).
+     */
+    void getCustomers(int limit, String afterCustomerId, Handler<AsyncResult<List<Customer>>> resulthandler);
+
+    /**
+     * One page of the customers matching the query's filters, in the query's sort order and with
+     * only the fields it asks for.
+     */
+    void findCustomers(CustomerQuery query, Handler<AsyncResult<List<Customer>>> resulthandler);
+
     void getCustomer(String customerId, Handler<AsyncResult<Customer>> resulthandler);
 
+    /**
+     * Looks up many customers at once. The result holds the customers that exist, once each, in
+     * the order their ids first appear in {@code customerIds}.
+     */
+    void getCustomers(Collection<String> customerIds, Handler<AsyncResult<List<Customer>>> resulthandler);
+
     void addCustomer(Customer customer, Handler<AsyncResult<String>> resulthandler);
 
+    /**
+     * Saves a batch of customers. The result holds one entry per customer, in the same order.
+     * The call only fails when the batch as a whole could not be attempted.
+     */
+    void addCustomers(List<Customer> customers, Handler<AsyncResult<List<CustomerWriteResult>>> resulthandler);
+
+    /**
+     * Applies the update in a single write, if its conditions hold. The result is the customer
+     * as written, with its new version, or null when there is no such customer and the update
+     * does not create it. Fails with a {@link CustomerVersionConflictException} when the customer
+     * is not at the expected version. An update whose idempotency key was already applied
+     * succeeds with the customer as it is now.
+     */
+    void updateCustomer(CustomerUpdate update, Handler<AsyncResult<Customer>> resulthandler);
+
     void ping(Handler<AsyncResult<String>> resultHandler);
 
+    /**
+     * Completes once every write accepted so far has reached the backing store. The service stays
+     * usable. Called by the verticles when they stop.
+     */
+    void flush(Handler<AsyncResult<Void>> resultHandler);
+
+    /**
+     * Counts and balance totals of all customers, per VIP status. Served from aggregates kept up
+     * to date by the writes, not computed on every call. Fails with a
+     * {@link CustomerServiceNotReadyException} until they have first been built.
+     */
+    void getStats(Handler<AsyncResult<CustomerStats>> resultHandler);
+
 }
@@ -1,28 +1,122 @@
 package com.redhat.rhoar.customer.service;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import com.google.inject.Inject;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoServerException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteUpsert;
 import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.model.CustomerStats;
+import com.redhat.rhoar.customer.model.CustomerUpdate;
+import com.redhat.rhoar.customer.model.CustomerWriteResult;
 
 import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkWriteOptions;
+import io.vertx.ext.mongo.FindOptions;
 import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.mongo.MongoClientBulkWriteResult;
+import io.vertx.ext.mongo.UpdateOptions;
+import io.vertx.ext.mongo.WriteOption;
 
 public class CustomerServiceMongoImpl implements CustomerService {
 
 
     private MongoClient client;
+    private MongoClient readClient;
+    private WriteOption writeOption;
 	
-    private final String COLLECTION = "customers";
+    static final String COLLECTION = "customers";
+
+    // Only the fields the Customer model needs are read back from Mongo
+    private static final JsonObject CUSTOMER_FIELDS = new JsonObject()
+            .put("_id", 0)
+            .put("customerId", 1)
+            .put("vipStatus", 1)
+            .put("balance", 1)
+            .put("etag", 1)
+            .put("version", 1);
+
+    // Indexes the queries of this class rely on. _id is always indexed by Mongo.
+    // findCustomers filters on vipStatus (equality) and balance (range), and sorts on customerId
+    // or on balance then customerId.
+    private static final List<JsonObject> INDEXES = Arrays.asList(
+            new JsonObject().put("customerId", 1),
+            new JsonObject().put("balance", 1).put("customerId", 1),
+            new JsonObject().put("vipStatus", 1).put("balance", 1).put("customerId", 1),
+            // Polled by CustomerChangeVerticle
+            new JsonObject().put("updatedAt", 1).put("customerId", 1));
+
+    // What addCustomer needs to know of the customer it replaces to keep the stats
+    private static final JsonObject STATS_FIELDS = new JsonObject().put("_id", 0).put("vipStatus", 1).put("balance", 1);
+
+    // Idempotency keys kept per customer; older ones are dropped and no longer detect a repeat
+    static final int MAX_IDEMPOTENCY_KEYS = 32;
+
+    // Duplicate key: an upsert lost the race to insert, or found its _id taken
+    private static final int DUPLICATE_KEY = 11000;
+
+    // Maintained on every write, rebuilt from the collection by rebuildStats. Guarded by this.
+    private final CustomerStats stats = new CustomerStats();
+    private boolean statsBuilt;
+    // Callers waiting for the rebuild in progress, null when there is none
+    private List<Handler<AsyncResult<Void>>> statsWaiters;
+    // VIP status -> { count, total balance } changed by the writes made while the rebuild runs
+    private Map<String, long[]> statsDeltas;
 
 	@Inject
     public CustomerServiceMongoImpl(MongoClient client) {
+        this(client, client, null);
+    }
+
+    /**
+     * @param client      client for writes and index management, reading from the primary
+     * @param readClient  client for getCustomers and getCustomer, possibly reading from secondaries
+     * @param writeOption write concern of the customer writes, or null for the client default
+     */
+    public CustomerServiceMongoImpl(MongoClient client, MongoClient readClient, WriteOption writeOption) {
         this.client = client;
+        this.readClient = readClient;
+        this.writeOption = writeOption;
+    }
+
+    @Override
+    public void initialize(Handler<AsyncResult<Void>> resultHandler) {
+        // createIndex is a no-op for an index that already exists, so every instance can run this
+        List<Future> indexes = new ArrayList<>();
+        for (JsonObject index : INDEXES) {
+            Future<Void> future = Future.future();
+            client.createIndex(COLLECTION, index, future.completer());
+            indexes.add(future);
+        }
+        CompositeFuture.all(indexes).setHandler(ar -> {
+            if (ar.failed()) {
+                resultHandler.handle(Future.failedFuture(ar.cause()));
+                return;
+            }
+            // The stats aggregate the whole collection: build them in the background, once
+            startStatsBuild();
+            resultHandler.handle(Future.succeededFuture());
+        });
     }
 
     @Override
@@ -37,10 +131,34 @@ public class CustomerServiceMongoImpl implements CustomerService {
         // Don't forget to handle failures!
         // ----
         JsonObject query = new JsonObject();
-        client.find(COLLECTION, query, ar -> {
+        readClient.find(COLLECTION, query, ar -> {
+            if (ar.succeeded()) {
+                List<Customer> customers = ar.result().stream()
+                                           .map(json -> toCustomer(json))
+                                           .collect(Collectors.toList());
+                resulthandler.handle(Future.succeededFuture(customers));
+            } else {
+                resulthandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
+    }
+
+    @Override
+    public void getCustomers(int limit, String afterCustomerId, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        // Keyset pagination: the next page starts after the last customerId of the previous one,
+        // so reading deep into the collection costs the same as reading the first page.
+        JsonObject query = new JsonObject();
+        if (afterCustomerId != null) {
+            query.put("customerId", new JsonObject().put("$gt", afterCustomerId));
+        }
+        FindOptions options = new FindOptions()
+                .setFields(CUSTOMER_FIELDS)
+                .setSort(new JsonObject().put("customerId", 1))
+                .setLimit(limit);
+        readClient.findWithOptions(COLLECTION, query, options, ar -> {
             if (ar.succeeded()) {
                 List<Customer> customers = ar.result().stream()
-                                           .map(json -> new Customer(json))
+                                           .map(json -> toCustomer(json))
                                            .collect(Collectors.toList());
                 resulthandler.handle(Future.succeededFuture(customers));
             } else {
@@ -49,24 +167,99 @@ public class CustomerServiceMongoImpl implements CustomerService {
         });
     }
 
+    @Override
+    public void findCustomers(CustomerQuery query, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        // Filters, sort and projection all run in Mongo, so only the requested page of the
+        // requested fields comes over the wire. Paging is keyset based as in getCustomers.
+        FindOptions options = new FindOptions()
+                .setFields(toProjection(query))
+                .setSort(toSort(query))
+                .setLimit(query.getLimit());
+        readClient.findWithOptions(COLLECTION, toFilter(query), options, ar -> {
+            if (ar.succeeded()) {
+                List<Customer> customers = ar.result().stream()
+                                           .map(json -> toCustomer(json))
+                                           .collect(Collectors.toList());
+                resulthandler.handle(Future.succeededFuture(customers));
+            } else {
+                resulthandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
+    }
+
+    static JsonObject toFilter(CustomerQuery query) {
+        JsonObject filter = new JsonObject();
+        if (query.getVipStatus() != null) {
+            filter.put("vipStatus", new JsonObject().put("$in", new JsonArray(new ArrayList<>(query.getVipStatus()))));
+        }
+        JsonObject balance = new JsonObject();
+        if (query.getMinBalance() != null) {
+            balance.put("$gte", query.getMinBalance());
+        }
+        if (query.getMaxBalance() != null) {
+            balance.put("$lte", query.getMaxBalance());
+        }
+        if (!balance.isEmpty()) {
+            filter.put("balance", balance);
+        }
+        if (query.getAfterCustomerId() != null) {
+            String after = query.isDescending() ? "$lt" : "$gt";
+            if (CustomerQuery.BALANCE.equals(query.getSort())) {
+                // Past the last balance, or on the same balance past the last customerId
+                filter.put("$or", new JsonArray()
+                        .add(new JsonObject().put("balance", new JsonObject().put(after, query.getAfterBalance())))
+                        .add(new JsonObject()
+                                .put("balance", query.getAfterBalance())
+                                .put("customerId", new JsonObject().put(after, query.getAfterCustomerId()))));
+            } else {
+                filter.put("customerId", new JsonObject().put(after, query.getAfterCustomerId()));
+            }
+        }
+        return filter;
+    }
+
+    static JsonObject toSort(CustomerQuery query) {
+        int direction = query.isDescending() ? -1 : 1;
+        JsonObject sort = new JsonObject();
+        if (CustomerQuery.BALANCE.equals(query.getSort())) {
+            sort.put("balance", direction);
+        }
+        return sort.put("customerId", direction);
+    }
+
+    // customerId, and balance when sorting on it, are always read: the next page starts after them
+    static JsonObject toProjection(CustomerQuery query) {
+        if (query.getFields() == null) {
+            return CUSTOMER_FIELDS;
+        }
+        JsonObject projection = new JsonObject()
+                .put("_id", 0)
+                .put("customerId", 1)
+                .put("etag", 1)
+                .put("version", 1);
+        if (CustomerQuery.BALANCE.equals(query.getSort())) {
+            projection.put("balance", 1);
+        }
+        for (String field : query.getFields()) {
+            projection.put(field, 1);
+        }
+        return projection;
+    }
+
     @Override
     public void getCustomer(String customerId, Handler<AsyncResult<Customer>> resulthandler) {
         // ----
-        // 
-        // Use the `MongoClient.find()` method. 
-        // Use a JSONObject for the query with the field 'customerId' set to the customer customerId
-        // The collection to search is COLLECTION
-        // In the handler implementation, transform the `List<JSONObject>` to `Person` - use Java8 Streams!
-        // If the customer is not found, the result should be set to null
-        // Use a Future to set the result on the handle() method of the result handler
-        // Don't forget to handle failures!
+        //
+        // Customers are stored with their customerId as _id (see toDocument), so this is a
+        // single-document lookup on the _id index.
+        // If the customer is not found, the result is set to null
+        //
         // ----
-        JsonObject query = new JsonObject().put("customerId", customerId);
-        client.find(COLLECTION, query, ar -> {
+        JsonObject query = new JsonObject().put("_id", customerId);
+        readClient.findOne(COLLECTION, query, CUSTOMER_FIELDS, ar -> {
             if (ar.succeeded()) {
-                Optional<JsonObject> result = ar.result().stream().findFirst();
-                if (result.isPresent()) {
-                    resulthandler.handle(Future.succeededFuture(new Customer(result.get())));
+                if (ar.result() != null) {
+                    resulthandler.handle(Future.succeededFuture(toCustomer(ar.result())));
                 } else {
                     resulthandler.handle(Future.succeededFuture(null));
                 }
@@ -76,19 +269,358 @@ public class CustomerServiceMongoImpl implements CustomerService {
         });
     }
 
+    @Override
+    public void getCustomers(Collection<String> customerIds, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        // One $in query on the _id index for all the distinct ids
+        Set<String> ids = new LinkedHashSet<>(customerIds);
+        if (ids.isEmpty()) {
+            resulthandler.handle(Future.succeededFuture(new ArrayList<>()));
+            return;
+        }
+        JsonObject query = new JsonObject().put("_id", new JsonObject().put("$in", new JsonArray(new ArrayList<>(ids))));
+        FindOptions options = new FindOptions().setFields(CUSTOMER_FIELDS);
+        readClient.findWithOptions(COLLECTION, query, options, ar -> {
+            if (ar.succeeded()) {
+                Map<String, Customer> found = new HashMap<>();
+                for (JsonObject document : ar.result()) {
+                    Customer customer = toCustomer(document);
+                    found.put(customer.getCustomerId(), customer);
+                }
+                resulthandler.handle(Future.succeededFuture(ids.stream()
+                        .map(found::get)
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toList())));
+            } else {
+                resulthandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
+    }
+
+    /**
+     * Replaces or inserts the customer in one round-trip that also returns the replaced one, so the
+     * stats can be updated without reading it first. The write concern is the write client's, see
+     * MongoSettings.
+     */
     @Override
     public void addCustomer(Customer customer, Handler<AsyncResult<String>> resulthandler) {
-        client.save(COLLECTION, toDocument(customer), resulthandler);
+        client.findOneAndUpdateWithOptions(COLLECTION, new JsonObject().put("_id", customer.getCustomerId()),
+                toUpdate(customer), new FindOptions().setFields(STATS_FIELDS),
+                new UpdateOptions().setUpsert(true).setReturningNewDocument(false), ar -> {
+            if (ar.succeeded()) {
+                JsonObject replaced = ar.result();
+                if (replaced != null) {
+                    countStats(replaced.getString("vipStatus"), -1, -replaced.getLong("balance", 0L));
+                }
+                countStats(customer.getVipStatus(), 1, customer.getBalance());
+                resulthandler.handle(Future.succeededFuture(customer.getCustomerId()));
+            } else {
+                resulthandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
+    }
+
+    /**
+     * Inserts the new customers of the batch with one bulk write, which leaves the existing ones
+     * alone. Those are then replaced one by one with addCustomer, whose result holds the replaced
+     * values, so the stats follow a re-import without recomputing them. An import of new
+     * customers costs a single round-trip.
+     */
+    @Override
+    public void addCustomers(List<Customer> customers, Handler<AsyncResult<List<CustomerWriteResult>>> resulthandler) {
+        if (customers.isEmpty()) {
+            resulthandler.handle(Future.succeededFuture(new ArrayList<>()));
+            return;
+        }
+        List<BulkOperation> operations = customers.stream()
+                .map(c -> BulkOperation.createUpdate(new JsonObject().put("_id", c.getCustomerId()), toInsert(c), true, false))
+                .collect(Collectors.toList());
+        // Unordered, so one bad document does not stop the rest of the batch
+        client.bulkWriteWithOptions(COLLECTION, operations, new BulkWriteOptions(false).setWriteOption(writeOption), ar -> {
+            Set<Integer> inserted = new HashSet<>();
+            Map<Integer, String> errors = new HashMap<>();
+            if (ar.succeeded()) {
+                for (JsonObject upsert : ar.result().getUpserts()) {
+                    inserted.add(upsert.getInteger(MongoClientBulkWriteResult.INDEX));
+                }
+            } else if (ar.cause() instanceof MongoBulkWriteException) {
+                MongoBulkWriteException failure = (MongoBulkWriteException) ar.cause();
+                for (BulkWriteUpsert upsert : failure.getWriteResult().getUpserts()) {
+                    inserted.add(upsert.getIndex());
+                }
+                for (BulkWriteError error : failure.getWriteErrors()) {
+                    errors.put(error.getIndex(), error.getMessage());
+                }
+            } else {
+                // Not known what was written; the next rebuild of the stats reconciles them
+                resulthandler.handle(Future.failedFuture(ar.cause()));
+                return;
+            }
+            inserted.forEach(i -> countStats(customers.get(i).getVipStatus(), 1, customers.get(i).getBalance()));
+            replaceExisting(customers, inserted, errors, resulthandler);
+        });
+    }
+
+    // Replaces the customers of the batch that already existed. A customer written several times
+    // in the batch only needs its last value, unless that one is what the bulk write inserted.
+    private void replaceExisting(List<Customer> customers, Set<Integer> inserted, Map<Integer, String> errors,
+            Handler<AsyncResult<List<CustomerWriteResult>>> resulthandler) {
+        Map<String, Integer> last = new LinkedHashMap<>();
+        for (int i = 0; i < customers.size(); i++) {
+            if (!errors.containsKey(i)) {
+                last.put(customers.get(i).getCustomerId(), i);
+            }
+        }
+        Map<Integer, Future<String>> replacements = new LinkedHashMap<>();
+        for (int i : last.values()) {
+            if (!inserted.contains(i)) {
+                Future<String> replaced = Future.future();
+                replacements.put(i, replaced);
+                addCustomer(customers.get(i), replaced.completer());
+            }
+        }
+        CompositeFuture.join(new ArrayList<>(replacements.values())).setHandler(ar -> {
+            replacements.forEach((i, replaced) -> {
+                if (replaced.failed()) {
+                    errors.put(i, String.valueOf(replaced.cause().getMessage()));
+                }
+            });
+            List<CustomerWriteResult> results = new ArrayList<>(customers.size());
+            for (int i = 0; i < customers.size(); i++) {
+                results.add(new CustomerWriteResult(customers.get(i).getCustomerId(), errors.get(i)));
+            }
+            resulthandler.handle(Future.succeededFuture(results));
+        });
+    }
+
+    /**
+     * One findOneAndUpdate whose filter holds the conditions: the expected version, and the
+     * idempotency key not being among those already applied. The update bumps the version,
+     * records the key and adds the balance increment with $inc, so concurrent increments are not
+     * lost. The document from before the write comes back with the result, so the customer as
+     * written and the stats follow without reading it again.
+     * <p/>
+     * Only when nothing matched is the customer read, to tell a repeated key, a version conflict
+     * and a missing customer apart.
+     */
+    @Override
+    public void updateCustomer(CustomerUpdate update, Handler<AsyncResult<Customer>> resulthandler) {
+        JsonObject filter = new JsonObject().put("_id", update.getCustomerId());
+        if (update.getExpectedVersion() != null) {
+            filter.put("version", update.getExpectedVersion() == 0
+                    ? new JsonObject().put("$exists", false) : update.getExpectedVersion());
+        }
+        if (update.getIdempotencyKey() != null) {
+            filter.put("idempotencyKeys", new JsonObject().put("$ne", update.getIdempotencyKey()));
+        }
+        client.findOneAndUpdateWithOptions(COLLECTION, filter, toUpdate(update), new FindOptions().setFields(CUSTOMER_FIELDS),
+                new UpdateOptions().setUpsert(update.isUpsert()).setReturningNewDocument(false), ar -> {
+            if (ar.failed() && !isDuplicateKey(ar.cause())) {
+                resulthandler.handle(Future.failedFuture(ar.cause()));
+            } else if (ar.succeeded() && (ar.result() != null || update.isUpsert())) {
+                Customer previous = ar.result() == null ? null : toCustomer(ar.result());
+                Customer updated = update.applyTo(previous);
+                if (previous != null) {
+                    countStats(previous.getVipStatus(), -1, -previous.getBalance());
+                }
+                countStats(updated.getVipStatus(), 1, updated.getBalance());
+                resulthandler.handle(Future.succeededFuture(updated));
+            } else {
+                notUpdated(update, ar.failed() ? ar.cause() : null, resulthandler);
+            }
+        });
+    }
+
+    // Why the filter of updateCustomer matched nothing, or its upsert hit an existing _id
+    private void notUpdated(CustomerUpdate update, Throwable duplicateKey, Handler<AsyncResult<Customer>> resulthandler) {
+        JsonObject fields = CUSTOMER_FIELDS.copy().put("idempotencyKeys", 1);
+        client.findOne(COLLECTION, new JsonObject().put("_id", update.getCustomerId()), fields, ar -> {
+            if (ar.failed()) {
+                resulthandler.handle(Future.failedFuture(ar.cause()));
+                return;
+            }
+            JsonObject document = ar.result();
+            JsonArray keys = document == null ? null : document.getJsonArray("idempotencyKeys");
+            if (keys != null && keys.contains(update.getIdempotencyKey())) {
+                resulthandler.handle(Future.succeededFuture(toCustomer(document)));
+            } else if (document != null && update.getExpectedVersion() != null) {
+                resulthandler.handle(Future.failedFuture(new CustomerVersionConflictException("Customer "
+                        + update.getCustomerId() + " is at version " + document.getLong("version", 0L)
+                        + ", not " + update.getExpectedVersion())));
+            } else if (duplicateKey != null) {
+                // A concurrent upsert of the same customer came first
+                resulthandler.handle(Future.failedFuture(duplicateKey));
+            } else {
+                resulthandler.handle(Future.succeededFuture(null));
+            }
+        });
+    }
+
+    private static boolean isDuplicateKey(Throwable cause) {
+        return cause instanceof MongoServerException && ((MongoServerException) cause).getCode() == DUPLICATE_KEY;
     }
 
     @Override
     public void ping(Handler<AsyncResult<String>> resultHandler) {
-        resultHandler.handle(Future.succeededFuture("OK"));
+        // A real round-trip, so the liveness check fails when Mongo cannot be reached
+        client.runCommand("ping", new JsonObject().put("ping", 1), ar -> {
+            if (ar.succeeded()) {
+                resultHandler.handle(Future.succeededFuture("OK"));
+            } else {
+                resultHandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
+    }
+
+    @Override
+    public void flush(Handler<AsyncResult<Void>> resultHandler) {
+        // Every write completes once Mongo has acknowledged it, nothing is held back
+        resultHandler.handle(Future.succeededFuture());
+    }
+
+    @Override
+    public void getStats(Handler<AsyncResult<CustomerStats>> resultHandler) {
+        if (isStatsBuilt()) {
+            resultHandler.handle(Future.succeededFuture(copyStats()));
+            return;
+        }
+        // E.g. the build started by initialize failed
+        startStatsBuild();
+        resultHandler.handle(Future.failedFuture(new CustomerServiceNotReadyException("Customer stats not built yet")));
+    }
+
+    // Builds the stats unless they are built or being built
+    private void startStatsBuild() {
+        synchronized (this) {
+            if (statsBuilt || statsWaiters != null) {
+                return;
+            }
+        }
+        rebuildStats(ar -> {
+            if (ar.failed()) {
+                System.out.println("Failed to build the customer stats: " + ar.cause());
+            }
+        });
+    }
+
+    /**
+     * Recomputes the stats from the whole collection with an aggregation on the primary. Calls
+     * made while it runs share it. Meant for startup and a periodic reconcile, not for every write.
+     * <p/>
+     * The stats only follow the writes made through this instance. Rebuilding them now and then
+     * picks up the writes of the other instances, and those whose outcome was unknown, e.g. a
+     * failed bulk write. Writes through this instance that complete while the aggregation runs
+     * are applied again on top of its result, so they are not lost; one that the aggregation
+     * already saw is then counted twice until the next rebuild.
+     */
+    public void rebuildStats(Handler<AsyncResult<Void>> resultHandler) {
+        synchronized (this) {
+            if (statsWaiters != null) {
+                statsWaiters.add(resultHandler);
+                return;
+            }
+            statsWaiters = new ArrayList<>();
+            statsWaiters.add(resultHandler);
+            statsDeltas = new HashMap<>();
+        }
+        JsonObject group = new JsonObject()
+                .put("_id", "$vipStatus")
+                .put("count", new JsonObject().put("$sum", 1))
+                .put("totalBalance", new JsonObject().put("$sum", "$balance"));
+        JsonObject command = new JsonObject()
+                .put("aggregate", COLLECTION)
+                .put("pipeline", new JsonArray().add(new JsonObject().put("$group", group)))
+                .put("cursor", new JsonObject());
+        client.runCommand("aggregate", command, ar -> {
+            AsyncResult<Void> result;
+            List<Handler<AsyncResult<Void>>> waiters;
+            synchronized (this) {
+                if (ar.succeeded()) {
+                    CustomerStats rebuilt = new CustomerStats();
+                    // One document per VIP status, they fit in the first batch
+                    for (Object document : ar.result().getJsonObject("cursor").getJsonArray("firstBatch")) {
+                        JsonObject status = (JsonObject) document;
+                        rebuilt.add(status.getString("_id"), status.getLong("count"), status.getLong("totalBalance"));
+                    }
+                    statsDeltas.forEach((status, delta) -> rebuilt.add(status, delta[0], delta[1]));
+                    stats.reset(rebuilt);
+                    statsBuilt = true;
+                    result = Future.succeededFuture();
+                } else {
+                    result = Future.failedFuture(ar.cause());
+                }
+                statsDeltas = null;
+                waiters = statsWaiters;
+                statsWaiters = null;
+            }
+            waiters.forEach(h -> h.handle(result));
+        });
+    }
+
+    private synchronized boolean isStatsBuilt() {
+        return statsBuilt;
+    }
+
+    private synchronized CustomerStats copyStats() {
+        return stats.copy();
+    }
+
+    // Counts a written customer in, or with negative amounts a replaced one out
+    private synchronized void countStats(String vipStatus, long count, long totalBalance) {
+        stats.add(vipStatus, count, totalBalance);
+        if (statsDeltas != null) {
+            long[] delta = statsDeltas.computeIfAbsent(vipStatus == null ? CustomerStats.NO_VIP_STATUS : vipStatus, v -> new long[2]);
+            delta[0] += count;
+            delta[1] += totalBalance;
+        }
+    }
+
+    // The content hash is kept with the document so reads can hand out ETags without encoding.
+    // updatedAt (epoch millis of the writing instance) lets CustomerChangeVerticle find the changes.
+    // Every write bumps the version. _id comes from the filter when the update inserts.
+    private JsonObject toUpdate(Customer customer) {
+        JsonObject set = customer.toJson();
+        set.put("etag", customer.contentHash());
+        set.put("updatedAt", System.currentTimeMillis());
+        return new JsonObject()
+                .put("$set", set)
+                .put("$inc", new JsonObject().put("version", 1));
+    }
+
+    // A partial update cannot know the content it produces, so it drops the stored hash and reads
+    // compute it until the next replacement stores it again
+    private JsonObject toUpdate(CustomerUpdate update) {
+        JsonObject set = update.getSet().copy()
+                .put("customerId", update.getCustomerId())
+                .put("updatedAt", System.currentTimeMillis());
+        JsonObject changes = new JsonObject().put("$set", set);
+        if (update.isReplace()) {
+            set.put("etag", update.applyTo(null).contentHash());
+        } else {
+            changes.put("$unset", new JsonObject().put("etag", ""));
+        }
+        JsonObject inc = new JsonObject().put("version", 1);
+        if (update.getBalanceIncrement() != 0) {
+            inc.put("balance", update.getBalanceIncrement());
+        }
+        changes.put("$inc", inc);
+        if (update.getIdempotencyKey() != null) {
+            changes.put("$push", new JsonObject().put("idempotencyKeys", new JsonObject()
+                    .put("$each", new JsonArray().add(update.getIdempotencyKey()))
+                    .put("$slice", -MAX_IDEMPOTENCY_KEYS)));
+        }
+        return changes;
+    }
+
+    // Only creates the customer: an existing one is matched but left as it is
+    private JsonObject toInsert(Customer customer) {
+        JsonObject set = toUpdate(customer).getJsonObject("$set").put("version", 1);
+        return new JsonObject().put("$setOnInsert", set);
     }
 
-    private JsonObject toDocument(Customer customer) {
-        JsonObject document = customer.toJson();
-        document.put("_id", customer.getCustomerId());
-        return document;
+    private Customer toCustomer(JsonObject document) {
+        Customer customer = new Customer(document);
+        customer.setEtag(document.getString("etag"));
+        customer.setVersion(document.getLong("version", 0L));
+        return customer;
     }
 }
@@ -0,0 +1,14 @@
+package com.redhat.rhoar.customer.service;
+
+/**
+ * The CustomerService is up but cannot answer this call yet, e.g. the stats are still being
+ * computed after startup. Unlike other unavailability it says nothing about the backing store.
+ */
+public class CustomerServiceNotReadyException extends CustomerServiceUnavailableException {
+
+    private static final long serialVersionUID = 5127702377018356264L;
+
+    public CustomerServiceNotReadyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,14 @@
+package com.redhat.rhoar.customer.service;
+
+/**
+ * A CustomerService call was not answered: it timed out, or the circuit to the backing store is
+ * open. The call may succeed if retried later.
+ */
+public class CustomerServiceUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = -3470553419337281652L;
+
+    public CustomerServiceUnavailableException(String message) {
+        super(message, null, false, false);
+    }
+}
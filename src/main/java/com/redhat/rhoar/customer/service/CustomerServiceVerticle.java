@@ -0,0 +1,126 @@
+package com.redhat.rhoar.customer.service;
+
+import java.util.List;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.model.CustomerStats;
+import com.redhat.rhoar.customer.model.CustomerUpdate;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Serves a CustomerService on the event bus, for {@link EventBusCustomerService} clients.
+ * <p/>
+ * Lets the Mongo-facing service run in its own verticles, e.g. as workers, apart from the HTTP
+ * verticles. Several instances share the address and the event bus spreads the calls over them.
+ * The address is "customer.service.eventbus.address".
+ */
+public class CustomerServiceVerticle extends AbstractVerticle {
+
+    public static final String BACKEND = "backend";
+
+    // Failure code of the replies for a CustomerServiceUnavailableException
+    static final int UNAVAILABLE = 503;
+    // Failure code of the replies for a CustomerVersionConflictException
+    static final int CONFLICT = 412;
+
+    private final CustomerService customerService;
+    private MessageConsumer<Object> consumer;
+
+    @Inject
+    public CustomerServiceVerticle(@Named(BACKEND) CustomerService customerService) {
+        this.customerService = customerService;
+    }
+
+    @Override
+    public void start(Future<Void> startFuture) throws Exception {
+        CustomerMessageCodecs.register(vertx.eventBus());
+        String address = config().getString("customer.service.eventbus.address", EventBusCustomerService.DEFAULT_ADDRESS);
+        consumer = vertx.eventBus().consumer(address, this::handle);
+        consumer.completionHandler(startFuture.completer());
+    }
+
+    @Override
+    public void stop(Future<Void> stopFuture) throws Exception {
+        // No new calls, then drain the writes the service may still hold
+        consumer.unregister(ar -> customerService.flush(stopFuture.completer()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handle(Message<Object> message) {
+        String action = message.headers().get(EventBusCustomerService.ACTION);
+        if (action == null) {
+            message.fail(400, "No action header");
+            return;
+        }
+        switch (action) {
+        case EventBusCustomerService.INITIALIZE:
+            customerService.initialize(reply(message, null));
+            break;
+        case EventBusCustomerService.GET_CUSTOMERS:
+            customerService.getCustomers(reply(message, CustomerMessageCodecs.CUSTOMER_LIST));
+            break;
+        case EventBusCustomerService.GET_CUSTOMERS_PAGE:
+            JsonObject page = (JsonObject) message.body();
+            customerService.getCustomers(page.getInteger("limit"), page.getString("after"),
+                    reply(message, CustomerMessageCodecs.CUSTOMER_LIST));
+            break;
+        case EventBusCustomerService.FIND_CUSTOMERS:
+            customerService.findCustomers(new CustomerQuery((JsonObject) message.body()),
+                    reply(message, CustomerMessageCodecs.CUSTOMER_LIST));
+            break;
+        case EventBusCustomerService.GET_CUSTOMER:
+            customerService.getCustomer((String) message.body(), reply(message, CustomerMessageCodecs.CUSTOMER));
+            break;
+        case EventBusCustomerService.GET_CUSTOMERS_BY_IDS:
+            customerService.getCustomers(((JsonArray) message.body()).getList(),
+                    reply(message, CustomerMessageCodecs.CUSTOMER_LIST));
+            break;
+        case EventBusCustomerService.ADD_CUSTOMER:
+            customerService.addCustomer((Customer) message.body(), reply(message, null));
+            break;
+        case EventBusCustomerService.ADD_CUSTOMERS:
+            customerService.addCustomers((List<Customer>) message.body(),
+                    reply(message, CustomerMessageCodecs.WRITE_RESULT_LIST));
+            break;
+        case EventBusCustomerService.UPDATE_CUSTOMER:
+            customerService.updateCustomer(new CustomerUpdate((JsonObject) message.body()),
+                    reply(message, CustomerMessageCodecs.CUSTOMER));
+            break;
+        case EventBusCustomerService.PING:
+            customerService.ping(reply(message, null));
+            break;
+        case EventBusCustomerService.GET_STATS:
+            Handler<AsyncResult<JsonObject>> stats = reply(message, null);
+            customerService.getStats(ar -> stats.handle(ar.map(CustomerStats::toJson)));
+            break;
+        default:
+            message.fail(400, "Unknown action: " + action);
+        }
+    }
+
+    private <T> Handler<AsyncResult<T>> reply(Message<Object> message, String codec) {
+        return ar -> {
+            if (ar.failed()) {
+                int code = ar.cause() instanceof CustomerServiceUnavailableException ? UNAVAILABLE
+                        : ar.cause() instanceof CustomerVersionConflictException ? CONFLICT : 500;
+                message.fail(code, String.valueOf(ar.cause().getMessage()));
+            } else if (ar.result() == null || codec == null) {
+                message.reply(ar.result());
+            } else {
+                message.reply(ar.result(), new DeliveryOptions().setCodecName(codec));
+            }
+        };
+    }
+}
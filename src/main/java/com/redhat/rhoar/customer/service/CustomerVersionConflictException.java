@@ -0,0 +1,14 @@
+package com.redhat.rhoar.customer.service;
+
+/**
+ * A conditional write was not applied: the customer is not at the version the write expected,
+ * another write came first. Read the customer again and retry against its current version.
+ */
+public class CustomerVersionConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 5217398023671924093L;
+
+    public CustomerVersionConflictException(String message) {
+        super(message, null, false, false);
+    }
+}
@@ -0,0 +1,160 @@
+package com.redhat.rhoar.customer.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.model.CustomerStats;
+import com.redhat.rhoar.customer.model.CustomerUpdate;
+import com.redhat.rhoar.customer.model.CustomerWriteResult;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * CustomerService that forwards every call over the event bus to a {@link CustomerServiceVerticle}.
+ * <p/>
+ * The method is sent in the "action" header. Customers travel with the codecs of
+ * {@link CustomerMessageCodecs}, so there is no JSON encoding on the hop. A call fails with a
+ * {@link CustomerServiceUnavailableException} when no service is registered, no reply comes within
+ * the send timeout, or the service itself was unavailable, and with a
+ * {@link CustomerVersionConflictException} when a conditional write was not applied; other
+ * failures are ReplyExceptions.
+ */
+public class EventBusCustomerService implements CustomerService {
+
+    public static final String DEFAULT_ADDRESS = "customer-service";
+
+    static final String ACTION = "action";
+    static final String INITIALIZE = "initialize";
+    static final String GET_CUSTOMERS = "getCustomers";
+    static final String GET_CUSTOMERS_PAGE = "getCustomersPage";
+    static final String FIND_CUSTOMERS = "findCustomers";
+    static final String GET_CUSTOMER = "getCustomer";
+    static final String GET_CUSTOMERS_BY_IDS = "getCustomersByIds";
+    static final String ADD_CUSTOMER = "addCustomer";
+    static final String ADD_CUSTOMERS = "addCustomers";
+    static final String UPDATE_CUSTOMER = "updateCustomer";
+    static final String PING = "ping";
+    static final String GET_STATS = "getStats";
+
+    private final Vertx vertx;
+    private final String address;
+    private final long timeout;
+
+    public EventBusCustomerService(Vertx vertx, String address, long timeout) {
+        this.vertx = vertx;
+        this.address = address;
+        this.timeout = timeout;
+        CustomerMessageCodecs.register(vertx.eventBus());
+    }
+
+    @Override
+    public void initialize(Handler<AsyncResult<Void>> resultHandler) {
+        send(INITIALIZE, null, null, resultHandler);
+    }
+
+    @Override
+    public void getCustomers(Handler<AsyncResult<List<Customer>>> resulthandler) {
+        send(GET_CUSTOMERS, null, null, resulthandler);
+    }
+
+    @Override
+    public void getCustomers(int limit, String afterCustomerId, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        JsonObject page = new JsonObject().put("limit", limit).put("after", afterCustomerId);
+        send(GET_CUSTOMERS_PAGE, page, null, resulthandler);
+    }
+
+    @Override
+    public void findCustomers(CustomerQuery query, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        send(FIND_CUSTOMERS, query.toJson(), null, resulthandler);
+    }
+
+    @Override
+    public void getCustomer(String customerId, Handler<AsyncResult<Customer>> resulthandler) {
+        send(GET_CUSTOMER, customerId, null, resulthandler);
+    }
+
+    @Override
+    public void getCustomers(Collection<String> customerIds, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        send(GET_CUSTOMERS_BY_IDS, new JsonArray(new ArrayList<>(customerIds)), null, resulthandler);
+    }
+
+    @Override
+    public void addCustomer(Customer customer, Handler<AsyncResult<String>> resulthandler) {
+        send(ADD_CUSTOMER, customer, CustomerMessageCodecs.CUSTOMER, resulthandler);
+    }
+
+    @Override
+    public void addCustomers(List<Customer> customers, Handler<AsyncResult<List<CustomerWriteResult>>> resulthandler) {
+        send(ADD_CUSTOMERS, customers, CustomerMessageCodecs.CUSTOMER_LIST, resulthandler);
+    }
+
+    @Override
+    public void updateCustomer(CustomerUpdate update, Handler<AsyncResult<Customer>> resulthandler) {
+        send(UPDATE_CUSTOMER, update.toJson(), null, resulthandler);
+    }
+
+    @Override
+    public void ping(Handler<AsyncResult<String>> resultHandler) {
+        send(PING, null, null, resultHandler);
+    }
+
+    @Override
+    public void flush(Handler<AsyncResult<Void>> resultHandler) {
+        // Writes are held by the service behind the CustomerServiceVerticles, which flush it when they stop
+        resultHandler.handle(Future.succeededFuture());
+    }
+
+    @Override
+    public void getStats(Handler<AsyncResult<CustomerStats>> resultHandler) {
+        this.<JsonObject>send(GET_STATS, null, null, ar -> resultHandler.handle(ar.map(CustomerStats::new)));
+    }
+
+    private <T> void send(String action, Object body, String codec, Handler<AsyncResult<T>> resultHandler) {
+        DeliveryOptions options = new DeliveryOptions()
+                .addHeader(ACTION, action)
+                .setSendTimeout(timeout);
+        if (codec != null) {
+            options.setCodecName(codec);
+        }
+        vertx.eventBus().<T>send(address, body, options, ar -> {
+            if (ar.succeeded()) {
+                Message<T> reply = ar.result();
+                resultHandler.handle(Future.succeededFuture(reply.body()));
+            } else if (isUnavailable(ar.cause())) {
+                resultHandler.handle(Future.failedFuture(new CustomerServiceUnavailableException(ar.cause().getMessage())));
+            } else if (isConflict(ar.cause())) {
+                resultHandler.handle(Future.failedFuture(new CustomerVersionConflictException(ar.cause().getMessage())));
+            } else {
+                resultHandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
+    }
+
+    // The service could not answer in time, or was not there at all
+    private static boolean isUnavailable(Throwable cause) {
+        if (!(cause instanceof ReplyException)) {
+            return false;
+        }
+        ReplyException reply = (ReplyException) cause;
+        return reply.failureType() != ReplyFailure.RECIPIENT_FAILURE
+                || reply.failureCode() == CustomerServiceVerticle.UNAVAILABLE;
+    }
+
+    private static boolean isConflict(Throwable cause) {
+        return cause instanceof ReplyException
+                && ((ReplyException) cause).failureType() == ReplyFailure.RECIPIENT_FAILURE
+                && ((ReplyException) cause).failureCode() == CustomerServiceVerticle.CONFLICT;
+    }
+}
@@ -0,0 +1,113 @@
+package com.redhat.rhoar.customer.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.model.CustomerStats;
+import com.redhat.rhoar.customer.model.CustomerUpdate;
+import com.redhat.rhoar.customer.model.CustomerWriteResult;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+
+/**
+ * Records the latency and outcome of every call on the wrapped CustomerService.
+ * <p/>
+ * Bound directly around the Mongo implementation, so the "customer.service" timer measures
+ * Mongo round-trips, tagged by method and outcome. "customer.service.inflight" counts the calls
+ * currently waiting on Mongo.
+ */
+public class MeteredCustomerService implements CustomerService {
+
+    private final CustomerService delegate;
+    private final MeterRegistry registry;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public MeteredCustomerService(CustomerService delegate, MeterRegistry registry) {
+        this.delegate = delegate;
+        this.registry = registry;
+        registry.gauge("customer.service.inflight", inFlight);
+    }
+
+    @Override
+    public void initialize(Handler<AsyncResult<Void>> resultHandler) {
+        delegate.initialize(timed("initialize", resultHandler));
+    }
+
+    @Override
+    public void getCustomers(Handler<AsyncResult<List<Customer>>> resulthandler) {
+        delegate.getCustomers(timed("getCustomers", resulthandler));
+    }
+
+    @Override
+    public void getCustomers(int limit, String afterCustomerId, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        delegate.getCustomers(limit, afterCustomerId, timed("getCustomersPage", resulthandler));
+    }
+
+    @Override
+    public void findCustomers(CustomerQuery query, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        delegate.findCustomers(query, timed("findCustomers", resulthandler));
+    }
+
+    @Override
+    public void getCustomer(String customerId, Handler<AsyncResult<Customer>> resulthandler) {
+        delegate.getCustomer(customerId, timed("getCustomer", resulthandler));
+    }
+
+    @Override
+    public void getCustomers(Collection<String> customerIds, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        delegate.getCustomers(customerIds, timed("getCustomersByIds", resulthandler));
+    }
+
+    @Override
+    public void addCustomer(Customer customer, Handler<AsyncResult<String>> resulthandler) {
+        delegate.addCustomer(customer, timed("addCustomer", resulthandler));
+    }
+
+    @Override
+    public void addCustomers(List<Customer> customers, Handler<AsyncResult<List<CustomerWriteResult>>> resulthandler) {
+        delegate.addCustomers(customers, timed("addCustomers", resulthandler));
+    }
+
+    @Override
+    public void updateCustomer(CustomerUpdate update, Handler<AsyncResult<Customer>> resulthandler) {
+        delegate.updateCustomer(update, timed("updateCustomer", resulthandler));
+    }
+
+    @Override
+    public void ping(Handler<AsyncResult<String>> resultHandler) {
+        delegate.ping(timed("ping", resultHandler));
+    }
+
+    @Override
+    public void getStats(Handler<AsyncResult<CustomerStats>> resultHandler) {
+        delegate.getStats(timed("getStats", resultHandler));
+    }
+
+    @Override
+    public void flush(Handler<AsyncResult<Void>> resultHandler) {
+        delegate.flush(resultHandler);
+    }
+
+    private <T> Handler<AsyncResult<T>> timed(String method, Handler<AsyncResult<T>> handler) {
+        inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        return ar -> {
+            long duration = System.nanoTime() - start;
+            inFlight.decrementAndGet();
+            Timer.builder("customer.service")
+                .tag("method", method)
+                .tag("outcome", ar.succeeded() ? "success" : "error")
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(duration, TimeUnit.NANOSECONDS);
+            handler.handle(ar);
+        };
+    }
+}
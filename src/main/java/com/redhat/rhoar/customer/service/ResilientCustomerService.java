@@ -0,0 +1,250 @@
+package com.redhat.rhoar.customer.service;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mongodb.MongoException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoServerException;
+import com.mongodb.MongoWriteConcernException;
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.model.CustomerStats;
+import com.redhat.rhoar.customer.model.CustomerUpdate;
+import com.redhat.rhoar.customer.model.CustomerWriteResult;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxException;
+
+/**
+ * Puts a deadline on every call of the wrapped CustomerService and fails fast while it is unhealthy.
+ * <p/>
+ * A call that has not completed within its timeout fails with a
+ * {@link CustomerServiceUnavailableException}; a late result is dropped. After {@code maxFailures}
+ * consecutive timeouts or infrastructure failures, see {@link #isInfrastructureFailure(Throwable)},
+ * the circuit opens and calls fail immediately, without reaching the delegate. After {@code resetTimeoutMillis} a single trial call is let through: its success
+ * closes the circuit, its failure opens it again.
+ * <p/>
+ * ping is given a deadline but bypasses the circuit, so the liveness check keeps measuring the
+ * real round-trip. initialize and flush, which start and stop the service, have neither.
+ */
+public class ResilientCustomerService implements CustomerService {
+
+    public static final int CLOSED = 0;
+    public static final int OPEN = 1;
+    public static final int HALF_OPEN = 2;
+
+    private final Vertx vertx;
+    private final CustomerService delegate;
+    private final int maxFailures;
+    private final long resetTimeoutMillis;
+    private final long timeoutMillis;
+    private final Map<String, Long> methodTimeouts = new HashMap<>();
+
+    private int state = CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    public ResilientCustomerService(Vertx vertx, CustomerService delegate, int maxFailures, long resetTimeoutMillis, long timeoutMillis) {
+        if (maxFailures < 1 || resetTimeoutMillis < 1 || timeoutMillis < 1) {
+            throw new IllegalArgumentException("maxFailures, resetTimeoutMillis and timeoutMillis must be positive");
+        }
+        this.vertx = vertx;
+        this.delegate = delegate;
+        this.maxFailures = maxFailures;
+        this.resetTimeoutMillis = resetTimeoutMillis;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Overrides the timeout of one method, e.g. "getCustomers" or "addCustomers".
+     * The paged getCustomers is "getCustomersPage", the lookup by ids "getCustomersByIds".
+     */
+    public ResilientCustomerService setTimeout(String method, long millis) {
+        if (millis < 1) {
+            throw new IllegalArgumentException("Timeout of " + method + " must be positive: " + millis);
+        }
+        methodTimeouts.put(method, millis);
+        return this;
+    }
+
+    @Override
+    public void initialize(Handler<AsyncResult<Void>> resultHandler) {
+        // Part of starting up and may take long, e.g. building indexes: no deadline and no circuit
+        delegate.initialize(resultHandler);
+    }
+
+    @Override
+    public void getCustomers(Handler<AsyncResult<List<Customer>>> resulthandler) {
+        call("getCustomers", h -> delegate.getCustomers(h), resulthandler);
+    }
+
+    @Override
+    public void getCustomers(int limit, String afterCustomerId, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        call("getCustomersPage", h -> delegate.getCustomers(limit, afterCustomerId, h), resulthandler);
+    }
+
+    @Override
+    public void findCustomers(CustomerQuery query, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        call("findCustomers", h -> delegate.findCustomers(query, h), resulthandler);
+    }
+
+    @Override
+    public void getCustomer(String customerId, Handler<AsyncResult<Customer>> resulthandler) {
+        call("getCustomer", h -> delegate.getCustomer(customerId, h), resulthandler);
+    }
+
+    @Override
+    public void getCustomers(Collection<String> customerIds, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        call("getCustomersByIds", h -> delegate.getCustomers(customerIds, h), resulthandler);
+    }
+
+    @Override
+    public void addCustomer(Customer customer, Handler<AsyncResult<String>> resulthandler) {
+        call("addCustomer", h -> delegate.addCustomer(customer, h), resulthandler);
+    }
+
+    @Override
+    public void addCustomers(List<Customer> customers, Handler<AsyncResult<List<CustomerWriteResult>>> resulthandler) {
+        call("addCustomers", h -> delegate.addCustomers(customers, h), resulthandler);
+    }
+
+    @Override
+    public void updateCustomer(CustomerUpdate update, Handler<AsyncResult<Customer>> resulthandler) {
+        call("updateCustomer", h -> delegate.updateCustomer(update, h), resulthandler);
+    }
+
+    @Override
+    public void ping(Handler<AsyncResult<String>> resultHandler) {
+        withDeadline("ping", h -> delegate.ping(h), resultHandler);
+    }
+
+    @Override
+    public void getStats(Handler<AsyncResult<CustomerStats>> resultHandler) {
+        call("getStats", h -> delegate.getStats(h), resultHandler);
+    }
+
+    @Override
+    public void flush(Handler<AsyncResult<Void>> resultHandler) {
+        // Part of shutting down, not a call on Mongo: no deadline and no circuit
+        delegate.flush(resultHandler);
+    }
+
+    public synchronized int getState() {
+        if (state == OPEN && System.currentTimeMillis() - openedAt >= resetTimeoutMillis) {
+            return HALF_OPEN;
+        }
+        return state;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private <T> void call(String method, Handler<Handler<AsyncResult<T>>> operation, Handler<AsyncResult<T>> resultHandler) {
+        if (!allowRequest()) {
+            rejectedCount.incrementAndGet();
+            resultHandler.handle(Future.failedFuture(new CustomerServiceUnavailableException("Circuit open, " + method + " not attempted")));
+            return;
+        }
+        withDeadline(method, operation, ar -> {
+            if (ar.succeeded() || !isInfrastructureFailure(ar.cause())) {
+                onSuccess();
+            } else {
+                onFailure();
+            }
+            resultHandler.handle(ar);
+        });
+    }
+
+    /**
+     * Whether a failure says the backing store is unhealthy: a timeout, or Mongo or the network
+     * failing. Other failures, e.g. a version conflict or a duplicate key, are answers to the call
+     * and show the store is working, so they do not count towards opening the circuit.
+     */
+    static boolean isInfrastructureFailure(Throwable cause) {
+        if (cause instanceof CustomerServiceNotReadyException) {
+            return false;
+        }
+        if (cause instanceof CustomerServiceUnavailableException || cause instanceof IOException
+                || cause instanceof VertxException) {
+            return true;
+        }
+        if (cause instanceof MongoNotPrimaryException || cause instanceof MongoNodeIsRecoveringException
+                || cause instanceof MongoWriteConcernException) {
+            return true;
+        }
+        // The other server errors are about the request itself
+        return cause instanceof MongoException && !(cause instanceof MongoServerException);
+    }
+
+    private <T> void withDeadline(String method, Handler<Handler<AsyncResult<T>>> operation, Handler<AsyncResult<T>> resultHandler) {
+        long timeout = methodTimeouts.getOrDefault(method, timeoutMillis);
+        AtomicBoolean completed = new AtomicBoolean();
+        long timerId = vertx.setTimer(timeout, id -> {
+            if (completed.compareAndSet(false, true)) {
+                timeoutCount.incrementAndGet();
+                resultHandler.handle(Future.failedFuture(new CustomerServiceUnavailableException(method + " timed out after " + timeout + " ms")));
+            }
+        });
+        operation.handle(ar -> {
+            if (completed.compareAndSet(false, true)) {
+                vertx.cancelTimer(timerId);
+                resultHandler.handle(ar);
+            }
+        });
+    }
+
+    private synchronized boolean allowRequest() {
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if (System.currentTimeMillis() - openedAt < resetTimeoutMillis) {
+                return false;
+            }
+            state = HALF_OPEN;
+            trialInFlight = true;
+            return true;
+        default:
+            // Half open: only the trial call goes through
+            if (trialInFlight) {
+                return false;
+            }
+            trialInFlight = true;
+            return true;
+        }
+    }
+
+    private synchronized void onSuccess() {
+        state = CLOSED;
+        failures = 0;
+        trialInFlight = false;
+    }
+
+    private synchronized void onFailure() {
+        trialInFlight = false;
+        if (state == HALF_OPEN || ++failures >= maxFailures) {
+            state = OPEN;
+            openedAt = System.currentTimeMillis();
+            failures = 0;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.redhat.rhoar.customer.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.google.inject.Inject;
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.model.CustomerStats;
+import com.redhat.rhoar.customer.model.CustomerUpdate;
+import com.redhat.rhoar.customer.model.CustomerWriteResult;
+
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
+import io.reactivex.Single;
+import io.reactivex.processors.UnicastProcessor;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+
+/**
+ * RxJava 2 view of a CustomerService, for composing calls without nesting callbacks.
+ * <p/>
+ * Every call is lazy: the underlying CustomerService is only called when the result is subscribed
+ * to, once per subscription. Results are emitted on the thread the CustomerService completes on,
+ * normally the caller's Vert.x context.
+ * <p/>
+ * Optional: the application does not use it and does not ship RxJava, code that does use it
+ * brings its own io.reactivex.rxjava2:rxjava.
+ */
+public class RxCustomerService {
+
+    // Cursor of the first page, Rx streams cannot carry null
+    private static final String FIRST_PAGE = "";
+
+    private final CustomerService delegate;
+
+    @Inject
+    public RxCustomerService(CustomerService delegate) {
+        this.delegate = delegate;
+    }
+
+    public Completable initialize() {
+        return Completable.fromMaybe(RxCustomerService.<Void>maybe(delegate::initialize));
+    }
+
+    /**
+     * The whole collection ordered by customerId, read page by page as the subscriber asks for it.
+     * <p/>
+     * A page is only requested from the CustomerService once the previous one has been fetched,
+     * and at most one page is fetched ahead of what the subscriber has consumed, so a slow
+     * subscriber holds back the reads instead of buffering the collection.
+     */
+    public Flowable<Customer> getCustomers(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        return Flowable.defer(() -> {
+            UnicastProcessor<String> cursors = UnicastProcessor.create();
+            cursors.onNext(FIRST_PAGE);
+            return cursors
+                .concatMap(after -> getCustomers(pageSize, FIRST_PAGE.equals(after) ? null : after).toFlowable(), 1)
+                .doOnNext(page -> {
+                    if (page.size() < pageSize) {
+                        cursors.onComplete();
+                    } else {
+                        cursors.onNext(page.get(page.size() - 1).getCustomerId());
+                    }
+                })
+                .concatMapIterable(page -> page, 1);
+        });
+    }
+
+    public Single<List<Customer>> getCustomers(int limit, String afterCustomerId) {
+        return single(h -> delegate.getCustomers(limit, afterCustomerId, h));
+    }
+
+    /**
+     * Empty when there is no customer with that id.
+     */
+    public Maybe<Customer> getCustomer(String customerId) {
+        return maybe(h -> delegate.getCustomer(customerId, h));
+    }
+
+    public Single<List<Customer>> findCustomers(CustomerQuery query) {
+        return single(h -> delegate.findCustomers(query, h));
+    }
+
+    /**
+     * The customers that exist among {@code customerIds}, in request order.
+     */
+    public Single<List<Customer>> getCustomers(Collection<String> customerIds) {
+        return single(h -> delegate.getCustomers(customerIds, h));
+    }
+
+    public Completable addCustomer(Customer customer) {
+        return Completable.fromMaybe(RxCustomerService.<String>maybe(h -> delegate.addCustomer(customer, h)));
+    }
+
+    public Single<List<CustomerWriteResult>> addCustomers(List<Customer> customers) {
+        return single(h -> delegate.addCustomers(customers, h));
+    }
+
+    /**
+     * The customer as written, or empty when there is no such customer and the update does not
+     * create it.
+     */
+    public Maybe<Customer> updateCustomer(CustomerUpdate update) {
+        return maybe(h -> delegate.updateCustomer(update, h));
+    }
+
+    /**
+     * Writes a stream of customers in batches of {@code batchSize}, one batch at a time, and emits
+     * the outcome of every customer in input order. Customers are only pulled from the source as
+     * fast as the batches are written.
+     */
+    public Flowable<CustomerWriteResult> addCustomers(Flowable<Customer> customers, int batchSize) {
+        return customers
+            .buffer(batchSize)
+            .concatMap(batch -> addCustomers(batch).toFlowable(), 1)
+            .concatMapIterable(results -> results, 1);
+    }
+
+    public Completable flush() {
+        return Completable.fromMaybe(RxCustomerService.<Void>maybe(delegate::flush));
+    }
+
+    public Single<String> ping() {
+        return single(delegate::ping);
+    }
+
+    public Single<CustomerStats> getStats() {
+        return single(delegate::getStats);
+    }
+
+    private static <T> Single<T> single(Consumer<Handler<AsyncResult<T>>> call) {
+        return Single.create(emitter -> call.accept(ar -> {
+            if (ar.succeeded()) {
+                emitter.onSuccess(ar.result());
+            } else {
+                emitter.onError(ar.cause());
+            }
+        }));
+    }
+
+    private static <T> Maybe<T> maybe(Consumer<Handler<AsyncResult<T>>> call) {
+        return Maybe.create(emitter -> call.accept(ar -> {
+            if (ar.failed()) {
+                emitter.onError(ar.cause());
+            } else if (ar.result() == null) {
+                emitter.onComplete();
+            } else {
+                emitter.onSuccess(ar.result());
+            }
+        }));
+    }
+}
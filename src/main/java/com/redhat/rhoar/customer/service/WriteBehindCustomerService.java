@@ -0,0 +1,421 @@
+package com.redhat.rhoar.customer.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.model.CustomerStats;
+import com.redhat.rhoar.customer.model.CustomerUpdate;
+import com.redhat.rhoar.customer.model.CustomerWriteResult;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+
+/**
+ * Buffers addCustomer calls and writes them to the delegate in groups, with addCustomers.
+ * <p/>
+ * A group is written once it holds {@code maxBatchSize} customers or its oldest write has waited
+ * {@code maxDelayMillis}. Only one group is written at a time; the next one fills up meanwhile,
+ * so under load the batches grow instead of the number of Mongo operations. Several writes of the
+ * same customer in one group are collapsed into the last one.
+ * <p/>
+ * The durability decides when addCustomer completes:
+ * <ul>
+ * <li>{@link Durability#COMMITTED}: once the group holding the write has been stored. A failed
+ *     write fails its caller.</li>
+ * <li>{@link Durability#BUFFERED}: as soon as the write is buffered. Writes still buffered when
+ *     the process dies are lost, and failed writes are only counted.</li>
+ * </ul>
+ * At most {@code maxPending} customers wait to be written; beyond that addCustomer fails with a
+ * {@link CustomerServiceUnavailableException}.
+ * <p/>
+ * getCustomer and the lookup by ids see the buffered writes. The other reads, the stats included,
+ * go to the delegate and see a write once it has been stored. addCustomers is a group write
+ * already and is passed on as is, after a flush when one of its customers has a buffered write so
+ * that write is not stored over it. updateCustomer is conditional on what is stored, so buffered
+ * writes of its customer are flushed before it is passed on as well. {@link #flush(Handler)} writes out everything buffered so far.
+ */
+public class WriteBehindCustomerService implements CustomerService {
+
+    public enum Durability {
+        BUFFERED, COMMITTED
+    }
+
+    private final Vertx vertx;
+    private final CustomerService delegate;
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+    private final int maxPending;
+    private final Durability durability;
+
+    // Guarded by this
+    private LinkedHashMap<String, Write> buffer = new LinkedHashMap<>();
+    private Map<String, Write> writing = new HashMap<>();
+    private boolean flushDue;
+    private long timerId = -1;
+    private int flushesInProgress;
+
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    public WriteBehindCustomerService(Vertx vertx, CustomerService delegate, int maxBatchSize, long maxDelayMillis,
+            int maxPending, Durability durability) {
+        if (maxBatchSize < 1 || maxDelayMillis < 1 || maxPending < maxBatchSize) {
+            throw new IllegalArgumentException("maxBatchSize and maxDelayMillis must be positive, and maxPending at least maxBatchSize");
+        }
+        this.vertx = vertx;
+        this.delegate = delegate;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxPending = maxPending;
+        this.durability = durability;
+    }
+
+    @Override
+    public void initialize(Handler<AsyncResult<Void>> resultHandler) {
+        delegate.initialize(resultHandler);
+    }
+
+    @Override
+    public void getCustomers(Handler<AsyncResult<List<Customer>>> resulthandler) {
+        delegate.getCustomers(resulthandler);
+    }
+
+    @Override
+    public void getCustomers(int limit, String afterCustomerId, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        delegate.getCustomers(limit, afterCustomerId, resulthandler);
+    }
+
+    @Override
+    public void findCustomers(CustomerQuery query, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        delegate.findCustomers(query, resulthandler);
+    }
+
+    @Override
+    public void getCustomer(String customerId, Handler<AsyncResult<Customer>> resulthandler) {
+        Customer pending = pending(customerId);
+        if (pending != null) {
+            resulthandler.handle(Future.succeededFuture(pending));
+            return;
+        }
+        delegate.getCustomer(customerId, resulthandler);
+    }
+
+    @Override
+    public void getCustomers(Collection<String> customerIds, Handler<AsyncResult<List<Customer>>> resulthandler) {
+        Set<String> ids = new LinkedHashSet<>(customerIds);
+        Map<String, Customer> found = new HashMap<>();
+        List<String> stored = new ArrayList<>();
+        for (String customerId : ids) {
+            Customer pending = pending(customerId);
+            if (pending != null) {
+                found.put(customerId, pending);
+            } else {
+                stored.add(customerId);
+            }
+        }
+        if (found.isEmpty()) {
+            delegate.getCustomers(customerIds, resulthandler);
+            return;
+        }
+        Future<List<Customer>> rest = Future.future();
+        if (stored.isEmpty()) {
+            rest.complete(new ArrayList<>());
+        } else {
+            delegate.getCustomers(stored, rest.completer());
+        }
+        rest.setHandler(ar -> {
+            if (ar.failed()) {
+                resulthandler.handle(Future.failedFuture(ar.cause()));
+                return;
+            }
+            ar.result().forEach(c -> found.put(c.getCustomerId(), c));
+            List<Customer> customers = new ArrayList<>(found.size());
+            for (String customerId : ids) {
+                Customer customer = found.get(customerId);
+                if (customer != null) {
+                    customers.add(customer);
+                }
+            }
+            resulthandler.handle(Future.succeededFuture(customers));
+        });
+    }
+
+    @Override
+    public void addCustomer(Customer customer, Handler<AsyncResult<String>> resulthandler) {
+        Waiter waiter = durability == Durability.COMMITTED ? new Waiter(Vertx.currentContext(), resulthandler) : null;
+        Write write;
+        boolean flushNow = false;
+        synchronized (this) {
+            write = buffer.get(customer.getCustomerId());
+            if (write != null || buffer.size() + writing.size() < maxPending) {
+                if (write == null) {
+                    write = new Write();
+                    buffer.put(customer.getCustomerId(), write);
+                }
+                write.customer = customer;
+                if (waiter != null) {
+                    write.waiters.add(waiter);
+                }
+                flushNow = buffer.size() >= maxBatchSize;
+                if (flushNow) {
+                    flushDue = true;
+                } else if (timerId < 0) {
+                    timerId = vertx.setTimer(maxDelayMillis, id -> timerFired());
+                }
+            }
+        }
+        if (write == null) {
+            resulthandler.handle(Future.failedFuture(new CustomerServiceUnavailableException("Too many buffered writes")));
+            return;
+        }
+        if (waiter == null) {
+            resulthandler.handle(Future.succeededFuture());
+        }
+        if (flushNow) {
+            writeNextBatch();
+        }
+    }
+
+    @Override
+    public void addCustomers(List<Customer> customers, Handler<AsyncResult<List<CustomerWriteResult>>> resulthandler) {
+        if (customers.stream().noneMatch(c -> pending(c.getCustomerId()) != null)) {
+            delegate.addCustomers(customers, resulthandler);
+            return;
+        }
+        // The older buffered writes must not be stored after, and over, the batch. The batch is
+        // written whether they could be stored or not.
+        flush(ar -> delegate.addCustomers(customers, resulthandler));
+    }
+
+    @Override
+    public void updateCustomer(CustomerUpdate update, Handler<AsyncResult<Customer>> resulthandler) {
+        if (pending(update.getCustomerId()) == null) {
+            delegate.updateCustomer(update, resulthandler);
+            return;
+        }
+        flush(ar -> {
+            if (ar.succeeded()) {
+                delegate.updateCustomer(update, resulthandler);
+            } else {
+                resulthandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
+    }
+
+    @Override
+    public void ping(Handler<AsyncResult<String>> resultHandler) {
+        delegate.ping(resultHandler);
+    }
+
+    /**
+     * Writes out everything buffered, then flushes the delegate. Completes once the writes
+     * accepted before the call have been stored, or fails if one of them could not be.
+     */
+    @Override
+    public void flush(Handler<AsyncResult<Void>> resultHandler) {
+        Flush flush = new Flush(resultHandler);
+        synchronized (this) {
+            for (Write write : buffer.values()) {
+                write.flushes.add(flush);
+                flush.remaining++;
+            }
+            for (Write write : writing.values()) {
+                write.flushes.add(flush);
+                flush.remaining++;
+            }
+            if (flush.remaining > 0) {
+                flushesInProgress++;
+                flushDue = true;
+            }
+        }
+        if (flush.remaining == 0) {
+            delegate.flush(resultHandler);
+        } else {
+            writeNextBatch();
+        }
+    }
+
+    /**
+     * The stats of the delegate, which do not count the writes still buffered.
+     */
+    @Override
+    public void getStats(Handler<AsyncResult<CustomerStats>> resultHandler) {
+        delegate.getStats(resultHandler);
+    }
+
+    /**
+     * Number of customers buffered or being written.
+     */
+    public synchronized int getPendingCount() {
+        return buffer.size() + writing.size();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * Number of buffered writes that could not be stored.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    private synchronized Customer pending(String customerId) {
+        Write write = buffer.get(customerId);
+        if (write == null) {
+            write = writing.get(customerId);
+        }
+        return write == null ? null : write.customer;
+    }
+
+    private void timerFired() {
+        synchronized (this) {
+            timerId = -1;
+            flushDue = true;
+        }
+        writeNextBatch();
+    }
+
+    // Starts writing the oldest buffered writes when a flush is due and no other batch is being written
+    private void writeNextBatch() {
+        Map<String, Write> batch;
+        synchronized (this) {
+            if (!flushDue || !writing.isEmpty()) {
+                return;
+            }
+            if (buffer.isEmpty()) {
+                flushDue = false;
+                return;
+            }
+            batch = new LinkedHashMap<>();
+            for (Map.Entry<String, Write> entry : buffer.entrySet()) {
+                if (batch.size() == maxBatchSize) {
+                    break;
+                }
+                batch.put(entry.getKey(), entry.getValue());
+            }
+            batch.keySet().forEach(buffer::remove);
+            writing = batch;
+            // Another full batch waiting, or a flush: keep going once this batch is written
+            flushDue = buffer.size() >= maxBatchSize || flushesInProgress > 0;
+            if (timerId >= 0 && buffer.isEmpty()) {
+                vertx.cancelTimer(timerId);
+                timerId = -1;
+            } else if (timerId < 0 && !buffer.isEmpty() && !flushDue) {
+                timerId = vertx.setTimer(maxDelayMillis, id -> timerFired());
+            }
+        }
+        List<Customer> customers = new ArrayList<>(batch.size());
+        batch.values().forEach(w -> customers.add(w.customer));
+        batchCount.incrementAndGet();
+        delegate.addCustomers(customers, ar -> {
+            synchronized (this) {
+                writing = new HashMap<>();
+            }
+            complete(batch, ar);
+            writeNextBatch();
+        });
+    }
+
+    private void complete(Map<String, Write> batch, AsyncResult<List<CustomerWriteResult>> ar) {
+        Map<String, String> errors = new HashMap<>();
+        if (ar.succeeded()) {
+            for (CustomerWriteResult result : ar.result()) {
+                if (!result.succeeded()) {
+                    errors.put(result.getCustomerId(), result.getError());
+                }
+            }
+        }
+        for (Map.Entry<String, Write> entry : batch.entrySet()) {
+            AsyncResult<String> result;
+            if (ar.failed()) {
+                result = Future.failedFuture(ar.cause());
+            } else if (errors.containsKey(entry.getKey())) {
+                result = Future.failedFuture(errors.get(entry.getKey()));
+            } else {
+                result = Future.succeededFuture();
+            }
+            if (result.failed()) {
+                failedCount.incrementAndGet();
+                if (durability == Durability.BUFFERED) {
+                    System.out.println("Buffered write of customer " + entry.getKey() + " failed: " + result.cause());
+                }
+            }
+            for (Waiter waiter : entry.getValue().waiters) {
+                waiter.complete(result);
+            }
+            for (Flush flush : entry.getValue().flushes) {
+                if (flush.written(result)) {
+                    synchronized (this) {
+                        flushesInProgress--;
+                    }
+                    if (flush.failure != null) {
+                        flush.handler.handle(Future.failedFuture(flush.failure));
+                    } else {
+                        delegate.flush(flush.handler);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Write {
+
+        private Customer customer;
+        private final List<Waiter> waiters = new ArrayList<>(1);
+        private final List<Flush> flushes = new ArrayList<>(0);
+    }
+
+    // A flush call, waiting for the writes that were buffered when it was made
+    private static class Flush {
+
+        private final Handler<AsyncResult<Void>> handler;
+        private int remaining;
+        private Throwable failure;
+
+        Flush(Handler<AsyncResult<Void>> handler) {
+            this.handler = handler;
+        }
+
+        // True once the last awaited write is done
+        synchronized boolean written(AsyncResult<String> result) {
+            if (result.failed() && failure == null) {
+                failure = result.cause();
+            }
+            return --remaining == 0;
+        }
+    }
+
+    // Completes a caller on the Vert.x context it called from
+    private static class Waiter {
+
+        private final Context context;
+        private final Handler<AsyncResult<String>> handler;
+
+        Waiter(Context context, Handler<AsyncResult<String>> handler) {
+            this.context = context;
+            this.handler = handler;
+        }
+
+        void complete(AsyncResult<String> ar) {
+            if (context == null || context == Vertx.currentContext()) {
+                handler.handle(ar);
+            } else {
+                context.runOnContext(v -> handler.handle(ar));
+            }
+        }
+    }
+}
@@ -29,5 +29,19 @@ public class AppConfig {
 		this.config = config;
 	}
 
+	/**
+	 * The settings under a prefix of the flat configuration, with the prefix removed: the section
+	 * "customer.mongo" of { "customer.mongo.maxPoolSize": 100 } is { "maxPoolSize": 100 }.
+	 */
+	public static JsonObject section(JsonObject config, String prefix) {
+		JsonObject section = new JsonObject();
+		for (String key : config.fieldNames()) {
+			if (key.startsWith(prefix + ".")) {
+				section.put(key.substring(prefix.length() + 1), config.getValue(key));
+			}
+		}
+		return section;
+	}
+
 
 }
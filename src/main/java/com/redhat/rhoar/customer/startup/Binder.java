@@ -1,29 +1,150 @@
 package com.redhat.rhoar.customer.startup;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Provider;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.redhat.rhoar.customer.service.CachingCustomerService;
+import com.redhat.rhoar.customer.service.CoalescingCustomerService;
+import com.redhat.rhoar.customer.service.CustomerChangeVerticle;
 import com.redhat.rhoar.customer.service.CustomerService;
 import com.redhat.rhoar.customer.service.CustomerServiceMongoImpl;
+import com.redhat.rhoar.customer.service.CustomerServiceVerticle;
+import com.redhat.rhoar.customer.service.EventBusCustomerService;
+import com.redhat.rhoar.customer.service.MeteredCustomerService;
+import com.redhat.rhoar.customer.service.ResilientCustomerService;
+import com.redhat.rhoar.customer.service.WriteBehindCustomerService;
 
-
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.mongo.MongoClient;
 
 public class Binder extends AbstractModule {
 
+	public static final String READ = "read";
+
+
+	@Provides @Singleton
+	public MongoSettings provideMongoSettings(Vertx vertx){
+		return new MongoSettings(AppConfig.getInstance(vertx).getConfig());
+	}
 
 	@Provides @Singleton
-    public MongoClient provideMongoClient(Vertx vertx, JsonObject config){
+    public MongoClient provideMongoClient(Vertx vertx, MongoSettings settings){
 		System.out.println("Calling provideMongoClient...");
-        return MongoClient.createShared(vertx, AppConfig.getInstance(vertx).getConfig());
+        return MongoClient.createShared(vertx, settings.getWriteConfig(), settings.getWritePoolName());
+    }
+
+	// Reads may go to secondaries, see MongoSettings
+	@Provides @Singleton @Named(READ)
+    public MongoClient provideReadMongoClient(Vertx vertx, MongoSettings settings, MongoClient writeClient){
+		if (settings.isReadFromPrimary()) {
+			return writeClient;
+		}
+        return MongoClient.createShared(vertx, settings.getReadConfig(), settings.getReadPoolName());
     }
 	
 	@Provides @Singleton
-    public CustomerService provideCustomerService(MongoClient client){
+    public PrometheusMeterRegistry provideMeterRegistry(){
+		PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+		new JvmMemoryMetrics().bindTo(registry);
+		new JvmGcMetrics().bindTo(registry);
+		new JvmThreadMetrics().bindTo(registry);
+		new ProcessorMetrics().bindTo(registry);
+        return registry;
+    }
+
+	//----
+	// The CustomerService used by the verticles. With "customer.service.eventbus.enabled" the calls
+	// go over the event bus to the CustomerServiceVerticle instances, which use the backend service;
+	// otherwise the backend service is called directly.
+	//----
+	@Provides @Singleton
+    public CustomerService provideCustomerService(Vertx vertx, @Named(CustomerServiceVerticle.BACKEND) Provider<CustomerService> backend){
 		System.out.println("Calling provideCustomerService...");
-        return new CustomerServiceMongoImpl(client);
+		JsonObject config = AppConfig.getInstance(vertx).getConfig();
+		if (config.getBoolean("customer.service.eventbus.enabled", false)) {
+			return new EventBusCustomerService(vertx,
+					config.getString("customer.service.eventbus.address", EventBusCustomerService.DEFAULT_ADDRESS),
+					config.getLong("customer.service.eventbus.timeout.ms", 30000L));
+		}
+		return backend.get();
+	}
+
+	@Provides @Singleton @Named(CustomerServiceVerticle.BACKEND)
+    public CustomerService provideBackendCustomerService(Vertx vertx, MongoClient client, @Named(READ) MongoClient readClient,
+    		MongoSettings settings, PrometheusMeterRegistry registry){
+		System.out.println("Calling provideBackendCustomerService...");
+		JsonObject config = AppConfig.getInstance(vertx).getConfig();
+		CustomerServiceMongoImpl mongo = new CustomerServiceMongoImpl(client, readClient, settings.getWriteOption());
+		// The stats follow the writes of this instance; the rebuild picks up those of the others
+		long statsRebuild = config.getLong("customer.stats.rebuild.ms", 60000L);
+		if (statsRebuild > 0) {
+			vertx.setPeriodic(statsRebuild, id -> mongo.rebuildStats(ar -> {
+				if (ar.failed()) {
+					System.out.println("Failed to rebuild the customer stats: " + ar.cause());
+				}
+			}));
+		}
+		CustomerService service = new MeteredCustomerService(mongo, registry);
+		if (config.getBoolean("customer.resilience.enabled", true)) {
+			ResilientCustomerService resilient = new ResilientCustomerService(vertx, service,
+					config.getInteger("customer.resilience.max.failures", 5),
+					config.getLong("customer.resilience.reset.timeout.ms", 10000L),
+					config.getLong("customer.resilience.timeout.ms", 5000L));
+			JsonObject timeouts = AppConfig.section(config, "customer.resilience.method.timeout.ms");
+			for (String method : timeouts.fieldNames()) {
+				resilient.setTimeout(method, timeouts.getLong(method));
+			}
+			registry.gauge("customer.service.circuit.state", resilient, ResilientCustomerService::getState);
+			FunctionCounter.builder("customer.service.timeouts", resilient, ResilientCustomerService::getTimeoutCount).register(registry);
+			FunctionCounter.builder("customer.service.circuit.rejected", resilient, ResilientCustomerService::getRejectedCount).register(registry);
+			service = resilient;
+		}
+		if (config.getBoolean("customer.writebehind.enabled", false)) {
+			WriteBehindCustomerService writeBehind = new WriteBehindCustomerService(vertx, service,
+					config.getInteger("customer.writebehind.batch.size", 500),
+					config.getLong("customer.writebehind.delay.ms", 10L),
+					config.getInteger("customer.writebehind.max.pending", 10000),
+					WriteBehindCustomerService.Durability.valueOf(config.getString("customer.writebehind.durability", "committed").toUpperCase()));
+			registry.gauge("customer.writebehind.pending", writeBehind, WriteBehindCustomerService::getPendingCount);
+			FunctionCounter.builder("customer.writebehind.batches", writeBehind, WriteBehindCustomerService::getBatchCount).register(registry);
+			FunctionCounter.builder("customer.writebehind.failed", writeBehind, WriteBehindCustomerService::getFailedCount).register(registry);
+			service = writeBehind;
+		}
+		if (config.getBoolean("customer.coalescing.enabled", true)) {
+			CoalescingCustomerService coalescing = new CoalescingCustomerService(service);
+			FunctionCounter.builder("customer.coalescing.loads", coalescing, CoalescingCustomerService::getLoadCount).register(registry);
+			FunctionCounter.builder("customer.coalescing.coalesced", coalescing, CoalescingCustomerService::getCoalescedCount).register(registry);
+			service = coalescing;
+		}
+		if (config.getBoolean("customer.cache.enabled", true)) {
+			CachingCustomerService caching = new CachingCustomerService(service,
+					config.getInteger("customer.cache.max.size", 10000),
+					config.getLong("customer.cache.ttl.ms", 60000L),
+					config.getLong("customer.cache.stale.if.error.ms", 0L));
+			FunctionCounter.builder("customer.cache.hits", caching, CachingCustomerService::getHitCount).register(registry);
+			FunctionCounter.builder("customer.cache.misses", caching, CachingCustomerService::getMissCount).register(registry);
+			FunctionCounter.builder("customer.cache.evictions", caching, CachingCustomerService::getEvictionCount).register(registry);
+			FunctionCounter.builder("customer.cache.stale.hits", caching, CachingCustomerService::getStaleHitCount).register(registry);
+			registry.gauge("customer.cache.size", caching, CachingCustomerService::size);
+			// Customers changed through other instances, published by CustomerChangeVerticle
+			if (config.getBoolean("customer.cache.invalidation.enabled", false)) {
+				vertx.eventBus().<String>consumer(
+						config.getString("customer.cache.invalidation.address", CustomerChangeVerticle.DEFAULT_ADDRESS),
+						message -> caching.invalidate(message.body()));
+			}
+			service = caching;
+		}
+        return service;
     }
 	
 	@Override
@@ -2,34 +2,105 @@ package com.redhat.rhoar.customer.startup;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.Provider;
 
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
+import io.vertx.core.Verticle;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.spi.VerticleFactory;
 
+/**
+ * Deploys verticles whose dependencies are provided by a Guice binder.
+ * <p/>
+ * The injector is built once and shared by every verticle instance deployed through this helper,
+ * so singletons such as the CustomerService and the MongoClient exist once per helper, not once
+ * per verticle instance.
+ * <p/>
+ * The deployment options of a verticle can be overridden from the configuration with
+ * "customer.deployment.&lt;VerticleSimpleName&gt;.instances", ".worker" and ".ha".
+ * <p/>
+ * Without a configuration given up front, the helper reads it from AppConfig when it is first
+ * needed, so the injector can be built while the configuration is still being retrieved.
+ */
 public class GuiceDeploymentHelper {
-	
+
+	private static final AtomicInteger factoryCount = new AtomicInteger();
+
 	private List<Future> futureList = new ArrayList<Future>();
 	private Vertx vertx;
-	private DeploymentOptions options;
-	
+	private JsonObject config;
+	private Injector injector;
+	private String prefix;
+
+	public GuiceDeploymentHelper(Vertx vertx, Class binder) {
+		this(vertx, null, binder);
+	}
+
 	public GuiceDeploymentHelper(Vertx vertx, JsonObject config, Class binder) {
 		this.vertx = vertx;
-        config.put("guice_binder", binder.getName());
-        options = new DeploymentOptions();
-        options.setConfig(config);
+		this.config = config;
+		try {
+			injector = Guice.createInjector((Module) binder.newInstance(), new AbstractModule() {
+				@Override
+				protected void configure() {
+					bind(Vertx.class).toInstance(vertx);
+					bind(JsonObject.class).toProvider((Provider<JsonObject>) GuiceDeploymentHelper.this::config);
+				}
+			});
+		} catch (InstantiationException | IllegalAccessException e) {
+			throw new IllegalArgumentException("Cannot instantiate Guice binder " + binder.getName(), e);
+		}
+		prefix = "guice-shared-" + factoryCount.incrementAndGet();
+		vertx.registerVerticleFactory(new InjectorVerticleFactory(prefix, injector));
 	}
 
-	public void deployVerticles(Class verticle) {
+	public Injector getInjector() {
+		return injector;
+	}
+
+	private JsonObject config() {
+		return config != null ? config : AppConfig.getInstance(vertx).getConfig();
+	}
+
+	public Future<String> deployVerticles(Class verticle) {
+		return deployVerticles(verticle, new DeploymentOptions());
+	}
+
+	public Future<String> deployVerticles(Class verticle, DeploymentOptions defaults) {
 	        Future<String> future = Future.future();
 	        futureList.add(future);
-	        String deploymentName = "java-guice:" + verticle.getName();
+	        String deploymentName = prefix + ":" + verticle.getName();
 
+	        DeploymentOptions options = deploymentOptions(verticle, defaults);
+	        System.out.println("Deploying " + options.getInstances() + " instance(s) of " + verticle.getSimpleName()
+	        		+ (options.isWorker() ? " as worker" : "") + (options.isHa() ? " with HA" : ""));
 	        vertx.deployVerticle(deploymentName, options, future.completer());
+	        return future;
 	    }
-	
+
+	private DeploymentOptions deploymentOptions(Class verticle, DeploymentOptions defaults) {
+		String key = "customer.deployment." + verticle.getSimpleName() + ".";
+		DeploymentOptions options = new DeploymentOptions(defaults);
+		JsonObject config = config();
+		options.setConfig(config);
+		options.setInstances(config.getInteger(key + "instances", defaults.getInstances()));
+		options.setWorker(config.getBoolean(key + "worker", defaults.isWorker()));
+		options.setHa(config.getBoolean(key + "ha", defaults.isHa()));
+		if (options.getInstances() < 1) {
+			throw new IllegalArgumentException(key + "instances must be positive: " + options.getInstances());
+		}
+		return options;
+	}
+
 	public void coordinateFutures(Future<Void> startFuture) {
 		if (futureList.size() == 0) {
 			System.out.println("No Verticle deployment to do...");
@@ -50,9 +121,34 @@ public class GuiceDeploymentHelper {
             }
         });
 	}
-	
+
 	public void coordinateFutures() {
 		coordinateFutures(null);
 	}
 
+	/**
+	 * Creates every verticle instance from the same injector.
+	 */
+	private static class InjectorVerticleFactory implements VerticleFactory {
+
+		private final String prefix;
+		private final Injector injector;
+
+		InjectorVerticleFactory(String prefix, Injector injector) {
+			this.prefix = prefix;
+			this.injector = injector;
+		}
+
+		@Override
+		public String prefix() {
+			return prefix;
+		}
+
+		@Override
+		public Verticle createVerticle(String verticleName, ClassLoader classLoader) throws Exception {
+			Class<?> verticleClass = classLoader.loadClass(VerticleFactory.removePrefix(verticleName));
+			return (Verticle) injector.getInstance(verticleClass);
+		}
+	}
+
 }
@@ -2,19 +2,35 @@ package com.redhat.rhoar.customer.startup;
 
 
 
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import com.redhat.rhoar.customer.server.Readiness;
 import com.redhat.rhoar.customer.server.RestVerticle;
+import com.redhat.rhoar.customer.service.CustomerChangeVerticle;
+import com.redhat.rhoar.customer.service.CustomerServiceVerticle;
 
+import io.micrometer.prometheus.PrometheusMeterRegistry;
 import io.vertx.config.ConfigRetriever;
 import io.vertx.config.ConfigRetrieverOptions;
 import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
 
 
 public class MainVerticle extends AbstractVerticle {
 
-	
+	static final String MONGO_WARMUP = "mongo.warmup";
+
+	private final StartupPhases phases = new StartupPhases();
+
     @Override
     public void start(Future<Void> startFuture) throws Exception {
     	
@@ -39,32 +55,115 @@ public class MainVerticle extends AbstractVerticle {
                 .put("key", "app-config.yaml"));
 
         ConfigRetrieverOptions options = new ConfigRetrieverOptions();
-        if (System.getenv("KUBERNETES_NAMESPACE") != null) {
-            //we're running in Kubernetes
-            options.addStore(configStore);
-
-	        ConfigRetriever.create(vertx, options)
-	            .getConfig(ar -> {
-	                if (ar.succeeded()) {
-	                	System.out.println("Successfully retrieved the configuration.");
-	                	AppConfig.getInstance(vertx).setConfig(ar.result());
-	                	deploy(ar.result(), startFuture);
-	                } else {
-	                    System.out.println("Failed to retrieve the configuration: " + ar.cause());
-	                }
-	            });
-        }
-        else {
+        if (System.getenv("KUBERNETES_NAMESPACE") == null) {
         	System.out.println("Failed: Not running on Openshift.");
         	startFuture.fail("Not running on Openshift.");
+        	return;
         }
+        //we're running in Kubernetes
+        options.addStore(configStore);
+
+        //----
+        // The startup phases overlap where they can:
+        // * The configuration is retrieved while the Guice injector is built on a worker thread.
+        //   The injector only reads the configuration once a binding needs it.
+        // * Once both are done, the verticles are deployed while the Mongo pools warm up.
+        //   The HTTP server listens as soon as its verticles are deployed, but /health/readiness
+        //   only reports OK once the pools are warm.
+        // The duration of every phase is logged and published as "customer.startup.phase".
+        //----
+        Readiness readiness = Readiness.shared(vertx);
+        readiness.pending(MONGO_WARMUP);
+
+        Future<JsonObject> config = phases.time("config", retrieveConfig(options));
+        Future<GuiceDeploymentHelper> deployer = phases.time("injector", createDeployer());
+        CompositeFuture.all(config, deployer).setHandler(ar -> {
+        	if (ar.failed()) {
+        		System.out.println("Failed to start: " + ar.cause());
+        		startFuture.fail(ar.cause());
+        		return;
+        	}
+        	System.out.println("Successfully retrieved the configuration.");
+        	Injector injector = deployer.result().getInjector();
+
+        	phases.time("deploy", deploy(config.result(), deployer.result())).setHandler(deployed -> {
+        		if (deployed.failed()) {
+        			startFuture.fail(deployed.cause());
+        			return;
+        		}
+        		startFuture.complete();
+        		reportIfStarted(injector);
+        	});
+
+        	phases.time(MONGO_WARMUP, warmup(config.result(), injector)).setHandler(warm -> {
+        		readiness.done(MONGO_WARMUP);
+        		reportIfStarted(injector);
+        	});
+        });
+    }
+
+    private Future<JsonObject> retrieveConfig(ConfigRetrieverOptions options) {
+    	Future<JsonObject> config = Future.future();
+    	ConfigRetriever.create(vertx, options).getConfig(ar -> {
+    		if (ar.succeeded()) {
+    			AppConfig.getInstance(vertx).setConfig(ar.result());
+    			config.complete(ar.result());
+    		} else {
+    			System.out.println("Failed to retrieve the configuration: " + ar.cause());
+    			config.fail(ar.cause());
+    		}
+    	});
+    	return config;
+    }
+
+    private Future<GuiceDeploymentHelper> createDeployer() {
+    	Future<GuiceDeploymentHelper> deployer = Future.future();
+    	vertx.executeBlocking(f -> f.complete(new GuiceDeploymentHelper(vertx, Binder.class)), false, deployer.completer());
+    	return deployer;
+    }
+
+    private Future<Void> deploy(JsonObject config, GuiceDeploymentHelper deployer) {
+        // With the service on the event bus, its verticles must be listening before the
+        // RestVerticles initialize the service through it
+        Future<String> service = config.getBoolean("customer.service.eventbus.enabled", false)
+        		? deployer.deployVerticles(CustomerServiceVerticle.class)
+        		: Future.succeededFuture();
+        Future<Void> deployed = Future.future();
+        service.setHandler(ar -> {
+        	if (ar.failed()) {
+        		deployed.fail(ar.cause());
+        		return;
+        	}
+        	// One RestVerticle per core by default, so every event loop serves HTTP requests
+        	deployer.deployVerticles(RestVerticle.class,
+        			new DeploymentOptions().setInstances(Runtime.getRuntime().availableProcessors()));
+        	if (config.getBoolean("customer.cache.enabled", true) && config.getBoolean("customer.cache.invalidation.enabled", false)) {
+        		deployer.deployVerticles(CustomerChangeVerticle.class);
+        	}
+        	deployer.coordinateFutures(deployed);
+        });
+        return deployed;
+    }
+
+    // Opens "customer.startup.warmup.connections" connections on the write pool and on the read pool
+    private Future<Void> warmup(JsonObject config, Injector injector) {
+    	MongoWarmup warmup = new MongoWarmup(vertx,
+    			config.getInteger("customer.startup.warmup.connections", 4),
+    			config.getLong("customer.startup.warmup.retry.ms", 5000L));
+    	MongoClient writeClient = injector.getInstance(MongoClient.class);
+    	MongoClient readClient = injector.getInstance(Key.get(MongoClient.class, Names.named(Binder.READ)));
+    	return warmup.warmup(readClient == writeClient
+    			? Collections.singletonList(writeClient)
+    			: Arrays.asList(writeClient, readClient));
     }
-    
-    private void deploy(JsonObject config, Future<Void> startFuture) {
 
-        GuiceDeploymentHelper deployer = new GuiceDeploymentHelper(vertx, config, Binder.class);
-        deployer.deployVerticles(RestVerticle.class);
-        deployer.coordinateFutures(startFuture);
+    private void reportIfStarted(Injector injector) {
+    	if (!phases.isDone("deploy", MONGO_WARMUP) || phases.isDone("ready")) {
+    		return;
+    	}
+    	phases.mark("ready");
+    	phases.bindTo(injector.getInstance(PrometheusMeterRegistry.class));
+    	System.out.println("Startup phases: " + phases);
     }
 
 
@@ -0,0 +1,185 @@
+package com.redhat.rhoar.customer.startup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mongodb.ReadPreference;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.WriteOption;
+
+/**
+ * Mongo client settings of the application, validated.
+ * <p/>
+ * The connection ("connection_string", "db_name", "username", "password") is configured at the top
+ * level. The pool, timeouts, read preference and write concern are the "customer.mongo." keys, e.g.
+ *
+ * <pre>
+ *  customer.mongo.poolName: customer
+ *  customer.mongo.maxPoolSize: 100
+ *  customer.mongo.waitQueueMultiple: 5
+ *  customer.mongo.waitQueueTimeoutMS: 2000
+ *  customer.mongo.connectTimeoutMS: 5000
+ *  customer.mongo.socketTimeoutMS: 10000
+ *  customer.mongo.serverSelectionTimeoutMS: 5000
+ *  customer.mongo.readPreference: secondaryPreferred
+ *  customer.mongo.writeConcern: ACKNOWLEDGED
+ * </pre>
+ *
+ * Reads and writes use separate shared pools, "&lt;poolName&gt;-read" and "&lt;poolName&gt;-write",
+ * so a burst of reads cannot exhaust the connections needed by writes. Writes always go to the
+ * primary. With a "primary" read preference the reads share the write pool. With the default
+ * "secondaryPreferred" a read right after a write may not see it yet, e.g. a GET after a POST or
+ * PATCH of the same customer; configure "primary" where that matters.
+ * <p/>
+ * Given a "connection_string", the Vert.x Mongo client takes the pool, socket and server selection
+ * settings from the URI only and ignores them in its JSON config. These settings are therefore
+ * added to the query of the connection string, except those it sets itself. The read preference
+ * of each pool replaces the one of the connection string.
+ */
+public class MongoSettings {
+
+	public static final String CONFIG_KEY = "customer.mongo";
+
+	private static final String[] CONNECTION_KEYS = { "connection_string", "db_name", "username", "password", "authSource" };
+	private static final String[] POSITIVE_KEYS = { "maxPoolSize", "waitQueueMultiple" };
+	private static final String[] NON_NEGATIVE_KEYS = { "minPoolSize", "waitQueueTimeoutMS", "connectTimeoutMS",
+			"socketTimeoutMS", "serverSelectionTimeoutMS", "maxIdleTimeMS", "maxLifeTimeMS" };
+	// The settings the client only reads from the connection string when there is one
+	private static final String[] URI_KEYS = { "maxPoolSize", "minPoolSize", "waitQueueMultiple", "waitQueueTimeoutMS",
+			"maxIdleTimeMS", "maxLifeTimeMS", "connectTimeoutMS", "socketTimeoutMS", "serverSelectionTimeoutMS" };
+
+	private final String poolName;
+	private final JsonObject clientConfig;
+	private final ReadPreference readPreference;
+	private final WriteOption writeOption;
+
+	public MongoSettings(JsonObject config) {
+		JsonObject settings = AppConfig.section(config, CONFIG_KEY);
+		poolName = settings.getString("poolName", "customer");
+
+		clientConfig = new JsonObject()
+				.put("maxPoolSize", 100)
+				.put("waitQueueMultiple", 5)
+				.put("waitQueueTimeoutMS", 2000)
+				.put("connectTimeoutMS", 5000)
+				.put("socketTimeoutMS", 10000)
+				.put("serverSelectionTimeoutMS", 5000);
+		for (String key : CONNECTION_KEYS) {
+			if (config.containsKey(key)) {
+				clientConfig.put(key, config.getValue(key));
+			}
+		}
+		for (String key : settings.fieldNames()) {
+			if (!key.equals("poolName") && !key.equals("readPreference") && !key.equals("writeConcern")) {
+				clientConfig.put(key, settings.getValue(key));
+			}
+		}
+
+		for (String key : POSITIVE_KEYS) {
+			if (number(key) < 1) {
+				throw new IllegalArgumentException(CONFIG_KEY + "." + key + " must be positive: " + number(key));
+			}
+		}
+		for (String key : NON_NEGATIVE_KEYS) {
+			if (number(key) < 0) {
+				throw new IllegalArgumentException(CONFIG_KEY + "." + key + " must not be negative: " + number(key));
+			}
+		}
+		if (number("minPoolSize") > number("maxPoolSize")) {
+			throw new IllegalArgumentException(CONFIG_KEY + ".minPoolSize must not exceed maxPoolSize");
+		}
+
+		try {
+			readPreference = ReadPreference.valueOf(settings.getString("readPreference", "secondaryPreferred"));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(CONFIG_KEY + ".readPreference is invalid: " + settings.getString("readPreference"), e);
+		}
+		String writeConcern = settings.getString("writeConcern");
+		try {
+			writeOption = writeConcern == null ? null : WriteOption.valueOf(writeConcern.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(CONFIG_KEY + ".writeConcern is invalid: " + writeConcern, e);
+		}
+	}
+
+	private long number(String key) {
+		Object value = clientConfig.getValue(key);
+		if (value == null) {
+			return 0;
+		}
+		if (!(value instanceof Number)) {
+			throw new IllegalArgumentException(CONFIG_KEY + "." + key + " must be a number: " + value);
+		}
+		return ((Number) value).longValue();
+	}
+
+	public String getReadPoolName() {
+		return isReadFromPrimary() ? getWritePoolName() : poolName + "-read";
+	}
+
+	public String getWritePoolName() {
+		return poolName + "-write";
+	}
+
+	public boolean isReadFromPrimary() {
+		return readPreference.equals(ReadPreference.primary());
+	}
+
+	public JsonObject getReadConfig() {
+		return clientConfig(readPreference);
+	}
+
+	// The write concern is also the client default, for the writes that take no WriteOption
+	public JsonObject getWriteConfig() {
+		JsonObject config = clientConfig(ReadPreference.primary());
+		if (writeOption != null) {
+			config.put("writeConcern", writeOption.name());
+		}
+		return config;
+	}
+
+	private JsonObject clientConfig(ReadPreference readPreference) {
+		JsonObject config = clientConfig.copy().put("readPreference", readPreference.getName());
+		String connectionString = config.getString("connection_string");
+		if (connectionString != null) {
+			config.put("connection_string", withOptions(connectionString, config));
+		}
+		return config;
+	}
+
+	// The connection string with the URI_KEYS settings it does not set and the read preference of the config
+	static String withOptions(String connectionString, JsonObject config) {
+		int query = connectionString.indexOf('?');
+		String base = query < 0 ? connectionString : connectionString.substring(0, query);
+		List<String> options = new ArrayList<>();
+		List<String> given = new ArrayList<>();
+		if (query >= 0) {
+			for (String option : connectionString.substring(query + 1).split("[&;]")) {
+				String name = option.split("=", 2)[0].toLowerCase();
+				if (!option.isEmpty() && !name.equals("readpreference")) {
+					options.add(option);
+					given.add(name);
+				}
+			}
+		}
+		for (String key : URI_KEYS) {
+			if (config.getValue(key) != null && !given.contains(key.toLowerCase())) {
+				options.add(key + "=" + config.getValue(key));
+			}
+		}
+		options.add("readPreference=" + config.getString("readPreference"));
+		// Options follow the path, even an empty one: mongodb://host:27017/?maxPoolSize=100
+		if (base.indexOf('/', "mongodb://".length()) < 0) {
+			base += "/";
+		}
+		return base + "?" + String.join("&", options);
+	}
+
+	/**
+	 * The write concern of customer writes, or null for the default of the client.
+	 */
+	public WriteOption getWriteOption() {
+		return writeOption;
+	}
+}
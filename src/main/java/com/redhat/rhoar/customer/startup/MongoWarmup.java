@@ -0,0 +1,63 @@
+package com.redhat.rhoar.customer.startup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+
+/**
+ * Opens connections of the Mongo pools before the first requests need them.
+ * <p/>
+ * The driver connects lazily, so otherwise the first requests after a rollout pay for server
+ * selection and the connection handshakes. Warming up sends {@code connections} pings at once on
+ * every pool; each one holds a connection, so the pool opens that many. A failed warmup is retried
+ * every {@code retryMillis} until Mongo answers.
+ */
+public class MongoWarmup {
+
+	private final Vertx vertx;
+	private final int connections;
+	private final long retryMillis;
+
+	public MongoWarmup(Vertx vertx, int connections, long retryMillis) {
+		if (connections < 0 || retryMillis < 1) {
+			throw new IllegalArgumentException("Invalid Mongo warmup settings: " + connections + " connections, retry after "
+					+ retryMillis + " ms");
+		}
+		this.vertx = vertx;
+		this.connections = connections;
+		this.retryMillis = retryMillis;
+	}
+
+	/**
+	 * Completes once every client has answered all its pings.
+	 */
+	public Future<Void> warmup(List<MongoClient> clients) {
+		Future<Void> warm = Future.future();
+		attempt(clients, warm);
+		return warm;
+	}
+
+	private void attempt(List<MongoClient> clients, Future<Void> warm) {
+		List<Future> pings = new ArrayList<>();
+		for (MongoClient client : clients) {
+			for (int i = 0; i < connections; i++) {
+				Future<JsonObject> ping = Future.future();
+				client.runCommand("ping", new JsonObject().put("ping", 1), ping.completer());
+				pings.add(ping);
+			}
+		}
+		CompositeFuture.all(pings).setHandler(ar -> {
+			if (ar.succeeded()) {
+				warm.complete();
+			} else {
+				System.out.println("Mongo warmup failed, retrying in " + retryMillis + " ms: " + ar.cause());
+				vertx.setTimer(retryMillis, t -> attempt(clients, warm));
+			}
+		});
+	}
+}
@@ -1,15 +1,17 @@
 package com.redhat.rhoar.customer.startup;
 
 import io.vertx.core.Vertx;
-import io.vertx.core.json.JsonObject;
 
 public class StartUp {
 
 	public static void main(String[] args) {
         Vertx vertx = Vertx.vertx();
-        GuiceDeploymentHelper deployer = new GuiceDeploymentHelper(vertx, new JsonObject(), Binder.class);
-        deployer.deployVerticles(MainVerticle.class);
-        deployer.coordinateFutures();
+        // MainVerticle builds the injector itself, in parallel with retrieving the configuration
+        vertx.deployVerticle(new MainVerticle(), ar -> {
+            if (ar.failed()) {
+                System.out.println("WARNINIG: MainVerticle NOT deployed successfully: " + ar.cause());
+            }
+        });
 	}
 
 }
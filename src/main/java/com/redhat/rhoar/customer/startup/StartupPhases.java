@@ -0,0 +1,85 @@
+package com.redhat.rhoar.customer.startup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.vertx.core.Future;
+
+/**
+ * Durations of the startup phases.
+ * <p/>
+ * Phases may overlap. Each one is timed from when it is started to when its future completes, and
+ * a phase can also be marked at a point in time, measured from the creation of this object.
+ * Bound to a registry, every phase is a "customer.startup.phase" gauge tagged with its name.
+ */
+public class StartupPhases implements MeterBinder {
+
+	private final long start = System.nanoTime();
+	private final Map<String, Long> durations = new ConcurrentHashMap<>();
+	private final Map<String, Long> order = new ConcurrentHashMap<>();
+
+	/**
+	 * Times the phase until {@code future} completes, and returns a future completed afterwards.
+	 */
+	public <T> Future<T> time(String phase, Future<T> future) {
+		long phaseStart = System.nanoTime();
+		Future<T> timed = Future.future();
+		future.setHandler(ar -> {
+			record(phase, System.nanoTime() - phaseStart);
+			timed.handle(ar);
+		});
+		return timed;
+	}
+
+	/**
+	 * Records the time elapsed since startup began as a phase.
+	 */
+	public void mark(String phase) {
+		record(phase, System.nanoTime() - start);
+	}
+
+	public boolean isDone(String... phases) {
+		for (String phase : phases) {
+			if (!durations.containsKey(phase)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Duration of the phase in milliseconds, or -1 while it is not done.
+	 */
+	public long getMillis(String phase) {
+		Long duration = durations.get(phase);
+		return duration == null ? -1 : TimeUnit.NANOSECONDS.toMillis(duration);
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		for (String phase : durations.keySet()) {
+			TimeGauge.builder("customer.startup.phase", this, TimeUnit.MILLISECONDS, p -> p.getMillis(phase))
+				.tag("phase", phase)
+				.register(registry);
+		}
+	}
+
+	// Phases in the order they completed, e.g. "config 120 ms, injector 340 ms"
+	@Override
+	public String toString() {
+		return order.entrySet().stream()
+				.sorted(Map.Entry.comparingByValue())
+				.map(e -> e.getKey() + " " + getMillis(e.getKey()) + " ms")
+				.collect(Collectors.joining(", "));
+	}
+
+	private void record(String phase, long nanos) {
+		durations.put(phase, nanos);
+		order.put(phase, System.nanoTime());
+	}
+}
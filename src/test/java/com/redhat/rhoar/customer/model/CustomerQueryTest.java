@@ -0,0 +1,68 @@
+package com.redhat.rhoar.customer.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class CustomerQueryTest {
+
+    @Test
+    public void testJsonRoundTrip() {
+        CustomerQuery query = new CustomerQuery();
+        query.setVipStatus(Arrays.asList("Gold", "Silver"));
+        query.setMinBalance(-10);
+        query.setMaxBalance(100);
+        query.setFields(Arrays.asList("customerId"));
+        query.setSort("balance");
+        query.setDescending(true);
+        query.setLimit(50);
+        query.setAfterCustomerId("A11");
+        query.setAfterBalance(20);
+
+        assertThat(new CustomerQuery(query.toJson()), equalTo(query));
+        assertThat(new CustomerQuery(new CustomerQuery().toJson()).isPlain(), is(true));
+    }
+
+    @Test
+    public void testMatchesFilters() {
+        CustomerQuery query = new CustomerQuery();
+        query.setVipStatus(Arrays.asList("Gold"));
+        query.setMinBalance(10);
+        query.setMaxBalance(20);
+
+        assertThat(query.matches(new Customer("A11", "Gold", 10)), is(true));
+        assertThat(query.matches(new Customer("A12", "Gold", 21)), is(false));
+        assertThat(query.matches(new Customer("A13", "Silver", 15)), is(false));
+    }
+
+    @Test
+    public void testPagesFollowTheSortOrder() {
+        List<Customer> customers = Arrays.asList(
+                new Customer("A11", "Gold", 30),
+                new Customer("A12", "Gold", 10),
+                new Customer("A13", "Gold", 30),
+                new Customer("A14", "Gold", 20));
+        CustomerQuery query = new CustomerQuery();
+        query.setSort("balance");
+        query.setDescending(true);
+
+        List<String> order = customers.stream().sorted(query.comparator()).map(Customer::getCustomerId).collect(Collectors.toList());
+        assertThat(order, equalTo(Arrays.asList("A13", "A11", "A14", "A12")));
+
+        CustomerQuery next = query.after(new Customer("A11", "Gold", 30));
+        List<String> rest = customers.stream().filter(next::matches).sorted(next.comparator()).map(Customer::getCustomerId).collect(Collectors.toList());
+        assertThat(rest, equalTo(Arrays.asList("A14", "A12")));
+        assertThat(next.isPlain(), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownField() {
+        new CustomerQuery().setFields(Arrays.asList("customerId", "password"));
+    }
+}
@@ -0,0 +1,54 @@
+package com.redhat.rhoar.customer.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class CustomerStatsTest {
+
+    @Test
+    public void testReplacingACustomerMovesItBetweenStatuses() {
+        CustomerStats stats = new CustomerStats();
+        stats.add(new Customer("A11", "Gold", 100));
+        stats.add(new Customer("A12", "Silver", 20));
+
+        // A11 is written again as Silver
+        stats.remove("Gold", 100);
+        stats.add(new Customer("A11", "Silver", 40));
+
+        assertThat(stats.getCount(), equalTo(2L));
+        assertThat(stats.getTotalBalance(), equalTo(60L));
+        assertThat(stats.getVipStatuses(), equalTo(new TreeSet<>(Arrays.asList("Silver"))));
+        assertThat(stats.getCount("Silver"), equalTo(2L));
+        assertThat(stats.getTotalBalance("Silver"), equalTo(60L));
+    }
+
+    @Test
+    public void testJsonRoundTrip() {
+        CustomerStats stats = new CustomerStats();
+        stats.add(new Customer("A11", "Gold", 100));
+        stats.add(new Customer("A12", null, -20));
+
+        assertThat(stats.toJson().getJsonObject("vipStatus").getJsonObject(CustomerStats.NO_VIP_STATUS).getLong("totalBalance"), equalTo(-20L));
+        assertThat(stats.toJson().getDouble("averageBalance"), equalTo(40.0));
+        assertThat(new CustomerStats(stats.toJson()), equalTo(stats));
+    }
+
+    @Test
+    public void testResetReplacesEverything() {
+        CustomerStats stats = new CustomerStats();
+        stats.add(new Customer("A11", "Gold", 100));
+        CustomerStats rebuilt = new CustomerStats();
+        rebuilt.add("Silver", 3, 30);
+
+        stats.reset(rebuilt);
+        rebuilt.add("Silver", 1, 10);
+
+        assertThat(stats.getCount(), equalTo(3L));
+        assertThat(stats.getCount("Gold"), equalTo(0L));
+    }
+}
@@ -0,0 +1,135 @@
+package com.redhat.rhoar.customer.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.Test;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+public class CustomerTest {
+
+    @Test
+    public void testWriteJsonMatchesToJson() {
+        Customer customer = new Customer(new JsonObject()
+                .put("customerId", "A11")
+                .put("vipStatus", "Diamond")
+                .put("balance", 1000));
+
+        assertThat(customer.writeJson(Buffer.buffer()).toString(), equalTo(customer.toJson().encode()));
+    }
+
+    @Test
+    public void testWriteJsonEscapesStrings() {
+        Customer customer = new Customer();
+        customer.setCustomerId("A\"1\\1");
+        customer.setVipStatus("Göld\n\u0001 €");
+
+        String json = customer.writeJson(Buffer.buffer()).toString();
+
+        assertThat(json, equalTo(customer.toJson().encode()));
+        assertThat(new Customer(new JsonObject(json)).getVipStatus(), equalTo(customer.getVipStatus()));
+    }
+
+    @Test
+    public void testEtagFollowsContent() {
+        Customer customer = new Customer(new JsonObject()
+                .put("customerId", "A11")
+                .put("vipStatus", "Diamond")
+                .put("balance", 1000));
+        String etag = customer.getEtag();
+
+        assertThat(etag, equalTo(new Customer(customer.toJson()).getEtag()));
+        customer.setBalance(1001);
+        assertThat(customer.getEtag(), not(equalTo(etag)));
+    }
+
+    @Test
+    public void testStoredEtagIsUsed() {
+        Customer customer = new Customer(new JsonObject().put("customerId", "A11"));
+        customer.setEtag("0123456789abcdef");
+
+        assertThat(customer.getEtag(), equalTo("0123456789abcdef"));
+    }
+
+    @Test
+    public void testFromJsonMatchesJsonObjectConstructor() {
+        JsonObject json = new JsonObject()
+                .put("customerId", "A11")
+                .put("vipStatus", "Diamond")
+                .put("balance", 1000)
+                .put("ignored", new JsonObject().put("nested", new JsonArray().add(1)));
+
+        Customer customer = Customer.fromJson(Buffer.buffer(json.encode()));
+
+        assertThat(customer.toJson(), equalTo(new Customer(json).toJson()));
+        assertThat(Customer.fromJson(Buffer.buffer("{\"customerId\":\"A11\"}")).getBalance(), equalTo(0));
+    }
+
+    @Test
+    public void testVipStatusIsShared() {
+        Customer first = Customer.fromJson(Buffer.buffer("{\"vipStatus\":\"Gold\"}"));
+        Customer second = new Customer(new JsonObject().put("vipStatus", new String("Gold")));
+
+        assertThat(first.getVipStatus() == second.getVipStatus(), equalTo(true));
+    }
+
+    @Test
+    public void testUnknownVipStatusIsNotShared() {
+        String vipStatus = new String("Tin");
+        Customer customer = new Customer("A11", vipStatus, 0);
+        Customer other = new Customer("A12", new String("Tin"), 0);
+
+        assertThat(customer.getVipStatus() == vipStatus, equalTo(true));
+        assertThat(customer.getVipStatus() == other.getVipStatus(), equalTo(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFromJsonRejectsFractionalBalance() {
+        Customer.fromJson(Buffer.buffer("{\"customerId\":\"A11\",\"balance\":12.5}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFromJsonRejectsBalanceOutOfRange() {
+        Customer.fromJson(Buffer.buffer("{\"customerId\":\"A11\",\"balance\":2147483648}"));
+    }
+
+    @Test
+    public void testJsonObjectAcceptsWholeLongAndDouble() {
+        assertThat(new Customer(new JsonObject().put("balance", 1200L)).getBalance(), equalTo(1200));
+        assertThat(new Customer(new JsonObject().put("balance", 1200.0)).getBalance(), equalTo(1200));
+        assertThat(new Customer(new JsonObject().putNull("balance")).getBalance(), equalTo(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testJsonObjectRejectsFractionalBalance() {
+        new Customer(new JsonObject().put("customerId", "A11").put("balance", 12.5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testJsonObjectRejectsBalanceOutOfRange() {
+        new Customer(new JsonObject().put("customerId", "A11").put("balance", 2147483648L));
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testFromJsonRejectsWrongType() {
+        Customer.fromJson(Buffer.buffer("{\"customerId\":12}"));
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testFromJsonRejectsArray() {
+        Customer.fromJson(Buffer.buffer("[{\"customerId\":\"A11\"}]"));
+    }
+
+    @Test
+    public void testWriteJsonNegativeBalance() {
+        Customer customer = new Customer("A11", "Gold", Integer.MIN_VALUE);
+        assertThat(customer.writeJson(Buffer.buffer()).toString(), equalTo(customer.toJson().encode()));
+        customer.setBalance(-1203);
+        assertThat(customer.writeJson(Buffer.buffer()).toString(), equalTo(customer.toJson().encode()));
+    }
+}
@@ -0,0 +1,65 @@
+package com.redhat.rhoar.customer.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.Test;
+
+import io.vertx.core.json.JsonObject;
+
+public class CustomerUpdateTest {
+
+    @Test
+    public void testPatchKeepsFieldsLeftOut() {
+        Customer current = new Customer("A11", "Gold", 100);
+        current.setVersion(4);
+
+        CustomerUpdate update = CustomerUpdate.patch("A11", new JsonObject().put("balanceIncrement", -25));
+        Customer updated = update.applyTo(current);
+
+        assertThat(update.isUpsert(), equalTo(false));
+        assertThat(updated.getVipStatus(), equalTo("Gold"));
+        assertThat(updated.getBalance(), equalTo(75));
+        assertThat(updated.getVersion(), equalTo(5L));
+        assertThat(updated.getEtag(), equalTo(updated.contentHash()));
+    }
+
+    @Test
+    public void testReplaceCreatesMissingCustomer() {
+        CustomerUpdate update = CustomerUpdate.replace(new Customer("A11", "Silver", 40));
+        Customer created = update.applyTo(null);
+
+        assertThat(update.isUpsert(), equalTo(true));
+        assertThat(update.setExpectedVersion(0L).isUpsert(), equalTo(false));
+        assertThat(created.toJson(), equalTo(new Customer("A11", "Silver", 40).toJson()));
+        assertThat(created.getVersion(), equalTo(1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPatchCannotSetAndIncrementBalance() {
+        CustomerUpdate.patch("A11", new JsonObject().put("balance", 10).put("balanceIncrement", 5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPatchCannotChangeCustomerId() {
+        CustomerUpdate.patch("A11", new JsonObject().put("customerId", "A12"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPatchRejectsUnknownFields() {
+        CustomerUpdate.patch("A11", new JsonObject().put("balanse", 10));
+    }
+
+    @Test
+    public void testJsonRoundTrip() {
+        CustomerUpdate update = CustomerUpdate.patch("A11", new JsonObject().put("vipStatus", (String) null).put("balance", 10))
+                .setExpectedVersion(3L)
+                .setIdempotencyKey("key-1");
+
+        CustomerUpdate decoded = new CustomerUpdate(new JsonObject(update.toJson().encode()));
+
+        assertThat(decoded.toJson(), equalTo(update.toJson()));
+        assertThat(decoded.applyTo(new Customer("A11", "Gold", 100)).getVipStatus(), nullValue());
+    }
+}
@@ -2,23 +2,36 @@ package com.redhat.rhoar.customer.server;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.allOf;
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.ServerSocket;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.After;
 import org.junit.Before;
@@ -29,14 +42,26 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.model.CustomerStats;
+import com.redhat.rhoar.customer.model.CustomerUpdate;
+import com.redhat.rhoar.customer.model.CustomerWriteResult;
+import com.redhat.rhoar.customer.server.Readiness;
 import com.redhat.rhoar.customer.server.RestVerticle;
 import com.redhat.rhoar.customer.service.CustomerService;
+import com.redhat.rhoar.customer.service.CustomerServiceNotReadyException;
+import com.redhat.rhoar.customer.service.CustomerServiceUnavailableException;
+import com.redhat.rhoar.customer.service.CustomerVersionConflictException;
 
 import io.vertx.core.AsyncResult;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
@@ -71,10 +96,28 @@ public class RestVerticleTest {
       port = socket.getLocalPort();
       socket.close();
 
-      DeploymentOptions options = new DeploymentOptions().setConfig(new JsonObject().put("customer.http.port", port));
+      DeploymentOptions options = new DeploymentOptions().setConfig(new JsonObject()
+              .put("customer.http.port", port)
+              .put("customer.stream.batch.size", 2)
+              .put("customer.page.max.limit", 10)
+              .put("customer.bulk.batch.size", 2)
+              .put("customer.export.batch.size", 2)
+              .put("customer.admission.retryAfterSeconds", 3));
 
       //Mock the CustomerService
       customerService = mock(CustomerService.class);
+      doAnswer(new Answer<Void>() {
+          public Void answer(InvocationOnMock invocation){
+              Handler<AsyncResult<Void>> handler = invocation.getArgument(0);
+              handler.handle(Future.succeededFuture());
+              return null;
+           }
+       }).when(customerService).initialize(any());
+      doAnswer(invocation -> {
+          Handler<AsyncResult<Void>> handler = invocation.getArgument(0);
+          handler.handle(Future.succeededFuture());
+          return null;
+      }).when(customerService).flush(any());
 
       // We pass the options as the second parameter of the deployVerticle method.
       vertx.deployVerticle(new RestVerticle(customerService), options, context.asyncAssertSuccess());
@@ -119,11 +162,13 @@ public class RestVerticleTest {
         customers.add(new Customer(json2));
         doAnswer(new Answer<Void>() {
             public Void answer(InvocationOnMock invocation){
-                Handler<AsyncResult<List<Customer>>> handler = invocation.getArgument(0);
-                handler.handle(Future.succeededFuture(customers));
+                // The first batch is full, so the verticle asks for the batch after the last customerId
+                String after = invocation.getArgument(1);
+                Handler<AsyncResult<List<Customer>>> handler = invocation.getArgument(2);
+                handler.handle(Future.succeededFuture(after == null ? customers : new ArrayList<>()));
                 return null;
              }
-         }).when(customerService).getCustomers(any());
+         }).when(customerService).getCustomers(anyInt(), any(), any());
 
         Async async = context.async();
         vertx.createHttpClient().get(port, "localhost", "/customers", response -> {
@@ -137,7 +182,39 @@ public class RestVerticleTest {
                             .collect(Collectors.toSet());
                     assertThat(itemIds.size(), equalTo(2));
                     assertThat(itemIds, allOf(hasItem(customerId1),hasItem(customerId2)));
-                    verify(customerService).getCustomers(any());
+                    verify(customerService).getCustomers(eq(2), isNull(), any());
+                    verify(customerService).getCustomers(eq(2), eq(customerId2), any());
+                    async.complete();
+                })
+                .exceptionHandler(context.exceptionHandler());
+            })
+            .exceptionHandler(context.exceptionHandler())
+            .end();
+    }
+
+
+    @Test
+    public void testGetCustomersPage(TestContext context) throws Exception {
+        List<Customer> customers = new ArrayList<>();
+        customers.add(new Customer(new JsonObject().put("customerId", "A11").put("vipStatus", "Diamond").put("balance", 1000)));
+        customers.add(new Customer(new JsonObject().put("customerId", "A22").put("vipStatus", "Bronze").put("balance", 1000)));
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation){
+                Handler<AsyncResult<List<Customer>>> handler = invocation.getArgument(2);
+                handler.handle(Future.succeededFuture(customers));
+                return null;
+             }
+         }).when(customerService).getCustomers(eq(2), eq("A00"), any());
+
+        Async async = context.async();
+        String cursor = RestVerticle.encodeCursor("A00");
+        vertx.createHttpClient().get(port, "localhost", "/customers?limit=2&cursor=" + cursor, response -> {
+                assertThat(response.statusCode(), equalTo(200));
+                assertThat(response.headers().get("X-Next-Cursor"), equalTo(RestVerticle.encodeCursor("A22")));
+                response.bodyHandler(body -> {
+                    JsonArray json = body.toJsonArray();
+                    assertThat(json.size(), equalTo(2));
+                    assertThat(json.getJsonObject(0).getString("customerId"), equalTo("A11"));
                     async.complete();
                 })
                 .exceptionHandler(context.exceptionHandler());
@@ -146,6 +223,64 @@ public class RestVerticleTest {
             .end();
     }
 
+    @Test
+    public void testGetCustomersFiltered(TestContext context) throws Exception {
+        List<Customer> customers = new ArrayList<>();
+        customers.add(new Customer("A12", "Gold", 20));
+        customers.add(new Customer("A11", "Silver", 20));
+        doAnswer(invocation -> {
+            Handler<AsyncResult<List<Customer>>> handler = invocation.getArgument(1);
+            handler.handle(Future.succeededFuture(customers));
+            return null;
+        }).when(customerService).findCustomers(any(), any());
+
+        Async async = context.async();
+        String uri = "/customers?vipStatus=Gold,Silver&minBalance=10&fields=customerId,balance&sort=-balance&limit=2";
+        vertx.createHttpClient().get(port, "localhost", uri, response -> {
+                assertThat(response.statusCode(), equalTo(200));
+                assertThat(response.headers().get("X-Next-Cursor"), equalTo(RestVerticle.encodeCursor("20:A11")));
+                response.bodyHandler(body -> {
+                    JsonArray json = body.toJsonArray();
+                    assertThat(json.getJsonObject(0), equalTo(new JsonObject().put("customerId", "A12").put("balance", 20)));
+                    ArgumentCaptor<CustomerQuery> argument = ArgumentCaptor.forClass(CustomerQuery.class);
+                    verify(customerService).findCustomers(argument.capture(), any());
+                    CustomerQuery query = argument.getValue();
+                    assertThat(query.getVipStatus(), equalTo(Arrays.asList("Gold", "Silver")));
+                    assertThat(query.getMinBalance(), equalTo(10));
+                    assertThat(query.getMaxBalance(), equalTo(null));
+                    assertThat(query.getFields(), equalTo(Arrays.asList("customerId", "balance")));
+                    assertThat(query.getSort(), equalTo("balance"));
+                    assertThat(query.isDescending(), is(true));
+                    assertThat(query.getLimit(), equalTo(2));
+                    async.complete();
+                })
+                .exceptionHandler(context.exceptionHandler());
+            })
+            .exceptionHandler(context.exceptionHandler())
+            .end();
+    }
+
+    @Test
+    public void testGetCustomersInvalidSort(TestContext context) throws Exception {
+        Async async = context.async();
+        vertx.createHttpClient().get(port, "localhost", "/customers?sort=vipStatus", response -> {
+                assertThat(response.statusCode(), equalTo(400));
+                async.complete();
+            })
+            .exceptionHandler(context.exceptionHandler())
+            .end();
+    }
+
+    @Test
+    public void testGetCustomersInvalidLimit(TestContext context) throws Exception {
+        Async async = context.async();
+        vertx.createHttpClient().get(port, "localhost", "/customers?limit=11", response -> {
+                assertThat(response.statusCode(), equalTo(400));
+                async.complete();
+            })
+            .exceptionHandler(context.exceptionHandler())
+            .end();
+    }
 
     @Test
     public void testGetCustomer(TestContext context) throws Exception {
@@ -185,6 +320,121 @@ public class RestVerticleTest {
             .end();
     }
 
+    @Test
+    public void testGetCustomerPretty(TestContext context) throws Exception {
+        Customer customer = new Customer(new JsonObject()
+                .put("customerId", "A11")
+                .put("vipStatus", "Diamond")
+                .put("balance", new Integer(1000)));
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation){
+                Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+                handler.handle(Future.succeededFuture(customer));
+                return null;
+             }
+         }).when(customerService).getCustomer(eq("A11"),any());
+
+        Async async = context.async(2);
+        vertx.createHttpClient().getNow(port, "localhost", "/customer/A11", response -> {
+            response.bodyHandler(body -> {
+                assertThat(body.toString(), equalTo(customer.toJson().encode()));
+                async.countDown();
+            });
+        });
+        vertx.createHttpClient().getNow(port, "localhost", "/customer/A11?pretty=true", response -> {
+            response.bodyHandler(body -> {
+                assertThat(body.toString(), equalTo(customer.toJson().encodePrettily()));
+                async.countDown();
+            });
+        });
+    }
+
+    @Test
+    public void testGetCustomerNotModified(TestContext context) throws Exception {
+        Customer customer = new Customer(new JsonObject()
+                .put("customerId", "A11")
+                .put("vipStatus", "Diamond")
+                .put("balance", new Integer(1000)));
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation){
+                Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+                handler.handle(Future.succeededFuture(customer));
+                return null;
+             }
+         }).when(customerService).getCustomer(eq("A11"),any());
+
+        Async async = context.async();
+        HttpClient client = vertx.createHttpClient();
+        client.getNow(port, "localhost", "/customer/A11", response -> {
+            String etag = response.headers().get("ETag");
+            assertThat(etag, equalTo("\"" + customer.contentHash() + "\""));
+            client.get(port, "localhost", "/customer/A11", notModified -> {
+                    assertThat(notModified.statusCode(), equalTo(304));
+                    assertThat(notModified.headers().get("ETag"), equalTo(etag));
+                    notModified.bodyHandler(body -> {
+                        assertThat(body.length(), equalTo(0));
+                        async.complete();
+                    });
+                })
+                .putHeader("If-None-Match", "\"other\", W/" + etag)
+                .exceptionHandler(context.exceptionHandler())
+                .end();
+        });
+    }
+
+    @Test
+    public void testGetCustomersPageNotModified(TestContext context) throws Exception {
+        List<Customer> customers = new ArrayList<>();
+        customers.add(new Customer(new JsonObject().put("customerId", "A11").put("vipStatus", "Diamond").put("balance", 1000)));
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation){
+                Handler<AsyncResult<List<Customer>>> handler = invocation.getArgument(2);
+                handler.handle(Future.succeededFuture(customers));
+                return null;
+             }
+         }).when(customerService).getCustomers(eq(5), isNull(), any());
+
+        Async async = context.async();
+        HttpClient client = vertx.createHttpClient();
+        client.getNow(port, "localhost", "/customers?limit=5", response -> {
+            String etag = response.headers().get("ETag");
+            assertThat(etag, notNullValue());
+            // A changed customer changes the tag of the page
+            customers.get(0).setBalance(2000);
+            client.get(port, "localhost", "/customers?limit=5", changed -> {
+                    assertThat(changed.statusCode(), equalTo(200));
+                    client.get(port, "localhost", "/customers?limit=5", notModified -> {
+                            assertThat(notModified.statusCode(), equalTo(304));
+                            async.complete();
+                        })
+                        .putHeader("If-None-Match", changed.headers().get("ETag"))
+                        .exceptionHandler(context.exceptionHandler())
+                        .end();
+                })
+                .putHeader("If-None-Match", etag)
+                .exceptionHandler(context.exceptionHandler())
+                .end();
+        });
+    }
+
+    @Test
+    public void testGetCustomerServiceUnavailable(TestContext context) throws Exception {
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation){
+                Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+                handler.handle(Future.failedFuture(new CustomerServiceUnavailableException("Circuit open")));
+                return null;
+             }
+         }).when(customerService).getCustomer(eq("A11"),any());
+
+        Async async = context.async();
+        vertx.createHttpClient().getNow(port, "localhost", "/customer/A11", response -> {
+            assertThat(response.statusCode(), equalTo(503));
+            assertThat(response.headers().get("Retry-After"), equalTo("3"));
+            async.complete();
+        });
+    }
+
     @Test
     public void testGetNonExistingCustomer(TestContext context) throws Exception {
         //----
@@ -241,4 +491,591 @@ public class RestVerticleTest {
             .end();
     }
 
+    @Test
+    public void testAddCustomerWithIdempotencyKey(TestContext context) throws Exception {
+        doAnswer(invocation -> {
+            CustomerUpdate update = invocation.getArgument(0);
+            Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+            handler.handle(Future.succeededFuture(update.applyTo(null)));
+            return null;
+        }).when(customerService).updateCustomer(any(), any());
+
+        Async async = context.async();
+        Customer customer = new Customer("A11", "Diamond", 1000);
+        vertx.createHttpClient().post(port, "localhost", "/customer")
+            .exceptionHandler(context.exceptionHandler())
+            .putHeader("Content-type", "application/json")
+            .putHeader("Idempotency-Key", "7f1c2a")
+            .handler(response -> {
+                assertThat(response.statusCode(), equalTo(201));
+                assertThat(response.headers().get("ETag"), equalTo("\"" + customer.contentHash() + "-v1\""));
+                ArgumentCaptor<CustomerUpdate> argument = ArgumentCaptor.forClass(CustomerUpdate.class);
+                verify(customerService).updateCustomer(argument.capture(), any());
+                assertThat(argument.getValue().getIdempotencyKey(), equalTo("7f1c2a"));
+                assertThat(argument.getValue().isUpsert(), equalTo(true));
+                verify(customerService, never()).addCustomer(any(), any());
+                async.complete();
+            })
+            .end(customer.toJson().encode());
+    }
+
+    @Test
+    public void testAddCustomerIfMatchConflict(TestContext context) throws Exception {
+        doAnswer(invocation -> {
+            Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+            handler.handle(Future.failedFuture(new CustomerVersionConflictException("Customer A11 is at version 4, not 3")));
+            return null;
+        }).when(customerService).updateCustomer(any(), any());
+
+        Async async = context.async();
+        vertx.createHttpClient().post(port, "localhost", "/customer")
+            .exceptionHandler(context.exceptionHandler())
+            .putHeader("Content-type", "application/json")
+            .putHeader("If-Match", "\"0123456789abcdef-v3\"")
+            .handler(response -> {
+                assertThat(response.statusCode(), equalTo(412));
+                ArgumentCaptor<CustomerUpdate> argument = ArgumentCaptor.forClass(CustomerUpdate.class);
+                verify(customerService).updateCustomer(argument.capture(), any());
+                assertThat(argument.getValue().getExpectedVersion(), equalTo(3L));
+                assertThat(argument.getValue().isUpsert(), equalTo(false));
+                async.complete();
+            })
+            .end(new Customer("A11", "Diamond", 1000).toJson().encode());
+    }
+
+    @Test
+    public void testAddCustomerWeakIfMatch(TestContext context) throws Exception {
+        Async async = context.async();
+        vertx.createHttpClient().post(port, "localhost", "/customer")
+            .exceptionHandler(context.exceptionHandler())
+            .putHeader("Content-type", "application/json")
+            .putHeader("If-Match", "W/\"0123456789abcdef-v3\"")
+            .handler(response -> {
+                assertThat(response.statusCode(), equalTo(412));
+                verify(customerService, never()).updateCustomer(any(), any());
+                async.complete();
+            })
+            .end(new Customer("A11", "Diamond", 1000).toJson().encode());
+    }
+
+    @Test
+    public void testAddCustomerFractionalBalance(TestContext context) throws Exception {
+        Async async = context.async();
+        vertx.createHttpClient().post(port, "localhost", "/customer")
+            .exceptionHandler(context.exceptionHandler())
+            .putHeader("Content-type", "application/json")
+            .handler(response -> {
+                assertThat(response.statusCode(), equalTo(400));
+                verify(customerService, never()).addCustomer(any(), any());
+                async.complete();
+            })
+            .end("{\"customerId\":\"A11\",\"vipStatus\":\"Gold\",\"balance\":10.5}");
+    }
+
+    @Test
+    public void testPatchCustomer(TestContext context) throws Exception {
+        Customer current = new Customer("A11", "Gold", 100);
+        current.setVersion(3);
+        doAnswer(invocation -> {
+            CustomerUpdate update = invocation.getArgument(0);
+            Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+            handler.handle(Future.succeededFuture(update.applyTo(current)));
+            return null;
+        }).when(customerService).updateCustomer(any(), any());
+
+        Async async = context.async();
+        HttpClient client = vertx.createHttpClient();
+        client.request(HttpMethod.PATCH, port, "localhost", "/customer/A11")
+            .exceptionHandler(context.exceptionHandler())
+            .putHeader("Content-type", "application/json")
+            .putHeader("If-Match", "\"" + current.getEtag() + "-v3\"")
+            .handler(response -> {
+                assertThat(response.statusCode(), equalTo(200));
+                response.bodyHandler(body -> {
+                    Customer updated = new Customer(body.toJsonObject());
+                    assertThat(updated.getBalance(), equalTo(75));
+                    assertThat(updated.getVipStatus(), equalTo("Gold"));
+                    assertThat(response.headers().get("ETag"), equalTo("\"" + updated.contentHash() + "-v4\""));
+                    ArgumentCaptor<CustomerUpdate> argument = ArgumentCaptor.forClass(CustomerUpdate.class);
+                    verify(customerService).updateCustomer(argument.capture(), any());
+                    assertThat(argument.getValue().getBalanceIncrement(), equalTo(-25));
+                    assertThat(argument.getValue().getExpectedVersion(), equalTo(3L));
+                    async.complete();
+                });
+            })
+            .end(new JsonObject().put("balanceIncrement", -25).encode());
+    }
+
+    @Test
+    public void testPatchNonExistingCustomer(TestContext context) throws Exception {
+        doAnswer(invocation -> {
+            Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+            handler.handle(Future.succeededFuture(null));
+            return null;
+        }).when(customerService).updateCustomer(any(), any());
+
+        Async async = context.async();
+        HttpClient client = vertx.createHttpClient();
+        client.request(HttpMethod.PATCH, port, "localhost", "/customer/A99")
+            .exceptionHandler(context.exceptionHandler())
+            .handler(response -> {
+                assertThat(response.statusCode(), equalTo(404));
+                async.complete();
+            })
+            .end(new JsonObject().put("vipStatus", "Gold").encode());
+    }
+
+    @Test
+    public void testPatchMalformed(TestContext context) throws Exception {
+        Async async = context.async();
+        HttpClient client = vertx.createHttpClient();
+        client.request(HttpMethod.PATCH, port, "localhost", "/customer/A11")
+            .exceptionHandler(context.exceptionHandler())
+            .handler(response -> {
+                assertThat(response.statusCode(), equalTo(400));
+                verify(customerService, never()).updateCustomer(any(), any());
+                async.complete();
+            })
+            .end(new JsonObject().put("balance", 10).put("balanceIncrement", 5).encode());
+    }
+
+    @Test
+    public void testLookupCustomers(TestContext context) throws Exception {
+        doAnswer(invocation -> {
+            Handler<AsyncResult<List<Customer>>> handler = invocation.getArgument(1);
+            handler.handle(Future.succeededFuture(Arrays.asList(
+                    new Customer("A12", "Gold", 20), new Customer("A11", "Silver", 10))));
+            return null;
+        }).when(customerService).getCustomers(anyCollection(), any());
+
+        Async async = context.async();
+        vertx.createHttpClient().post(port, "localhost", "/customers/lookup")
+            .exceptionHandler(context.exceptionHandler())
+            .putHeader("Content-type", "application/json")
+            .handler(response -> {
+                assertThat(response.statusCode(), equalTo(200));
+                response.bodyHandler(buffer -> {
+                    JsonArray customers = buffer.toJsonArray();
+                    assertThat(customers.size(), equalTo(2));
+                    assertThat(customers.getJsonObject(0).getString("customerId"), equalTo("A12"));
+                    ArgumentCaptor<Collection<String>> argument = ArgumentCaptor.forClass(Collection.class);
+                    verify(customerService).getCustomers(argument.capture(), any());
+                    assertThat(new ArrayList<>(argument.getValue()), equalTo(Arrays.asList("A12", "A99", "A11")));
+                    async.complete();
+                });
+            })
+            .end(new JsonObject().put("customerIds", new JsonArray().add("A12").add("A99").add("A11")).encode());
+    }
+
+    @Test
+    public void testGetStats(TestContext context) throws Exception {
+        CustomerStats stats = new CustomerStats();
+        stats.add(new Customer("A11", "Gold", 30));
+        stats.add(new Customer("A12", "Gold", 10));
+        stats.add(new Customer("A13", null, 5));
+        doAnswer(invocation -> {
+            Handler<AsyncResult<CustomerStats>> handler = invocation.getArgument(0);
+            handler.handle(Future.succeededFuture(stats));
+            return null;
+        }).when(customerService).getStats(any());
+
+        Async async = context.async();
+        vertx.createHttpClient().get(port, "localhost", "/customers/stats", response -> {
+            assertThat(response.statusCode(), equalTo(200));
+            response.bodyHandler(buffer -> {
+                JsonObject json = buffer.toJsonObject();
+                assertThat(json.getLong("count"), equalTo(3L));
+                assertThat(json.getLong("totalBalance"), equalTo(45L));
+                assertThat(json.getJsonObject("vipStatus").getJsonObject("Gold").getDouble("averageBalance"), equalTo(20.0));
+                assertThat(json.getJsonObject("vipStatus").getJsonObject(CustomerStats.NO_VIP_STATUS).getLong("count"), equalTo(1L));
+                async.complete();
+            });
+        }).exceptionHandler(context.exceptionHandler()).end();
+    }
+
+    @Test
+    public void testGetStatsNotReady(TestContext context) throws Exception {
+        doAnswer(invocation -> {
+            Handler<AsyncResult<CustomerStats>> handler = invocation.getArgument(0);
+            handler.handle(Future.failedFuture(new CustomerServiceNotReadyException("Customer stats not built yet")));
+            return null;
+        }).when(customerService).getStats(any());
+
+        Async async = context.async();
+        vertx.createHttpClient().getNow(port, "localhost", "/customers/stats", response -> {
+            assertThat(response.statusCode(), equalTo(503));
+            assertThat(response.headers().get("Retry-After"), equalTo("3"));
+            async.complete();
+        });
+    }
+
+    @Test
+    public void testExportCsvGzip(TestContext context) throws Exception {
+        stubCustomerPages(new Customer("A11", "Gold", 10), new Customer("A12", "Silver, \"old\"", -5), new Customer("A13", null, 0));
+
+        Async async = context.async();
+        vertx.createHttpClient().get(port, "localhost", "/customers/export?format=csv&gzip=true&fields=customerId,vipStatus", response -> {
+            assertThat(response.statusCode(), equalTo(200));
+            assertThat(response.getHeader("Content-type"), equalTo("application/gzip"));
+            String exportId = response.getHeader("X-Export-Id");
+            response.bodyHandler(buffer -> {
+                assertThat(gunzip(buffer), equalTo("customerId,vipStatus\nA11,Gold\nA12,\"Silver, \"\"old\"\"\"\nA13,\n"));
+                vertx.createHttpClient().getNow(port, "localhost", "/customers/exports/" + exportId, status ->
+                    status.bodyHandler(body -> {
+                        assertThat(body.toJsonObject().getString("state"), equalTo("done"));
+                        assertThat(body.toJsonObject().getLong("exported"), equalTo(3L));
+                        async.complete();
+                    }));
+            });
+        }).exceptionHandler(context.exceptionHandler()).end();
+    }
+
+    @Test
+    public void testExportToFile(TestContext context) throws Exception {
+        stubCustomerPages(new Customer("A11", "Gold", 10), new Customer("A12", "Silver", 20));
+
+        Async async = context.async();
+        HttpClient client = vertx.createHttpClient();
+        client.post(port, "localhost", "/customers/exports", response -> {
+            assertThat(response.statusCode(), equalTo(202));
+            String location = response.getHeader("Location");
+            awaitExport(client, location, done -> {
+                assertThat(done.getLong("exported"), equalTo(2L));
+                client.getNow(port, "localhost", done.getString("file"), file -> {
+                    assertThat(file.statusCode(), equalTo(200));
+                    assertThat(file.getHeader("Content-type"), equalTo("application/x-ndjson"));
+                    file.bodyHandler(body -> {
+                        String[] lines = body.toString().split("\n");
+                        assertThat(lines.length, equalTo(2));
+                        assertThat(new JsonObject(lines[1]).getString("customerId"), equalTo("A12"));
+                        async.complete();
+                    });
+                });
+            });
+        }).exceptionHandler(context.exceptionHandler()).end();
+    }
+
+    @Test
+    public void testExportUnknownFormat(TestContext context) throws Exception {
+        Async async = context.async();
+        vertx.createHttpClient().getNow(port, "localhost", "/customers/export?format=xml", response -> {
+            assertThat(response.statusCode(), equalTo(400));
+            async.complete();
+        });
+    }
+
+    // Pages of two customers, as configured with "customer.export.batch.size", for plain and other queries
+    private void stubCustomerPages(Customer... customers) {
+        List<String> ids = Arrays.stream(customers).map(Customer::getCustomerId).collect(Collectors.toList());
+        doAnswer(invocation -> {
+            String after = invocation.getArgument(1);
+            Handler<AsyncResult<List<Customer>>> handler = invocation.getArgument(2);
+            int from = ids.indexOf(after) + 1;
+            handler.handle(Future.succeededFuture(Arrays.asList(customers).subList(from, Math.min(from + 2, ids.size()))));
+            return null;
+        }).when(customerService).getCustomers(anyInt(), any(), any());
+        doAnswer(invocation -> {
+            CustomerQuery query = invocation.getArgument(0);
+            Handler<AsyncResult<List<Customer>>> handler = invocation.getArgument(1);
+            int from = ids.indexOf(query.getAfterCustomerId()) + 1;
+            handler.handle(Future.succeededFuture(Arrays.asList(customers).subList(from, Math.min(from + 2, ids.size()))));
+            return null;
+        }).when(customerService).findCustomers(any(), any());
+    }
+
+    private void awaitExport(HttpClient client, String location, Handler<JsonObject> handler) {
+        client.getNow(port, "localhost", location, response -> response.bodyHandler(body -> {
+            JsonObject job = body.toJsonObject();
+            if (job.getString("state").equals("running")) {
+                vertx.setTimer(10, id -> awaitExport(client, location, handler));
+            } else {
+                assertThat(job.getString("state"), equalTo("done"));
+                handler.handle(job);
+            }
+        }));
+    }
+
+    private static String gunzip(Buffer buffer) {
+        StringBuilder text = new StringBuilder();
+        try (Reader reader = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(buffer.getBytes())), "UTF-8")) {
+            char[] chars = new char[1024];
+            for (int n; (n = reader.read(chars)) > 0;) {
+                text.append(chars, 0, n);
+            }
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void testLookupCustomersMalformed(TestContext context) throws Exception {
+        Async async = context.async();
+        vertx.createHttpClient().post(port, "localhost", "/customers/lookup")
+            .exceptionHandler(context.exceptionHandler())
+            .putHeader("Content-type", "application/json")
+            .handler(response -> {
+                assertThat(response.statusCode(), equalTo(400));
+                verify(customerService, never()).getCustomers(anyCollection(), any());
+                async.complete();
+            })
+            .end("[\"A11\", 12]");
+    }
+
+    @Test
+    public void testAddCustomersBulkNdjson(TestContext context) throws Exception {
+        stubAddCustomers();
+
+        Async async = context.async();
+        String body = "{\"customerId\":\"A11\",\"vipStatus\":\"Gold\",\"balance\":10}\n"
+                + "{\"customerId\":\"A12\",\"vipStatus\":\"Gold\",\"balance\":20}\n"
+                + "{\"vipStatus\":\"Gold\"}\n"
+                + "{\"customerId\":\"A13\",\"vipStatus\":\"Gold\",\"balance\":30}\n"
+                + "{\"customerId\":\"A14\",\"vipStatus\":\"Gold\",\"balance\":1.5}\n";
+        vertx.createHttpClient().post(port, "localhost", "/customers/bulk")
+            .exceptionHandler(context.exceptionHandler())
+            .putHeader("Content-type", "application/x-ndjson")
+            .setChunked(true)
+            .handler(response -> {
+                assertThat(response.statusCode(), equalTo(200));
+                response.bodyHandler(buffer -> {
+                    JsonArray results = buffer.toJsonArray();
+                    assertThat(results.size(), equalTo(5));
+                    assertThat(results.getJsonObject(0).getString("customerId"), equalTo("A11"));
+                    assertThat(results.getJsonObject(0).getString("status"), equalTo("ok"));
+                    assertThat(results.getJsonObject(2).getString("status"), equalTo("failed"));
+                    assertThat(results.getJsonObject(3).getString("customerId"), equalTo("A13"));
+                    assertThat(results.getJsonObject(4).getString("status"), equalTo("failed"));
+                    verify(customerService, times(2)).addCustomers(any(), any());
+                    async.complete();
+                });
+            })
+            .write(body.substring(0, 30))
+            .write(body.substring(30))
+            .end();
+    }
+
+    @Test
+    public void testAddCustomersBulkArray(TestContext context) throws Exception {
+        stubAddCustomers();
+
+        Async async = context.async();
+        JsonArray customers = new JsonArray()
+                .add(new JsonObject().put("customerId", "A11").put("vipStatus", "Gold {\"x\"}").put("balance", 10))
+                .add(new JsonObject().put("customerId", "A12").put("vipStatus", "Gold").put("balance", 20));
+        vertx.createHttpClient().post(port, "localhost", "/customers/bulk")
+            .exceptionHandler(context.exceptionHandler())
+            .putHeader("Content-type", "application/json")
+            .handler(response -> {
+                assertThat(response.statusCode(), equalTo(200));
+                response.bodyHandler(buffer -> {
+                    JsonArray results = buffer.toJsonArray();
+                    assertThat(results.size(), equalTo(2));
+                    ArgumentCaptor<List<Customer>> argument = ArgumentCaptor.forClass(List.class);
+                    verify(customerService).addCustomers(argument.capture(), any());
+                    assertThat(argument.getValue().get(0).getVipStatus(), equalTo("Gold {\"x\"}"));
+                    async.complete();
+                });
+            })
+            .end(customers.encode());
+    }
+
+    @Test
+    public void testAddCustomersBulkMalformed(TestContext context) throws Exception {
+        Async async = context.async();
+        vertx.createHttpClient().post(port, "localhost", "/customers/bulk")
+            .exceptionHandler(context.exceptionHandler())
+            .putHeader("Content-type", "application/json")
+            .handler(response -> {
+                assertThat(response.statusCode(), equalTo(400));
+                async.complete();
+            })
+            .end("[{\"customerId\":\"A11\"} oops");
+    }
+
+    private void stubAddCustomers() {
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation){
+                List<Customer> customers = invocation.getArgument(0);
+                Handler<AsyncResult<List<CustomerWriteResult>>> handler = invocation.getArgument(1);
+                handler.handle(Future.succeededFuture(customers.stream()
+                        .map(c -> CustomerWriteResult.ok(c.getCustomerId()))
+                        .collect(Collectors.toList())));
+                return null;
+             }
+         }).when(customerService).addCustomers(any(), any());
+    }
+
+    @Test
+    public void testReadinessWaitsForPendingConditions(TestContext context) throws Exception {
+        Readiness readiness = Readiness.shared(vertx);
+        readiness.pending("mongo.warmup");
+
+        Async async = context.async();
+        HttpClient client = vertx.createHttpClient();
+        client.getNow(port, "localhost", "/health/readiness", response -> {
+            assertThat(response.statusCode(), equalTo(503));
+            readiness.done("mongo.warmup");
+            client.getNow(port, "localhost", "/health/readiness", response1 -> {
+                assertThat(response1.statusCode(), equalTo(200));
+                async.complete();
+            });
+        });
+    }
+
+    @Test
+    public void testMetrics(TestContext context) throws Exception {
+        Async async = context.async();
+        HttpClient client = vertx.createHttpClient();
+        client.getNow(port, "localhost", "/customers?limit=0", response -> {
+            assertThat(response.statusCode(), equalTo(400));
+            client.getNow(port, "localhost", "/metrics", metrics -> {
+                assertThat(metrics.statusCode(), equalTo(200));
+                metrics.bodyHandler(body -> {
+                    assertThat(body.toString(), containsString(
+                            "http_server_requests_seconds_count{method=\"GET\",route=\"/customers\",status=\"400\",} 1.0"));
+                    assertThat(body.toString(), containsString("vertx_eventloop_lag_seconds_count{eventloop=\"vert.x-eventloop-thread-"));
+                    async.complete();
+                });
+            });
+        });
+    }
+
+    @Test
+    public void testResponseCompression(TestContext context) throws Exception {
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation){
+                Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+                handler.handle(Future.succeededFuture(new Customer(new JsonObject().put("customerId", "A11"))));
+                return null;
+             }
+         }).when(customerService).getCustomer(eq("A11"),any());
+
+        Async async = context.async();
+        vertx.createHttpClient().get(port, "localhost", "/customer/A11", response -> {
+                assertThat(response.statusCode(), equalTo(200));
+                assertThat(response.headers().get("Content-Encoding"), equalTo("gzip"));
+                async.complete();
+            })
+            .putHeader("Accept-Encoding", "gzip")
+            .exceptionHandler(context.exceptionHandler())
+            .end();
+    }
+
+    @Test
+    public void testClientRateLimit(TestContext context) throws Exception {
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation){
+                Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+                handler.handle(Future.succeededFuture(null));
+                return null;
+             }
+         }).when(customerService).getCustomer(any(),any());
+        int limitedPort = deployWithAdmission(context, new JsonObject().put("clientRate", 0.001).put("clientBurst", 1));
+
+        Async async = context.async();
+        HttpClient client = vertx.createHttpClient();
+        client.getNow(limitedPort, "localhost", "/customer/A99", first -> {
+            assertThat(first.statusCode(), equalTo(404));
+            client.getNow(limitedPort, "localhost", "/customer/A99", second -> {
+                assertThat(second.statusCode(), equalTo(429));
+                assertThat(second.headers().get("Retry-After"), equalTo("1"));
+                // Without a configured key header, a header value does not get its own budget
+                client.get(limitedPort, "localhost", "/customer/A99", other -> {
+                        assertThat(other.statusCode(), equalTo(429));
+                        async.complete();
+                    })
+                    .putHeader("X-API-Key", "other")
+                    .exceptionHandler(context.exceptionHandler())
+                    .end();
+            });
+        });
+    }
+
+    @Test
+    public void testClientRateLimitByKeyHeader(TestContext context) throws Exception {
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation){
+                Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+                handler.handle(Future.succeededFuture(null));
+                return null;
+             }
+         }).when(customerService).getCustomer(any(),any());
+        int limitedPort = deployWithAdmission(context, new JsonObject().put("clientRate", 0.001).put("clientBurst", 1)
+                .put("clientKeyHeader", "X-API-Key").put("maxClients", 1));
+
+        Async async = context.async();
+        HttpClient client = vertx.createHttpClient();
+        getWithKey(context, client, limitedPort, "first", first -> {
+            assertThat(first.statusCode(), equalTo(404));
+            // The only bucket is taken and not refilled: new keys share the overflow bucket
+            getWithKey(context, client, limitedPort, "second", second -> {
+                assertThat(second.statusCode(), equalTo(404));
+                getWithKey(context, client, limitedPort, "third", third -> {
+                    assertThat(third.statusCode(), equalTo(429));
+                    async.complete();
+                });
+            });
+        });
+    }
+
+    private void getWithKey(TestContext context, HttpClient client, int port, String key, Handler<HttpClientResponse> handler) {
+        client.get(port, "localhost", "/customer/A99", handler)
+            .putHeader("X-API-Key", key)
+            .exceptionHandler(context.exceptionHandler())
+            .end();
+    }
+
+    @Test
+    public void testRouteConcurrencyLimit(TestContext context) throws Exception {
+        List<Handler<AsyncResult<Customer>>> pending = new ArrayList<>();
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation){
+                pending.add(invocation.getArgument(1));
+                return null;
+             }
+         }).when(customerService).getCustomer(any(),any());
+        int limitedPort = deployWithAdmission(context, new JsonObject().put("maxConcurrentRequests", 1));
+
+        Async async = context.async();
+        HttpClient client = vertx.createHttpClient();
+        client.getNow(limitedPort, "localhost", "/customer/A11", first -> {
+            assertThat(first.statusCode(), equalTo(404));
+            async.complete();
+        });
+        vertx.setTimer(200, id -> {
+            client.getNow(limitedPort, "localhost", "/customer/A12", second -> {
+                assertThat(second.statusCode(), equalTo(503));
+                assertThat(pending.size(), equalTo(1));
+                pending.get(0).handle(Future.succeededFuture(null));
+            });
+        });
+    }
+
+    private int deployWithAdmission(TestContext context, JsonObject admission) throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        int limitedPort = socket.getLocalPort();
+        socket.close();
+        JsonObject config = new JsonObject().put("customer.http.port", limitedPort);
+        admission.forEach(setting -> config.put("customer.admission." + setting.getKey(), setting.getValue()));
+        Async deployed = context.async();
+        vertx.deployVerticle(new RestVerticle(customerService), new DeploymentOptions().setConfig(config), context.asyncAssertSuccess(id -> deployed.complete()));
+        deployed.awaitSuccess(5000);
+        return limitedPort;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCompressionLevel() {
+        RestVerticle.httpServerOptions(new JsonObject()
+                .put("customer.http.server.compressionLevel", 12));
+    }
+
+    @Test
+    public void testInvalidServerOptionsFailDeployment(TestContext context) {
+        vertx.deployVerticle(new RestVerticle(customerService), new DeploymentOptions().setConfig(new JsonObject()
+                .put("customer.http.port", 0)
+                .put("customer.http.server.compressionLevel", 12)),
+                context.asyncAssertFailure(cause -> assertThat(cause, instanceOf(IllegalArgumentException.class))));
+    }
+
 }
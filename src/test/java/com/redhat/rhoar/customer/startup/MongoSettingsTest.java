@@ -0,0 +1,107 @@
+package com.redhat.rhoar.customer.startup;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.async.client.MongoClientSettings;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.WriteOption;
+import io.vertx.ext.mongo.impl.config.MongoClientOptionsParser;
+
+public class MongoSettingsTest {
+
+    @Test
+    public void testDefaults() {
+        MongoSettings settings = new MongoSettings(new JsonObject()
+                .put("connection_string", "mongodb://customer-mongodb:27017")
+                .put("db_name", "customerdb"));
+
+        assertThat(settings.getReadConfig().getString("readPreference"), equalTo("secondaryPreferred"));
+        assertThat(settings.getWriteConfig().getString("readPreference"), equalTo("primary"));
+        assertThat(settings.getWriteConfig().getString("db_name"), equalTo("customerdb"));
+        assertThat(settings.getWriteConfig().getInteger("maxPoolSize"), equalTo(100));
+        assertThat(settings.getReadPoolName(), equalTo("customer-read"));
+        assertThat(settings.getWritePoolName(), equalTo("customer-write"));
+        assertThat(settings.getWriteOption(), nullValue());
+    }
+
+    @Test
+    public void testConfiguredSettings() {
+        MongoSettings settings = new MongoSettings(new JsonObject()
+                .put("customer.mongo.poolName", "orders")
+                .put("customer.mongo.maxPoolSize", 20)
+                .put("customer.mongo.readPreference", "primary")
+                .put("customer.mongo.writeConcern", "majority"));
+
+        assertThat(settings.getReadConfig().getInteger("maxPoolSize"), equalTo(20));
+        assertThat(settings.isReadFromPrimary(), equalTo(true));
+        assertThat(settings.getReadPoolName(), equalTo("orders-write"));
+        assertThat(settings.getWriteOption(), equalTo(WriteOption.MAJORITY));
+        assertThat(settings.getWriteConfig().getString("writeConcern"), equalTo("MAJORITY"));
+    }
+
+    @Test
+    public void testSettingsApplyWithConnectionString() {
+        MongoSettings settings = new MongoSettings(new JsonObject()
+                .put("connection_string", "mongodb://customer-mongodb:27017")
+                .put("db_name", "customerdb")
+                .put("customer.mongo.maxPoolSize", 20)
+                .put("customer.mongo.connectTimeoutMS", 3000));
+
+        // As the Vert.x Mongo client reads its config
+        MongoClientSettings read = new MongoClientOptionsParser(settings.getReadConfig()).settings();
+        assertThat(read.getConnectionPoolSettings().getMaxSize(), equalTo(20));
+        assertThat(read.getConnectionPoolSettings().getMaxWaitQueueSize(), equalTo(100));
+        assertThat(read.getConnectionPoolSettings().getMaxWaitTime(TimeUnit.MILLISECONDS), equalTo(2000L));
+        assertThat(read.getSocketSettings().getConnectTimeout(TimeUnit.MILLISECONDS), equalTo(3000));
+        assertThat(read.getSocketSettings().getReadTimeout(TimeUnit.MILLISECONDS), equalTo(10000));
+        assertThat(read.getClusterSettings().getServerSelectionTimeout(TimeUnit.MILLISECONDS), equalTo(5000L));
+        assertThat(read.getReadPreference(), equalTo(ReadPreference.secondaryPreferred()));
+
+        MongoClientSettings write = new MongoClientOptionsParser(settings.getWriteConfig()).settings();
+        assertThat(write.getConnectionPoolSettings().getMaxSize(), equalTo(20));
+        assertThat(write.getReadPreference(), equalTo(ReadPreference.primary()));
+    }
+
+    @Test
+    public void testConnectionStringOptionsTakePrecedence() {
+        MongoSettings settings = new MongoSettings(new JsonObject()
+                .put("connection_string", "mongodb://customer-mongodb:27017/customerdb?maxPoolSize=7&readPreference=nearest")
+                .put("customer.mongo.maxPoolSize", 20));
+
+        MongoClientSettings read = new MongoClientOptionsParser(settings.getReadConfig()).settings();
+        assertThat(read.getConnectionPoolSettings().getMaxSize(), equalTo(7));
+        assertThat(read.getSocketSettings().getReadTimeout(TimeUnit.MILLISECONDS), equalTo(10000));
+        // Each pool keeps its own read preference
+        assertThat(read.getReadPreference(), equalTo(ReadPreference.secondaryPreferred()));
+        MongoClientSettings write = new MongoClientOptionsParser(settings.getWriteConfig()).settings();
+        assertThat(write.getReadPreference(), equalTo(ReadPreference.primary()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPoolSize() {
+        new MongoSettings(new JsonObject().put("customer.mongo.maxPoolSize", 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMinPoolSizeAboveMax() {
+        new MongoSettings(new JsonObject().put("customer.mongo.maxPoolSize", 5).put("customer.mongo.minPoolSize", 6));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidReadPreference() {
+        new MongoSettings(new JsonObject().put("customer.mongo.readPreference", "nearestish"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWriteConcern() {
+        new MongoSettings(new JsonObject().put("customer.mongo.writeConcern", "sometimes"));
+    }
+}
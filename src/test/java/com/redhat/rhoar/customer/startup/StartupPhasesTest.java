@@ -0,0 +1,51 @@
+package com.redhat.rhoar.customer.startup;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.Future;
+
+public class StartupPhasesTest {
+
+    @Test
+    public void testPhasesAreTimedWhenTheyComplete() throws Exception {
+        StartupPhases phases = new StartupPhases();
+        Future<String> config = Future.future();
+        Future<String> timed = phases.time("config", config);
+
+        assertThat(phases.isDone("config"), is(false));
+        assertThat(phases.getMillis("config"), equalTo(-1L));
+        Thread.sleep(5);
+        config.complete("done");
+
+        assertThat(timed.result(), equalTo("done"));
+        assertThat(phases.isDone("config"), is(true));
+        assertThat(phases.getMillis("config") >= 5, is(true));
+    }
+
+    @Test
+    public void testFailedPhaseIsTimed() {
+        StartupPhases phases = new StartupPhases();
+        Future<Void> timed = phases.time("injector", Future.failedFuture("no binder"));
+
+        assertThat(timed.failed(), is(true));
+        assertThat(phases.isDone("injector"), is(true));
+    }
+
+    @Test
+    public void testBindTo() {
+        StartupPhases phases = new StartupPhases();
+        phases.time("config", Future.succeededFuture());
+        phases.mark("ready");
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        phases.bindTo(registry);
+
+        assertThat(registry.find("customer.startup.phase").tag("phase", "ready").timeGauge() != null, is(true));
+        assertThat(phases.toString().startsWith("config "), is(true));
+    }
+}
@@ -0,0 +1,188 @@
+package com.redhat.rhoar.customer.verticle.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.service.CachingCustomerService;
+import com.redhat.rhoar.customer.service.CustomerService;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+public class CachingCustomerServiceTest {
+
+    private CustomerService delegate;
+
+    @Before
+    public void setup() {
+        delegate = mock(CustomerService.class);
+        doAnswer(invocation -> {
+            String customerId = invocation.getArgument(0);
+            Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+            Customer customer = customerId.startsWith("A")
+                    ? new Customer(new JsonObject().put("customerId", customerId).put("vipStatus", "Gold").put("balance", 100))
+                    : null;
+            handler.handle(Future.succeededFuture(customer));
+            return null;
+        }).when(delegate).getCustomer(anyString(), any());
+        doAnswer(invocation -> {
+            Handler<AsyncResult<String>> handler = invocation.getArgument(1);
+            handler.handle(Future.succeededFuture());
+            return null;
+        }).when(delegate).addCustomer(any(), any());
+    }
+
+    @Test
+    public void testGetCustomerIsCached() {
+        CachingCustomerService service = new CachingCustomerService(delegate, 10, 60000);
+
+        getCustomer(service, "A11");
+        Customer customer = getCustomer(service, "A11");
+
+        assertThat(customer.getCustomerId(), equalTo("A11"));
+        verify(delegate, times(1)).getCustomer(anyString(), any());
+        assertThat(service.getHitCount(), equalTo(1L));
+        assertThat(service.getMissCount(), equalTo(1L));
+    }
+
+    @Test
+    public void testMissingCustomerIsNotCached() {
+        CachingCustomerService service = new CachingCustomerService(delegate, 10, 60000);
+
+        assertThat(getCustomer(service, "B11"), nullValue());
+        assertThat(getCustomer(service, "B11"), nullValue());
+
+        verify(delegate, times(2)).getCustomer(anyString(), any());
+        assertThat(service.size(), equalTo(0));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        CachingCustomerService service = new CachingCustomerService(delegate, 2, 60000);
+
+        getCustomer(service, "A11");
+        getCustomer(service, "A12");
+        getCustomer(service, "A11");
+        getCustomer(service, "A13");
+
+        assertThat(service.size(), equalTo(2));
+        assertThat(service.getEvictionCount(), equalTo(1L));
+        getCustomer(service, "A11");
+        assertThat(service.getHitCount(), equalTo(2L));
+        getCustomer(service, "A12");
+        assertThat(service.getMissCount(), equalTo(4L));
+    }
+
+    @Test
+    public void testEntriesExpire() throws Exception {
+        CachingCustomerService service = new CachingCustomerService(delegate, 10, 1);
+
+        getCustomer(service, "A11");
+        Thread.sleep(5);
+        getCustomer(service, "A11");
+
+        verify(delegate, times(2)).getCustomer(anyString(), any());
+    }
+
+    @Test
+    public void testStaleEntryServedOnError() throws Exception {
+        CachingCustomerService service = new CachingCustomerService(delegate, 10, 1, 60000);
+        getCustomer(service, "A11");
+        Thread.sleep(5);
+        doAnswer(invocation -> {
+            Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+            handler.handle(Future.failedFuture("unavailable"));
+            return null;
+        }).when(delegate).getCustomer(anyString(), any());
+
+        assertThat(getCustomer(service, "A11").getCustomerId(), equalTo("A11"));
+        assertThat(getCustomer(service, "A12"), nullValue());
+        assertThat(service.getStaleHitCount(), equalTo(1L));
+    }
+
+    @Test
+    public void testLookupFetchesOnlyMissingCustomers() {
+        doAnswer(invocation -> {
+            Collection<String> customerIds = invocation.getArgument(0);
+            Handler<AsyncResult<List<Customer>>> handler = invocation.getArgument(1);
+            handler.handle(Future.succeededFuture(customerIds.stream()
+                    .filter(id -> id.startsWith("A"))
+                    .map(id -> new Customer(id, "Gold", 100))
+                    .collect(Collectors.toList())));
+            return null;
+        }).when(delegate).getCustomers(anyCollection(), any());
+        CachingCustomerService service = new CachingCustomerService(delegate, 10, 60000);
+        getCustomer(service, "A12");
+
+        AtomicReference<List<Customer>> result = new AtomicReference<>();
+        service.getCustomers(Arrays.asList("A13", "B11", "A12", "A11", "A13"), ar -> result.set(ar.result()));
+
+        assertThat(result.get().stream().map(Customer::getCustomerId).collect(Collectors.toList()),
+                equalTo(Arrays.asList("A13", "A12", "A11")));
+        ArgumentCaptor<Collection<String>> argument = ArgumentCaptor.forClass(Collection.class);
+        verify(delegate).getCustomers(argument.capture(), any());
+        assertThat(new ArrayList<>(argument.getValue()), equalTo(Arrays.asList("A13", "B11", "A11")));
+        assertThat(service.size(), equalTo(3));
+    }
+
+    @Test
+    public void testAddCustomerInvalidates() {
+        CachingCustomerService service = new CachingCustomerService(delegate, 10, 60000);
+
+        Customer customer = getCustomer(service, "A11");
+        service.addCustomer(customer, ar -> {});
+        getCustomer(service, "A11");
+
+        verify(delegate, times(2)).getCustomer(anyString(), any());
+        assertThat(service.getHitCount(), equalTo(0L));
+    }
+
+    @Test
+    public void testWriteDuringLoadOnlySkipsItsOwnCustomer() {
+        List<Handler<AsyncResult<Customer>>> pending = new ArrayList<>();
+        doAnswer(invocation -> {
+            pending.add(invocation.getArgument(1));
+            return null;
+        }).when(delegate).getCustomer(anyString(), any());
+        CachingCustomerService service = new CachingCustomerService(delegate, 10, 60000);
+
+        service.getCustomer("A11", ar -> {});
+        service.getCustomer("A12", ar -> {});
+        // A write of A12 lands while both loads are in flight
+        service.invalidate("A12");
+        pending.get(0).handle(Future.succeededFuture(new Customer("A11", "Gold", 100)));
+        pending.get(1).handle(Future.succeededFuture(new Customer("A12", "Gold", 100)));
+
+        assertThat(service.size(), equalTo(1));
+        getCustomer(service, "A11");
+        assertThat(service.getHitCount(), equalTo(1L));
+    }
+
+    private Customer getCustomer(CustomerService service, String customerId) {
+        AtomicReference<Customer> result = new AtomicReference<>();
+        service.getCustomer(customerId, ar -> result.set(ar.result()));
+        return result.get();
+    }
+}
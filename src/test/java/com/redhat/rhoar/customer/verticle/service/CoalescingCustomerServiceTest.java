@@ -0,0 +1,124 @@
+package com.redhat.rhoar.customer.verticle.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.service.CoalescingCustomerService;
+import com.redhat.rhoar.customer.service.CustomerService;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+public class CoalescingCustomerServiceTest {
+
+    private CustomerService delegate;
+    private Map<String, Handler<AsyncResult<Customer>>> pending;
+
+    @Before
+    public void setup() {
+        pending = new HashMap<>();
+        delegate = mock(CustomerService.class);
+        doAnswer(invocation -> {
+            pending.put(invocation.getArgument(0), invocation.getArgument(1));
+            return null;
+        }).when(delegate).getCustomer(any(), any());
+    }
+
+    @Test
+    public void testConcurrentLookupsAreCoalesced() {
+        CoalescingCustomerService service = new CoalescingCustomerService(delegate);
+        List<Customer> results = new ArrayList<>();
+
+        service.getCustomer("A11", ar -> results.add(ar.result()));
+        service.getCustomer("A11", ar -> results.add(ar.result()));
+        service.getCustomer("A11", ar -> results.add(ar.result()));
+        service.getCustomer("A12", ar -> {});
+
+        verify(delegate, times(1)).getCustomer(eq("A11"), any());
+        verify(delegate, times(1)).getCustomer(eq("A12"), any());
+        assertThat(service.getLoadCount(), equalTo(2L));
+        assertThat(service.getCoalescedCount(), equalTo(2L));
+
+        Customer customer = new Customer(new JsonObject().put("customerId", "A11"));
+        pending.get("A11").handle(Future.succeededFuture(customer));
+
+        assertThat(results.size(), equalTo(3));
+        for (Customer result : results) {
+            assertThat(result, sameInstance(customer));
+        }
+    }
+
+    @Test
+    public void testLookupAfterCompletionHitsDelegateAgain() {
+        CoalescingCustomerService service = new CoalescingCustomerService(delegate);
+
+        service.getCustomer("A11", ar -> {});
+        pending.get("A11").handle(Future.failedFuture("boom"));
+        service.getCustomer("A11", ar -> {});
+
+        verify(delegate, times(2)).getCustomer(eq("A11"), any());
+        assertThat(service.getCoalescedCount(), equalTo(0L));
+    }
+
+    @Test
+    public void testLookupAfterWriteDoesNotJoinOlderCall() {
+        doAnswer(invocation -> {
+            Handler<AsyncResult<String>> handler = invocation.getArgument(1);
+            handler.handle(Future.succeededFuture("A11"));
+            return null;
+        }).when(delegate).addCustomer(any(), any());
+        CoalescingCustomerService service = new CoalescingCustomerService(delegate);
+        List<Customer> results = new ArrayList<>();
+
+        service.getCustomer("A11", ar -> results.add(ar.result()));
+        Handler<AsyncResult<Customer>> beforeWrite = pending.get("A11");
+        service.addCustomer(new Customer("A11", "Gold", 200), ar -> {});
+        service.getCustomer("A11", ar -> results.add(ar.result()));
+
+        verify(delegate, times(2)).getCustomer(eq("A11"), any());
+        Customer old = new Customer("A11", "Gold", 100);
+        beforeWrite.handle(Future.succeededFuture(old));
+        // The older call completing does not drop the one started after the write
+        service.getCustomer("A11", ar -> results.add(ar.result()));
+        verify(delegate, times(2)).getCustomer(eq("A11"), any());
+        Customer written = new Customer("A11", "Gold", 200);
+        pending.get("A11").handle(Future.succeededFuture(written));
+
+        assertThat(results.size(), equalTo(3));
+        assertThat(results.get(0), sameInstance(old));
+        assertThat(results.get(1), sameInstance(written));
+        assertThat(results.get(2), sameInstance(written));
+    }
+
+    @Test
+    public void testDelegateThrowingFailsWaiters() {
+        doThrow(new IllegalStateException("closed")).when(delegate).getCustomer(eq("A13"), any());
+        CoalescingCustomerService service = new CoalescingCustomerService(delegate);
+        List<Throwable> failures = new ArrayList<>();
+
+        service.getCustomer("A13", ar -> failures.add(ar.cause()));
+        service.getCustomer("A13", ar -> failures.add(ar.cause()));
+
+        assertThat(failures.size(), equalTo(2));
+        verify(delegate, times(2)).getCustomer(eq("A13"), any());
+    }
+}
@@ -0,0 +1,149 @@
+package com.redhat.rhoar.customer.verticle.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.redhat.rhoar.customer.service.CustomerChangeVerticle;
+
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class CustomerChangeVerticleTest {
+
+    private Vertx vertx;
+    private MongoClient client;
+    private final List<JsonObject> queries = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+        client = mock(MongoClient.class);
+    }
+
+    @After
+    public void tearDown(TestContext context) {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void testEveryChangeIsPublishedOnce(TestContext context) {
+        long now = System.currentTimeMillis();
+        JsonObject a11 = change("A11", now);
+        JsonObject a12 = change("A12", now);
+        JsonObject a13 = change("A13", now + 1);
+        // The first poll finds a full page and reads on; later polls find the same changes
+        // again within the overlap
+        doAnswer(invocation -> {
+            JsonObject query = invocation.getArgument(1);
+            queries.add(query);
+            Handler<AsyncResult<List<JsonObject>>> handler = invocation.getArgument(3);
+            List<JsonObject> changes;
+            if (query.containsKey("$or")) {
+                changes = Arrays.asList(a13);
+            } else {
+                changes = Arrays.asList(a11, a12);
+            }
+            handler.handle(Future.succeededFuture(changes));
+            return null;
+        }).when(client).findWithOptions(eq("customers"), any(JsonObject.class), any(FindOptions.class), any());
+
+        List<String> published = Collections.synchronizedList(new ArrayList<>());
+        vertx.eventBus().<String>consumer("test-invalidations", message -> published.add(message.body()));
+
+        CustomerChangeVerticle verticle = new CustomerChangeVerticle(client, new PrometheusMeterRegistry(PrometheusConfig.DEFAULT));
+        Async async = context.async();
+        vertx.deployVerticle(verticle, new DeploymentOptions().setConfig(config()), context.asyncAssertSuccess(id -> {
+            vertx.setPeriodic(10, timer -> {
+                if (queries.size() >= 6) {
+                    vertx.cancelTimer(timer);
+                    assertThat(published, equalTo(Arrays.asList("A11", "A12", "A13")));
+                    assertThat(verticle.getPublishedCount(), equalTo(3L));
+                    async.complete();
+                }
+            });
+        }));
+    }
+
+    @Test
+    public void testChangesArePublishedAgainAfterTheOverlap(TestContext context) {
+        JsonObject a11 = change("A11", System.currentTimeMillis());
+        doAnswer(invocation -> {
+            queries.add(invocation.getArgument(1));
+            Handler<AsyncResult<List<JsonObject>>> handler = invocation.getArgument(3);
+            handler.handle(Future.succeededFuture(Arrays.asList(a11)));
+            return null;
+        }).when(client).findWithOptions(eq("customers"), any(JsonObject.class), any(FindOptions.class), any());
+
+        List<String> published = Collections.synchronizedList(new ArrayList<>());
+        vertx.eventBus().<String>consumer("test-invalidations", message -> published.add(message.body()));
+
+        CustomerChangeVerticle verticle = new CustomerChangeVerticle(client, new PrometheusMeterRegistry(PrometheusConfig.DEFAULT));
+        Async async = context.async();
+        vertx.deployVerticle(verticle, new DeploymentOptions().setConfig(config().put("customer.cache.invalidation.overlap.ms", 50)),
+                context.asyncAssertSuccess(id -> {
+                    vertx.setTimer(300, timer -> {
+                        assertThat(published, equalTo(Arrays.asList("A11", "A11")));
+                        assertThat(verticle.getPublishedCount(), equalTo(2L));
+                        async.complete();
+                    });
+                }));
+    }
+
+    @Test
+    public void testPollingGoesOnAfterFailures(TestContext context) {
+        doAnswer(invocation -> {
+            queries.add(invocation.getArgument(1));
+            Handler<AsyncResult<List<JsonObject>>> handler = invocation.getArgument(3);
+            handler.handle(Future.failedFuture("Mongo is down"));
+            return null;
+        }).when(client).findWithOptions(eq("customers"), any(JsonObject.class), any(FindOptions.class), any());
+
+        Async async = context.async();
+        vertx.deployVerticle(new CustomerChangeVerticle(client, new PrometheusMeterRegistry(PrometheusConfig.DEFAULT)),
+                new DeploymentOptions().setConfig(config()), context.asyncAssertSuccess(id -> {
+                    vertx.setPeriodic(10, timer -> {
+                        if (queries.size() >= 3) {
+                            vertx.cancelTimer(timer);
+                            async.complete();
+                        }
+                    });
+                }));
+    }
+
+    private static JsonObject config() {
+        return new JsonObject()
+                .put("customer.cache.invalidation.address", "test-invalidations")
+                .put("customer.cache.invalidation.poll.ms", 10)
+                .put("customer.cache.invalidation.batch.size", 2);
+    }
+
+    private static JsonObject change(String customerId, long updatedAt) {
+        return new JsonObject().put("customerId", customerId).put("updatedAt", updatedAt);
+    }
+}
@@ -6,7 +6,11 @@ import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.allOf;
+import static org.hamcrest.CoreMatchers.instanceOf;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -16,9 +20,16 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerQuery;
+import com.redhat.rhoar.customer.model.CustomerUpdate;
+import com.redhat.rhoar.customer.service.CustomerChangeVerticle;
 import com.redhat.rhoar.customer.service.CustomerService;
 import com.redhat.rhoar.customer.service.CustomerServiceMongoImpl;
+import com.redhat.rhoar.customer.service.CustomerVersionConflictException;
 
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.mongo.MongoClient;
@@ -72,6 +83,8 @@ public class CustomerServiceTest extends MongoTestBase {
                         context.fail(ar1.cause().getMessage());
                     } else {
                         assertThat(ar1.result().getString("vipStatus"), equalTo(vipStatus));
+                        assertThat(ar1.result().getString("etag"), equalTo(customer.contentHash()));
+                        assertThat(ar1.result().getLong("updatedAt"), notNullValue());
                         async.complete();
                     }
                 });
@@ -137,6 +150,168 @@ public class CustomerServiceTest extends MongoTestBase {
         });
     }
 
+    @Test
+    public void testGetCustomersPage(TestContext context) throws Exception {
+        Async saveAsync = context.async(3);
+        for (String customerId : new String[] {"A13", "A11", "A12"}) {
+            JsonObject json = new JsonObject()
+                    .put("customerId", customerId)
+                    .put("vipStatus", "Silver")
+                    .put("balance", new Integer(1000));
+            mongoClient.save(COLLECTION, json, ar -> {
+                if (ar.failed()) {
+                    context.fail();
+                }
+                saveAsync.countDown();
+            });
+        }
+
+        saveAsync.await();
+
+        CustomerService service = new CustomerServiceMongoImpl(mongoClient);
+
+        Async async = context.async();
+
+        service.getCustomers(2, null, ar -> {
+            if (ar.failed()) {
+                context.fail(ar.cause().getMessage());
+            } else {
+                assertThat(ar.result().size(), equalTo(2));
+                assertThat(ar.result().get(0).getCustomerId(), equalTo("A11"));
+                assertThat(ar.result().get(1).getCustomerId(), equalTo("A12"));
+                service.getCustomers(2, "A12", ar1 -> {
+                    if (ar1.failed()) {
+                        context.fail(ar1.cause().getMessage());
+                    } else {
+                        assertThat(ar1.result().size(), equalTo(1));
+                        assertThat(ar1.result().get(0).getCustomerId(), equalTo("A13"));
+                        async.complete();
+                    }
+                });
+            }
+        });
+    }
+
+    @Test
+    public void testGetCustomersByIds(TestContext context) throws Exception {
+        Async saveAsync = context.async(3);
+        for (String customerId : new String[] {"A13", "A11", "A12"}) {
+            JsonObject json = new JsonObject()
+                    .put("_id", customerId)
+                    .put("customerId", customerId)
+                    .put("vipStatus", "Silver")
+                    .put("balance", new Integer(1000));
+            mongoClient.save(COLLECTION, json, ar -> {
+                if (ar.failed()) {
+                    context.fail();
+                }
+                saveAsync.countDown();
+            });
+        }
+
+        saveAsync.await();
+
+        CustomerService service = new CustomerServiceMongoImpl(mongoClient);
+
+        Async async = context.async();
+
+        service.getCustomers(Arrays.asList("A12", "A99", "A13", "A12"), ar -> {
+            if (ar.failed()) {
+                context.fail(ar.cause().getMessage());
+            } else {
+                assertThat(ar.result().size(), equalTo(2));
+                assertThat(ar.result().get(0).getCustomerId(), equalTo("A12"));
+                assertThat(ar.result().get(1).getCustomerId(), equalTo("A13"));
+                async.complete();
+            }
+        });
+    }
+
+    @Test
+    public void testFindCustomers(TestContext context) throws Exception {
+        Async saveAsync = context.async(4);
+        String[][] customers = {{"A11", "Gold", "30"}, {"A12", "Gold", "10"}, {"A13", "Silver", "20"}, {"A14", "Gold", "30"}};
+        for (String[] customer : customers) {
+            JsonObject json = new JsonObject()
+                    .put("_id", customer[0])
+                    .put("customerId", customer[0])
+                    .put("vipStatus", customer[1])
+                    .put("balance", Integer.valueOf(customer[2]));
+            mongoClient.save(COLLECTION, json, ar -> {
+                if (ar.failed()) {
+                    context.fail();
+                }
+                saveAsync.countDown();
+            });
+        }
+
+        saveAsync.await();
+
+        CustomerService service = new CustomerServiceMongoImpl(mongoClient);
+
+        CustomerQuery query = new CustomerQuery();
+        query.setVipStatus(Arrays.asList("Gold"));
+        query.setMinBalance(20);
+        query.setFields(Arrays.asList("balance"));
+        query.setSort("balance");
+        query.setDescending(true);
+        query.setLimit(1);
+
+        Async async = context.async();
+
+        service.findCustomers(query, ar -> {
+            if (ar.failed()) {
+                context.fail(ar.cause().getMessage());
+            } else {
+                assertThat(ar.result().size(), equalTo(1));
+                assertThat(ar.result().get(0).getCustomerId(), equalTo("A14"));
+                assertThat(ar.result().get(0).getVipStatus(), nullValue());
+                service.findCustomers(query.after(ar.result().get(0)), ar1 -> {
+                    if (ar1.failed()) {
+                        context.fail(ar1.cause().getMessage());
+                    } else {
+                        assertThat(ar1.result().size(), equalTo(1));
+                        assertThat(ar1.result().get(0).getCustomerId(), equalTo("A11"));
+                        async.complete();
+                    }
+                });
+            }
+        });
+    }
+
+    @Test
+    public void testAddCustomers(TestContext context) throws Exception {
+        List<Customer> customers = new ArrayList<>();
+        for (String customerId : new String[] {"A11", "A12", "A11"}) {
+            Customer customer = new Customer();
+            customer.setCustomerId(customerId);
+            customer.setVipStatus("Silver");
+            customer.setBalance(100);
+            customers.add(customer);
+        }
+
+        CustomerService service = new CustomerServiceMongoImpl(mongoClient);
+
+        Async async = context.async();
+
+        service.addCustomers(customers, ar -> {
+            if (ar.failed()) {
+                context.fail(ar.cause().getMessage());
+            } else {
+                assertThat(ar.result().size(), equalTo(3));
+                assertThat(ar.result().stream().allMatch(r -> r.succeeded()), equalTo(true));
+                mongoClient.count(COLLECTION, new JsonObject(), ar1 -> {
+                    if (ar1.failed()) {
+                        context.fail(ar1.cause().getMessage());
+                    } else {
+                        assertThat(ar1.result(), equalTo(2L));
+                        async.complete();
+                    }
+                });
+            }
+        });
+    }
+
     @Test
     public void testGetCustomer(TestContext context) throws Exception {
         // ----
@@ -146,6 +321,7 @@ public class CustomerServiceTest extends MongoTestBase {
         Async saveAsync = context.async(2);
         String customerId1 = "A11";
         JsonObject json1 = new JsonObject()
+                .put("_id", customerId1)
                 .put("customerId", customerId1)
                 .put("vipStatus", "Diamond")
                 .put("balance", new Integer(1000));
@@ -159,6 +335,7 @@ public class CustomerServiceTest extends MongoTestBase {
 
         String customerId2 = "A12";
         JsonObject json2 = new JsonObject()
+                .put("_id", customerId2)
                 .put("customerId", customerId2)
                 .put("vipStatus", "Bronze")
                 .put("balance", new Integer(1000));
@@ -224,6 +401,103 @@ public class CustomerServiceTest extends MongoTestBase {
         });
     }
 
+    @Test
+    public void testInitializeCreatesIndexes(TestContext context) throws Exception {
+        CustomerService service = new CustomerServiceMongoImpl(mongoClient);
+
+        Async async = context.async();
+        service.initialize(ar -> {
+            if (ar.failed()) {
+                context.fail(ar.cause().getMessage());
+            } else {
+                mongoClient.listIndexes(COLLECTION, ar1 -> {
+                    if (ar1.failed()) {
+                        context.fail(ar1.cause().getMessage());
+                    } else {
+                        Set<String> keys = ar1.result().stream()
+                                .map(i -> ((JsonObject) i).getJsonObject("key").fieldNames().iterator().next())
+                                .collect(Collectors.toSet());
+                        assertThat(keys, hasItem("customerId"));
+                        assertThat(keys, hasItem("balance"));
+                        assertThat(keys, hasItem("vipStatus"));
+                        assertThat(keys, hasItem("updatedAt"));
+                        async.complete();
+                    }
+                });
+            }
+        });
+    }
+
+    @Test
+    public void testConditionalUpdates(TestContext context) throws Exception {
+        CustomerService service = new CustomerServiceMongoImpl(mongoClient);
+        CustomerUpdate increment = CustomerUpdate.patch("A11", new JsonObject().put("balanceIncrement", -25))
+                .setExpectedVersion(1L)
+                .setIdempotencyKey("key-1");
+
+        Async async = context.async();
+        service.addCustomer(new Customer("A11", "Gold", 100), context.asyncAssertSuccess(id ->
+            service.updateCustomer(increment, context.asyncAssertSuccess(updated -> {
+                assertThat(updated.getBalance(), equalTo(75));
+                assertThat(updated.getVersion(), equalTo(2L));
+                // Repeated: not applied again, although version 1 is gone
+                service.updateCustomer(increment, context.asyncAssertSuccess(replayed -> {
+                    assertThat(replayed.getBalance(), equalTo(75));
+                    assertThat(replayed.getVersion(), equalTo(2L));
+                    CustomerUpdate stale = CustomerUpdate.replace(new Customer("A11", "Silver", 0)).setExpectedVersion(1L);
+                    service.updateCustomer(stale, context.asyncAssertFailure(conflict -> {
+                        assertThat(conflict, instanceOf(CustomerVersionConflictException.class));
+                        service.getCustomer("A11", context.asyncAssertSuccess(customer -> {
+                            assertThat(customer.getVipStatus(), equalTo("Gold"));
+                            assertThat(customer.getBalance(), equalTo(75));
+                            assertThat(customer.getEtag(), equalTo(customer.contentHash()));
+                            async.complete();
+                        }));
+                    }));
+                }));
+            }))));
+    }
+
+    @Test
+    public void testStatsFollowWrites(TestContext context) throws Exception {
+        CustomerServiceMongoImpl service = new CustomerServiceMongoImpl(mongoClient);
+        JsonObject json = new JsonObject().put("_id", "A11").put("customerId", "A11").put("vipStatus", "Gold").put("balance", 100);
+
+        Async async = context.async();
+        mongoClient.save(COLLECTION, json, context.asyncAssertSuccess(saved ->
+            // The stats are built from the collection, then follow the writes
+            service.rebuildStats(context.asyncAssertSuccess(v ->
+                service.addCustomer(new Customer("A11", "Silver", 40), context.asyncAssertSuccess(id1 ->
+                    service.addCustomer(new Customer("A12", "Silver", 20), context.asyncAssertSuccess(id2 ->
+                        // A re-import replaces A12 and inserts A13, twice for A13
+                        service.addCustomers(Arrays.asList(new Customer("A12", "Gold", 5), new Customer("A13", "Gold", 1),
+                                new Customer("A13", "Gold", 3)), context.asyncAssertSuccess(results ->
+                            service.getStats(context.asyncAssertSuccess(stats -> {
+                                assertThat(stats.getCount(), equalTo(3L));
+                                assertThat(stats.getCount("Gold"), equalTo(2L));
+                                assertThat(stats.getTotalBalance("Gold"), equalTo(8L));
+                                assertThat(stats.getTotalBalance("Silver"), equalTo(40L));
+                                async.complete();
+                            }))))))))))));
+    }
+
+    @Test
+    public void testChangesArePublished(TestContext context) throws Exception {
+        CustomerService service = new CustomerServiceMongoImpl(mongoClient);
+        JsonObject config = new JsonObject()
+                .put("customer.cache.invalidation.address", "test-invalidations")
+                .put("customer.cache.invalidation.poll.ms", 50);
+
+        Async async = context.async();
+        vertx.eventBus().<String>consumer("test-invalidations", message -> {
+            assertThat(message.body(), equalTo("A20"));
+            async.complete();
+        });
+        vertx.deployVerticle(new CustomerChangeVerticle(mongoClient, new PrometheusMeterRegistry(PrometheusConfig.DEFAULT)),
+                new DeploymentOptions().setConfig(config), context.asyncAssertSuccess(id ->
+                    service.addCustomer(new Customer("A20", "Gold", 100), context.asyncAssertSuccess())));
+    }
+
     //@Test
     public void testPing(TestContext context) throws Exception {
         CustomerService service = new CustomerServiceMongoImpl(mongoClient);
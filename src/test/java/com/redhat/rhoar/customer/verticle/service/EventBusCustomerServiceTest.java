@@ -0,0 +1,202 @@
+package com.redhat.rhoar.customer.verticle.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerStats;
+import com.redhat.rhoar.customer.model.CustomerUpdate;
+import com.redhat.rhoar.customer.model.CustomerWriteResult;
+import com.redhat.rhoar.customer.service.CustomerMessageCodecs;
+import com.redhat.rhoar.customer.service.CustomerService;
+import com.redhat.rhoar.customer.service.CustomerServiceVerticle;
+import com.redhat.rhoar.customer.service.CustomerVersionConflictException;
+import com.redhat.rhoar.customer.service.EventBusCustomerService;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class EventBusCustomerServiceTest {
+
+    private Vertx vertx;
+    private CustomerService backend;
+    private EventBusCustomerService service;
+
+    @Before
+    public void setUp(TestContext context) {
+        vertx = Vertx.vertx();
+        backend = mock(CustomerService.class);
+        doAnswer(invocation -> {
+            Handler<AsyncResult<Void>> handler = invocation.getArgument(0);
+            handler.handle(Future.succeededFuture());
+            return null;
+        }).when(backend).flush(any());
+        service = new EventBusCustomerService(vertx, "test-customer-service", 5000);
+        vertx.deployVerticle(new CustomerServiceVerticle(backend),
+                new DeploymentOptions().setWorker(true)
+                        .setConfig(new JsonObject().put("customer.service.eventbus.address", "test-customer-service")),
+                context.asyncAssertSuccess());
+    }
+
+    @After
+    public void tearDown(TestContext context) {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void testGetCustomerIsPassedByReference(TestContext context) {
+        Customer customer = new Customer("A11", "Gold", 100);
+        doAnswer(invocation -> {
+            Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+            handler.handle(Future.succeededFuture(customer));
+            return null;
+        }).when(backend).getCustomer(eq("A11"), any());
+
+        Async async = context.async();
+        service.getCustomer("A11", context.asyncAssertSuccess(result -> {
+            assertThat(result, sameInstance(customer));
+            async.complete();
+        }));
+    }
+
+    @Test
+    public void testGetNonExistingCustomer(TestContext context) {
+        doAnswer(invocation -> {
+            Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+            handler.handle(Future.succeededFuture(null));
+            return null;
+        }).when(backend).getCustomer(eq("A99"), any());
+
+        service.getCustomer("A99", context.asyncAssertSuccess(result -> assertThat(result, nullValue())));
+    }
+
+    @Test
+    public void testGetCustomersPage(TestContext context) {
+        List<Customer> customers = Arrays.asList(new Customer("A11", "Gold", 100));
+        doAnswer(invocation -> {
+            Handler<AsyncResult<List<Customer>>> handler = invocation.getArgument(2);
+            handler.handle(Future.succeededFuture(customers));
+            return null;
+        }).when(backend).getCustomers(eq(10), eq("A00"), any());
+
+        service.getCustomers(10, "A00", context.asyncAssertSuccess(result -> assertThat(result, sameInstance(customers))));
+    }
+
+    @Test
+    public void testGetCustomersByIds(TestContext context) {
+        List<Customer> customers = Arrays.asList(new Customer("A12", "Gold", 100));
+        doAnswer(invocation -> {
+            Handler<AsyncResult<List<Customer>>> handler = invocation.getArgument(1);
+            handler.handle(Future.succeededFuture(customers));
+            return null;
+        }).when(backend).getCustomers(eq(Arrays.asList("A12", "A99")), any());
+
+        service.getCustomers(Arrays.asList("A12", "A99"), context.asyncAssertSuccess(result -> assertThat(result, sameInstance(customers))));
+    }
+
+    @Test
+    public void testGetStats(TestContext context) {
+        CustomerStats stats = new CustomerStats();
+        stats.add(new Customer("A11", "Gold", 100));
+        doAnswer(invocation -> {
+            Handler<AsyncResult<CustomerStats>> handler = invocation.getArgument(0);
+            handler.handle(Future.succeededFuture(stats));
+            return null;
+        }).when(backend).getStats(any());
+
+        service.getStats(context.asyncAssertSuccess(result -> assertThat(result, equalTo(stats))));
+    }
+
+    @Test
+    public void testUpdateCustomerConflictIsReported(TestContext context) {
+        doAnswer(invocation -> {
+            CustomerUpdate update = invocation.getArgument(0);
+            assertThat(update.getExpectedVersion(), equalTo(3L));
+            assertThat(update.getIdempotencyKey(), equalTo("key-1"));
+            Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+            handler.handle(Future.failedFuture(new CustomerVersionConflictException("Customer A11 is at version 4, not 3")));
+            return null;
+        }).when(backend).updateCustomer(any(), any());
+
+        CustomerUpdate update = CustomerUpdate.patch("A11", new JsonObject().put("balanceIncrement", 5))
+                .setExpectedVersion(3L)
+                .setIdempotencyKey("key-1");
+        service.updateCustomer(update, context.asyncAssertFailure(t -> {
+            assertThat(t, instanceOf(CustomerVersionConflictException.class));
+            assertThat(t.getMessage(), equalTo("Customer A11 is at version 4, not 3"));
+        }));
+    }
+
+    @Test
+    public void testFailureIsReported(TestContext context) {
+        doAnswer(invocation -> {
+            Handler<AsyncResult<String>> handler = invocation.getArgument(1);
+            handler.handle(Future.failedFuture("duplicate key"));
+            return null;
+        }).when(backend).addCustomer(any(), any());
+
+        service.addCustomer(new Customer("A11", "Gold", 100), context.asyncAssertFailure(t -> {
+            assertThat(t, instanceOf(ReplyException.class));
+            assertThat(t.getMessage(), equalTo("duplicate key"));
+        }));
+    }
+
+    @Test
+    public void testCustomerListWireFormat() {
+        Customer customer = new Customer("A11", "Göld", -5);
+        customer.setEtag("0123456789abcdef");
+        customer.setVersion(7);
+        List<Customer> customers = Arrays.asList(customer, new Customer(null, null, 0));
+
+        List<Customer> decoded = roundTrip(new CustomerMessageCodecs.CustomerListCodec(), customers);
+
+        assertThat(decoded.size(), equalTo(2));
+        assertThat(decoded.get(0).toJson(), equalTo(customer.toJson()));
+        assertThat(decoded.get(0).getEtag(), equalTo("0123456789abcdef"));
+        assertThat(decoded.get(0).getVersion(), equalTo(7L));
+        assertThat(decoded.get(1).getCustomerId(), nullValue());
+    }
+
+    @Test
+    public void testWriteResultListWireFormat() {
+        List<CustomerWriteResult> results = Arrays.asList(CustomerWriteResult.ok("A11"), CustomerWriteResult.failed("A12", "bad"));
+
+        List<CustomerWriteResult> decoded = roundTrip(new CustomerMessageCodecs.WriteResultListCodec(), results);
+
+        assertThat(decoded.get(0).toJson(), equalTo(results.get(0).toJson()));
+        assertThat(decoded.get(1).toJson(), equalTo(results.get(1).toJson()));
+    }
+
+    private static <T> T roundTrip(MessageCodec<T, T> codec, T value) {
+        // Other message fields come first on the wire
+        Buffer buffer = Buffer.buffer().appendString("header");
+        codec.encodeToWire(buffer, value);
+        return codec.decodeFromWire(6, buffer);
+    }
+}
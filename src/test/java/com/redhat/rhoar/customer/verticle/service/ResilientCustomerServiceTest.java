@@ -0,0 +1,155 @@
+package com.redhat.rhoar.customer.verticle.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.mongodb.MongoTimeoutException;
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerUpdate;
+import com.redhat.rhoar.customer.service.CustomerService;
+import com.redhat.rhoar.customer.service.CustomerServiceUnavailableException;
+import com.redhat.rhoar.customer.service.CustomerVersionConflictException;
+import com.redhat.rhoar.customer.service.ResilientCustomerService;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class ResilientCustomerServiceTest {
+
+    private Vertx vertx;
+    private CustomerService delegate;
+    private AtomicBoolean healthy;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+        healthy = new AtomicBoolean(true);
+        delegate = mock(CustomerService.class);
+        doAnswer(invocation -> {
+            Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+            handler.handle(healthy.get() ? Future.succeededFuture(null) : Future.failedFuture(new MongoTimeoutException("Mongo down")));
+            return null;
+        }).when(delegate).getCustomer(any(), any());
+    }
+
+    @After
+    public void tearDown(TestContext context) {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void testCallTimesOut(TestContext context) {
+        // Never completes
+        doAnswer(invocation -> null).when(delegate).addCustomer(any(), any());
+        ResilientCustomerService service = new ResilientCustomerService(vertx, delegate, 5, 10000, 5000)
+                .setTimeout("addCustomer", 50);
+
+        service.addCustomer(new Customer("A11", "Gold", 1), context.asyncAssertFailure(t -> {
+            assertThat(t, instanceOf(CustomerServiceUnavailableException.class));
+            assertThat(service.getTimeoutCount(), equalTo(1L));
+        }));
+    }
+
+    @Test
+    public void testInitializeHasNoDeadline(TestContext context) {
+        doAnswer(invocation -> {
+            Handler<AsyncResult<Void>> handler = invocation.getArgument(0);
+            vertx.setTimer(200, id -> handler.handle(Future.succeededFuture()));
+            return null;
+        }).when(delegate).initialize(any());
+        ResilientCustomerService service = new ResilientCustomerService(vertx, delegate, 1, 10000, 50);
+
+        service.initialize(context.asyncAssertSuccess(v -> {
+            assertThat(service.getTimeoutCount(), equalTo(0L));
+            assertThat(service.getState(), equalTo(ResilientCustomerService.CLOSED));
+        }));
+    }
+
+    @Test
+    public void testCircuitOpensAndFailsFast(TestContext context) {
+        ResilientCustomerService service = new ResilientCustomerService(vertx, delegate, 2, 60000, 5000);
+        healthy.set(false);
+
+        service.getCustomer("A11", ar -> assertThat(ar.failed(), equalTo(true)));
+        service.getCustomer("A11", ar -> assertThat(ar.failed(), equalTo(true)));
+        assertThat(service.getState(), equalTo(ResilientCustomerService.OPEN));
+
+        healthy.set(true);
+        service.getCustomer("A11", context.asyncAssertFailure(t -> {
+            assertThat(t, instanceOf(CustomerServiceUnavailableException.class));
+            verify(delegate, times(2)).getCustomer(any(), any());
+            assertThat(service.getRejectedCount(), equalTo(1L));
+        }));
+    }
+
+    @Test
+    public void testTrialCallClosesCircuit(TestContext context) {
+        ResilientCustomerService service = new ResilientCustomerService(vertx, delegate, 1, 50, 5000);
+        healthy.set(false);
+        service.getCustomer("A11", ar -> {});
+        assertThat(service.getState(), equalTo(ResilientCustomerService.OPEN));
+
+        healthy.set(true);
+        Async async = context.async();
+        vertx.setTimer(100, id -> {
+            assertThat(service.getState(), equalTo(ResilientCustomerService.HALF_OPEN));
+            service.getCustomer("A11", context.asyncAssertSuccess(customer -> {
+                assertThat(service.getState(), equalTo(ResilientCustomerService.CLOSED));
+                async.complete();
+            }));
+        });
+    }
+
+    @Test
+    public void testFailedTrialReopensCircuit(TestContext context) {
+        ResilientCustomerService service = new ResilientCustomerService(vertx, delegate, 1, 50, 5000);
+        healthy.set(false);
+        service.getCustomer("A11", ar -> {});
+
+        Async async = context.async();
+        vertx.setTimer(100, id -> {
+            service.getCustomer("A11", context.asyncAssertFailure(t -> {
+                assertThat(service.getState(), equalTo(ResilientCustomerService.OPEN));
+                verify(delegate, times(2)).getCustomer(any(), any());
+                async.complete();
+            }));
+        });
+    }
+
+    @Test
+    public void testRequestFailuresDoNotOpenCircuit(TestContext context) {
+        doAnswer(invocation -> {
+            Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+            handler.handle(Future.failedFuture(new CustomerVersionConflictException("Customer A11 is at version 4, not 3")));
+            return null;
+        }).when(delegate).updateCustomer(any(), any());
+        ResilientCustomerService service = new ResilientCustomerService(vertx, delegate, 2, 60000, 5000);
+        CustomerUpdate update = CustomerUpdate.replace(new Customer("A11", "Gold", 1)).setExpectedVersion(3L);
+
+        service.updateCustomer(update, ar -> assertThat(ar.failed(), equalTo(true)));
+        service.updateCustomer(update, ar -> assertThat(ar.failed(), equalTo(true)));
+        service.updateCustomer(update, ar -> assertThat(ar.failed(), equalTo(true)));
+
+        assertThat(service.getState(), equalTo(ResilientCustomerService.CLOSED));
+        service.getCustomer("A11", context.asyncAssertSuccess());
+    }
+}
@@ -0,0 +1,114 @@
+package com.redhat.rhoar.customer.verticle.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerWriteResult;
+import com.redhat.rhoar.customer.service.CustomerService;
+import com.redhat.rhoar.customer.service.RxCustomerService;
+
+import io.reactivex.Flowable;
+import io.reactivex.subscribers.TestSubscriber;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+
+public class RxCustomerServiceTest {
+
+    private CustomerService delegate;
+    private List<String> pagesRead;
+    private List<Integer> batchesWritten;
+
+    @Before
+    public void setup() {
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            customers.add(new Customer("A" + i, "Gold", i));
+        }
+        pagesRead = new ArrayList<>();
+        batchesWritten = new ArrayList<>();
+        delegate = mock(CustomerService.class);
+        doAnswer(invocation -> {
+            int limit = invocation.getArgument(0);
+            String after = invocation.getArgument(1);
+            Handler<AsyncResult<List<Customer>>> handler = invocation.getArgument(2);
+            pagesRead.add(after);
+            handler.handle(Future.succeededFuture(customers.stream()
+                    .filter(c -> after == null || c.getCustomerId().compareTo(after) > 0)
+                    .limit(limit)
+                    .collect(Collectors.toList())));
+            return null;
+        }).when(delegate).getCustomers(anyInt(), any(), any());
+        doAnswer(invocation -> {
+            List<Customer> batch = invocation.getArgument(0);
+            Handler<AsyncResult<List<CustomerWriteResult>>> handler = invocation.getArgument(1);
+            batchesWritten.add(batch.size());
+            handler.handle(Future.succeededFuture(batch.stream()
+                    .map(c -> CustomerWriteResult.ok(c.getCustomerId()))
+                    .collect(Collectors.toList())));
+            return null;
+        }).when(delegate).addCustomers(any(), any());
+        doAnswer(invocation -> {
+            Handler<AsyncResult<Customer>> handler = invocation.getArgument(1);
+            handler.handle(Future.succeededFuture(null));
+            return null;
+        }).when(delegate).getCustomer(any(), any());
+    }
+
+    @Test
+    public void testGetCustomersReadsAllPages() {
+        RxCustomerService service = new RxCustomerService(delegate);
+
+        List<String> ids = service.getCustomers(2).map(Customer::getCustomerId).toList().blockingGet();
+
+        assertThat(ids.toString(), equalTo("[A1, A2, A3, A4, A5]"));
+        assertThat(pagesRead.toString(), equalTo("[null, A2, A4]"));
+    }
+
+    @Test
+    public void testGetCustomersReadsOnDemand() {
+        RxCustomerService service = new RxCustomerService(delegate);
+        Flowable<Customer> customers = service.getCustomers(2);
+        assertThat(pagesRead.size(), equalTo(0));
+
+        TestSubscriber<Customer> subscriber = customers.test(1);
+
+        subscriber.assertValueCount(1);
+        // The current page and at most one page ahead
+        assertThat(pagesRead.size() <= 2, equalTo(true));
+        subscriber.requestMore(1).assertValueCount(2).assertNotComplete();
+        subscriber.requestMore(10).assertValueCount(5).assertComplete();
+    }
+
+    @Test
+    public void testAddCustomersInBatches() {
+        RxCustomerService service = new RxCustomerService(delegate);
+
+        List<CustomerWriteResult> results = service
+                .addCustomers(Flowable.range(1, 5).map(i -> new Customer("B" + i, "Gold", i)), 2)
+                .toList().blockingGet();
+
+        assertThat(results.size(), equalTo(5));
+        assertThat(results.get(4).getCustomerId(), equalTo("B5"));
+        assertThat(batchesWritten.toString(), equalTo("[2, 2, 1]"));
+    }
+
+    @Test
+    public void testMissingCustomerIsEmpty() {
+        RxCustomerService service = new RxCustomerService(delegate);
+
+        service.getCustomer("A99").test().assertNoValues().assertComplete();
+    }
+}
@@ -0,0 +1,144 @@
+package com.redhat.rhoar.customer.verticle.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.redhat.rhoar.customer.model.Customer;
+import com.redhat.rhoar.customer.model.CustomerWriteResult;
+import com.redhat.rhoar.customer.service.CustomerService;
+import com.redhat.rhoar.customer.service.CustomerServiceUnavailableException;
+import com.redhat.rhoar.customer.service.WriteBehindCustomerService;
+import com.redhat.rhoar.customer.service.WriteBehindCustomerService.Durability;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class WriteBehindCustomerServiceTest {
+
+    private Vertx vertx;
+    private CustomerService delegate;
+    private List<List<Customer>> batches;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+        batches = new ArrayList<>();
+        delegate = mock(CustomerService.class);
+        doAnswer(invocation -> {
+            List<Customer> batch = invocation.getArgument(0);
+            Handler<AsyncResult<List<CustomerWriteResult>>> handler = invocation.getArgument(1);
+            synchronized (batches) {
+                batches.add(batch);
+            }
+            handler.handle(Future.succeededFuture(batch.stream()
+                    .map(c -> c.getCustomerId().startsWith("B")
+                            ? CustomerWriteResult.failed(c.getCustomerId(), "duplicate key")
+                            : CustomerWriteResult.ok(c.getCustomerId()))
+                    .collect(Collectors.toList())));
+            return null;
+        }).when(delegate).addCustomers(any(), any());
+        doAnswer(invocation -> {
+            Handler<AsyncResult<Void>> handler = invocation.getArgument(0);
+            handler.handle(Future.succeededFuture());
+            return null;
+        }).when(delegate).flush(any());
+    }
+
+    @After
+    public void tearDown(TestContext context) {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void testFullBatchIsWrittenAtOnce(TestContext context) {
+        WriteBehindCustomerService service = new WriteBehindCustomerService(vertx, delegate, 3, 60000, 100, Durability.COMMITTED);
+        Async async = context.async(3);
+
+        for (int i = 1; i <= 3; i++) {
+            service.addCustomer(new Customer("A1" + i, "Gold", i), context.asyncAssertSuccess(r -> async.countDown()));
+        }
+
+        async.await();
+        assertThat(batches.size(), equalTo(1));
+        assertThat(batches.get(0).size(), equalTo(3));
+        verify(delegate, never()).addCustomer(any(), any());
+    }
+
+    @Test
+    public void testWritesAreGroupedUntilTheDelay(TestContext context) {
+        WriteBehindCustomerService service = new WriteBehindCustomerService(vertx, delegate, 100, 50, 100, Durability.COMMITTED);
+        Async async = context.async(2);
+
+        service.addCustomer(new Customer("A11", "Gold", 1), context.asyncAssertSuccess(r -> async.countDown()));
+        service.addCustomer(new Customer("A11", "Gold", 2), context.asyncAssertSuccess(r -> async.countDown()));
+        service.addCustomer(new Customer("B11", "Gold", 3), context.asyncAssertFailure(t -> {
+            assertThat(t.getMessage(), equalTo("duplicate key"));
+            assertThat(service.getFailedCount(), equalTo(1L));
+        }));
+
+        async.await();
+        assertThat(batches.size(), equalTo(1));
+        assertThat(batches.get(0).get(0).getBalance(), equalTo(2));
+    }
+
+    @Test
+    public void testBufferedWritesAreReadBackAndFlushed(TestContext context) {
+        WriteBehindCustomerService service = new WriteBehindCustomerService(vertx, delegate, 100, 60000, 100, Durability.BUFFERED);
+
+        service.addCustomer(new Customer("A11", "Gold", 10), context.asyncAssertSuccess());
+        service.getCustomer("A11", context.asyncAssertSuccess(c -> assertThat(c.getBalance(), equalTo(10))));
+        assertThat(batches.size(), equalTo(0));
+
+        service.flush(context.asyncAssertSuccess(v -> {
+            assertThat(batches.size(), equalTo(1));
+            assertThat(service.getPendingCount(), equalTo(0));
+        }));
+    }
+
+    @Test
+    public void testBulkWriteIsStoredAfterBufferedWrites(TestContext context) {
+        WriteBehindCustomerService service = new WriteBehindCustomerService(vertx, delegate, 100, 60000, 100, Durability.BUFFERED);
+
+        service.addCustomer(new Customer("A11", "Gold", 10), context.asyncAssertSuccess());
+        service.addCustomer(new Customer("A12", "Gold", 10), context.asyncAssertSuccess());
+        service.addCustomers(Arrays.asList(new Customer("A11", "Silver", 20)), context.asyncAssertSuccess(results -> {
+            assertThat(batches.size(), equalTo(2));
+            assertThat(batches.get(0).size(), equalTo(2));
+            assertThat(batches.get(1).get(0).getBalance(), equalTo(20));
+            assertThat(service.getPendingCount(), equalTo(0));
+        }));
+    }
+
+    @Test
+    public void testTooManyPendingWrites(TestContext context) {
+        // The batch never completes
+        doAnswer(invocation -> null).when(delegate).addCustomers(any(), any());
+        WriteBehindCustomerService service = new WriteBehindCustomerService(vertx, delegate, 1, 60000, 1, Durability.BUFFERED);
+
+        service.addCustomer(new Customer("A11", "Gold", 10), context.asyncAssertSuccess());
+        service.addCustomer(new Customer("A12", "Gold", 10), context.asyncAssertFailure(t ->
+                assertThat(t, instanceOf(CustomerServiceUnavailableException.class))));
+    }
+}